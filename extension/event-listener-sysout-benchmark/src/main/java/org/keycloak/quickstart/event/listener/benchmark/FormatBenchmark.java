@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener.benchmark;
+
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.quickstart.event.listener.SysoutEventListenerProviderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of printing one event with the listener created the same way the server creates it. Standard output is
+ * discarded, so that formatting and handing the bytes over is measured rather than the terminal. Run with
+ * {@code -prof gc} to see the bytes allocated per event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormatBenchmark {
+
+    private static final String PREFIX = "keycloak.benchmark.sysout.";
+
+    @Param({ "text", "ndjson", "binary" })
+    public String format;
+
+    @Param({ "false", "true" })
+    public boolean async;
+
+    private PrintStream out;
+    private SysoutEventListenerProviderFactory factory;
+    private EventListenerProvider listener;
+    private Event login;
+    private Event loginWithDetails;
+    private Event excluded;
+    private AdminEvent adminEvent;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        System.setProperty(PREFIX + "format", format);
+        System.setProperty(PREFIX + "async", Boolean.toString(async));
+        System.setProperty(PREFIX + "exclude-events", EventType.CODE_TO_TOKEN.name());
+        factory = new SysoutEventListenerProviderFactory();
+        factory.init(new Config.SystemPropertiesScope(PREFIX));
+        listener = factory.create(null);
+
+        login = event(EventType.LOGIN);
+        loginWithDetails = event(EventType.LOGIN);
+        Map<String, String> details = new HashMap<>();
+        details.put("auth_method", "openid-connect");
+        details.put("auth_type", "code");
+        details.put("redirect_uri", "https://app.example.com/callback?state=af0ifjsldkj");
+        details.put("consent", "no_consent_required");
+        details.put("code_id", "7c4e1f0a-1b7e-4a6f-9a3e-6a3f0c2d9b11");
+        details.put("username", "jane doe");
+        loginWithDetails.setDetails(details);
+        excluded = event(EventType.CODE_TO_TOKEN);
+
+        adminEvent = new AdminEvent();
+        adminEvent.setTime(System.currentTimeMillis());
+        adminEvent.setRealmId("master");
+        adminEvent.setOperationType(OperationType.UPDATE);
+        adminEvent.setResourcePath("users/5d4e2e6a-3c1f-4b8e-9d3a-0f1e2d3c4b5a");
+        AuthDetails authDetails = new AuthDetails();
+        authDetails.setRealmId("master");
+        authDetails.setClientId("security-admin-console");
+        authDetails.setUserId("0f2f7c5e-7b9c-4c0d-8a51-6a0e5f6d2c3b");
+        authDetails.setIpAddress("192.168.17.42");
+        adminEvent.setAuthDetails(authDetails);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        factory.close();
+        System.setOut(out);
+    }
+
+    private static Event event(EventType type) {
+        Event event = new Event();
+        event.setTime(System.currentTimeMillis());
+        event.setType(type);
+        event.setRealmId("master");
+        event.setClientId("account-console");
+        event.setUserId("0f2f7c5e-7b9c-4c0d-8a51-6a0e5f6d2c3b");
+        event.setSessionId("3b7a1c52-93f4-4d0e-8f1b-2a6c9d8e7f60");
+        event.setIpAddress("192.168.17.42");
+        return event;
+    }
+
+    @Benchmark
+    public void userEvent() {
+        listener.onEvent(login);
+    }
+
+    @Benchmark
+    public void userEventWithDetails() {
+        listener.onEvent(loginWithDetails);
+    }
+
+    @Benchmark
+    public void excludedEvent() {
+        listener.onEvent(excluded);
+    }
+
+    @Benchmark
+    public void adminEvent() {
+        listener.onEvent(adminEvent, false);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener.benchmark;
+
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventType;
+import org.keycloak.quickstart.event.listener.SysoutEventListenerProviderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of holding back the events of a flood, such as the {@code LOGIN_ERROR} events of a credential stuffing attack,
+ * reported by four threads at once. Nearly all events exceed the rate limits, so the benchmarks measure the limiter
+ * rather than printing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ThrottleBenchmark {
+
+    private static final String PREFIX = "keycloak.benchmark.sysout-throttle.";
+
+    private PrintStream out;
+    private SysoutEventListenerProviderFactory factory;
+    private EventListenerProvider listener;
+    private Event loginError;
+    private Event login;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        System.setProperty(PREFIX + "type-rate-limits", EventType.LOGIN_ERROR.name() + ":100");
+        System.setProperty(PREFIX + "ip-rate-limit", "10");
+        factory = new SysoutEventListenerProviderFactory();
+        factory.init(new Config.SystemPropertiesScope(PREFIX));
+        listener = factory.create(null);
+
+        loginError = event(EventType.LOGIN_ERROR);
+        loginError.setError("invalid_user_credentials");
+        login = event(EventType.LOGIN);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        factory.close();
+        System.setOut(out);
+    }
+
+    private static Event event(EventType type) {
+        Event event = new Event();
+        event.setTime(System.currentTimeMillis());
+        event.setType(type);
+        event.setRealmId("master");
+        event.setClientId("account-console");
+        event.setUserId("0f2f7c5e-7b9c-4c0d-8a51-6a0e5f6d2c3b");
+        event.setIpAddress("203.0.113.7");
+        return event;
+    }
+
+    /**
+     * Held back by the rate limit of the event type.
+     */
+    @Benchmark
+    public void limitedByType() {
+        listener.onEvent(loginError);
+    }
+
+    /**
+     * Held back by the rate limit of the IP address.
+     */
+    @Benchmark
+    public void limitedByIp() {
+        listener.onEvent(login);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.jboss.logging.Logger;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prints events on a writer thread, so that the threads reporting events never wait for the output. Events are handed
+ * over through a bounded queue and dropped if it is full. The writer thread formats them into a buffer and writes the
+ * buffer to the channel when it is full. Once the oldest line that has not been flushed has waited for the flush
+ * interval, the buffer is written and channels that buffer themselves, such as a {@link RotatingFileChannel}, are
+ * flushed as well.
+ * <p>
+ * Excluded events are queued as their event type or operation, so that handing them over allocates nothing either.
+ */
+class AsyncEventPrinter {
+
+    private static final Logger logger = Logger.getLogger(AsyncEventPrinter.class);
+
+    private static final long DROP_REPORT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Queued for excluded events without a type or operation.
+     */
+    private enum Untyped {
+        EVENT, ADMIN_EVENT
+    }
+
+    /**
+     * Queued for the summary of held back events.
+     */
+    private static final class Suppressed {
+
+        private final EventType type;
+        private final long count;
+
+        private Suppressed(EventType type, long count) {
+            this.type = type;
+            this.count = count;
+        }
+    }
+
+    private final EventFormatter formatter;
+    private final WritableByteChannel channel;
+    private final BlockingQueue<Object> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final LineBuffer buffer = new LineBuffer(BUFFER_SIZE + 4096);
+    private final Thread thread;
+    private final AtomicLong dropped = new AtomicLong();
+    private boolean unflushed;
+    private long unflushedSince;
+    private volatile boolean closed;
+
+    AsyncEventPrinter(EventFormatter formatter, WritableByteChannel channel, int queueSize, int batchSize,
+            long flushIntervalMillis) {
+        this.formatter = formatter;
+        this.channel = channel;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.thread = new Thread(this::run, "sysout-event-printer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void submit(Event event) {
+        offer(event);
+    }
+
+    void submit(AdminEvent event) {
+        offer(event);
+    }
+
+    void submitExcluded(Event event) {
+        offer(event.getType() != null ? event.getType() : Untyped.EVENT);
+    }
+
+    void submitExcluded(AdminEvent event) {
+        offer(event.getOperationType() != null ? event.getOperationType() : Untyped.ADMIN_EVENT);
+    }
+
+    /**
+     * @return whether the summary was queued; it is not counted as dropped otherwise, as the throttle counts the events
+     * again in its next summary
+     */
+    boolean submitSuppressed(EventType type, long count) {
+        return !closed && queue.offer(new Suppressed(type, count));
+    }
+
+    private void offer(Object event) {
+        if (closed || !queue.offer(event)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Prints the queued events and stops the writer thread. The thread is not interrupted, as an interrupt closes the
+     * channel it may be writing to.
+     */
+    void close() {
+        closed = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dropped.get() > 0) {
+            logger.warnf("%s dropped %d events in total", thread.getName(), dropped.get());
+        }
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        long reportedDrops = 0;
+        long reportedAt = System.currentTimeMillis();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                long wait = unflushed ? flushIntervalNanos - (System.nanoTime() - unflushedSince) : IDLE_NANOS;
+                Object first = wait > 0 ? queue.poll(Math.min(wait, IDLE_NANOS), TimeUnit.NANOSECONDS) : queue.poll();
+                if (first != null) {
+                    batch.add(first);
+                }
+            } catch (InterruptedException e) {
+                // Not interrupted by the printer itself, the thread keeps printing until it is closed
+            }
+            queue.drainTo(batch, batchSize - batch.size());
+            for (Object event : batch) {
+                if (!unflushed) {
+                    unflushed = true;
+                    unflushedSince = System.nanoTime();
+                }
+                int length = buffer.length();
+                try {
+                    format(event);
+                } catch (RuntimeException e) {
+                    buffer.truncate(length);
+                    logger.error("Failed to print event", e);
+                }
+                if (buffer.length() >= BUFFER_SIZE) {
+                    write();
+                }
+            }
+            batch.clear();
+            if (unflushed && (closed || System.nanoTime() - unflushedSince >= flushIntervalNanos)) {
+                flush();
+            }
+
+            long now = System.currentTimeMillis();
+            long drops = dropped.get();
+            if (drops > reportedDrops && now - reportedAt >= DROP_REPORT_INTERVAL) {
+                logger.warnf("%s dropped %d events because its queue was full", thread.getName(), drops - reportedDrops);
+                reportedDrops = drops;
+                reportedAt = now;
+            }
+        }
+        flush();
+    }
+
+    private void format(Object event) {
+        if (event instanceof Event) {
+            formatter.format((Event) event, buffer);
+        } else if (event instanceof AdminEvent) {
+            formatter.format((AdminEvent) event, buffer);
+        } else if (event instanceof EventType) {
+            formatter.formatExcluded((EventType) event, buffer);
+        } else if (event instanceof OperationType) {
+            formatter.formatExcluded((OperationType) event, buffer);
+        } else if (event instanceof Suppressed) {
+            formatter.formatSuppressed(((Suppressed) event).type, ((Suppressed) event).count, buffer);
+        } else if (event == Untyped.EVENT) {
+            formatter.formatExcluded((EventType) null, buffer);
+        } else {
+            formatter.formatExcluded((OperationType) null, buffer);
+        }
+    }
+
+    private void flush() {
+        write();
+        if (channel instanceof Flushable) {
+            try {
+                ((Flushable) channel).flush();
+            } catch (IOException e) {
+                logger.error("Failed to flush printed events", e);
+            }
+        }
+        unflushed = false;
+    }
+
+    private void write() {
+        if (buffer.length() == 0) {
+            return;
+        }
+        ByteBuffer bytes = buffer.buffer();
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to print events", e);
+        }
+        buffer.clear();
+    }
+}
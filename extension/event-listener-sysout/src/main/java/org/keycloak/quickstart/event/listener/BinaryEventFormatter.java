@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+
+/**
+ * Formats events as compact binary records for pipelines that would rather not parse text. Each record starts with
+ * its length in bytes as a big-endian int, not counting the length itself, followed by a kind byte and the fields:
+ * <ul>
+ * <li>{@link #USER_EVENT}: time, type, realm id, client id, user id, session id, IP address, error and details</li>
+ * <li>{@link #ADMIN_EVENT}: time, realm id, operation type, resource type, resource path, the realm id, client id,
+ * user id and IP address of the authenticated user, which are missing if the event has no auth details, and
+ * error</li>
+ * <li>{@link #USER_EVENT_EXCLUDED}: type</li>
+ * <li>{@link #ADMIN_EVENT_EXCLUDED}: operation type</li>
+ * <li>{@link #USER_EVENTS_SUPPRESSED}: type and the number of events held back as a big-endian long</li>
+ * </ul>
+ * Times are big-endian longs. Strings, including the names of types and operations, are written as their UTF-8 length
+ * plus one as an unsigned LEB128 varint followed by the UTF-8 bytes; a length of zero stands for a missing value. The
+ * details are written as their number plus one, or zero if there are none, followed by the keys and values.
+ */
+class BinaryEventFormatter extends EventFormatter {
+
+    static final byte USER_EVENT = 1;
+    static final byte ADMIN_EVENT = 2;
+    static final byte USER_EVENT_EXCLUDED = 3;
+    static final byte ADMIN_EVENT_EXCLUDED = 4;
+    static final byte USER_EVENTS_SUPPRESSED = 5;
+
+    private static final LineBuffer.EntryWriter DETAIL = (line, index, key, value) -> line.putSized(key).putSized(value);
+
+    private static void putName(LineBuffer line, byte[][] names, Enum<?> value) {
+        byte[] name = name(names, value);
+        if (name == null) {
+            line.putVarInt(0);
+        } else {
+            line.putVarInt(name.length + 1).put(name);
+        }
+    }
+
+    /**
+     * @return the offset of the record length, to be filled in by {@link #end}
+     */
+    private static int start(LineBuffer line, byte kind) {
+        int start = line.length();
+        line.putInt(0).put(kind);
+        return start;
+    }
+
+    private static void end(LineBuffer line, int start) {
+        line.setInt(start, line.length() - start - 4);
+    }
+
+    @Override
+    void format(Event event, LineBuffer line) {
+        int start = start(line, USER_EVENT);
+        line.putLong(event.getTime());
+        putName(line, EVENT_TYPES, event.getType());
+        line.putSized(event.getRealmId())
+                .putSized(event.getClientId())
+                .putSized(event.getUserId())
+                .putSized(event.getSessionId())
+                .putSized(event.getIpAddress())
+                .putSized(event.getError());
+
+        if (event.getDetails() != null) {
+            line.putVarInt(event.getDetails().size() + 1).putEntries(event.getDetails(), DETAIL);
+        } else {
+            line.putVarInt(0);
+        }
+
+        end(line, start);
+    }
+
+    @Override
+    void format(AdminEvent adminEvent, LineBuffer line) {
+        int start = start(line, ADMIN_EVENT);
+        line.putLong(adminEvent.getTime()).putSized(adminEvent.getRealmId());
+        putName(line, OPERATION_TYPES, adminEvent.getOperationType());
+        AuthDetails authDetails = adminEvent.getAuthDetails();
+        line.putSized(adminEvent.getResourceTypeAsString())
+                .putSized(adminEvent.getResourcePath());
+        if (authDetails == null) {
+            line.putVarInt(0).putVarInt(0).putVarInt(0).putVarInt(0);
+        } else {
+            line.putSized(authDetails.getRealmId())
+                    .putSized(authDetails.getClientId())
+                    .putSized(authDetails.getUserId())
+                    .putSized(authDetails.getIpAddress());
+        }
+        line.putSized(adminEvent.getError());
+        end(line, start);
+    }
+
+    @Override
+    void formatExcluded(EventType type, LineBuffer line) {
+        int start = start(line, USER_EVENT_EXCLUDED);
+        putName(line, EVENT_TYPES, type);
+        end(line, start);
+    }
+
+    @Override
+    void formatExcluded(OperationType operation, LineBuffer line) {
+        int start = start(line, ADMIN_EVENT_EXCLUDED);
+        putName(line, OPERATION_TYPES, operation);
+        end(line, start);
+    }
+
+    @Override
+    void formatSuppressed(EventType type, long count, LineBuffer line) {
+        int start = start(line, USER_EVENTS_SUPPRESSED);
+        putName(line, EVENT_TYPES, type);
+        line.putLong(count);
+        end(line, start);
+    }
+}
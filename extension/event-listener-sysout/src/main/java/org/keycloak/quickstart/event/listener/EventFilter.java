@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides which events are printed. The options are compiled once into lookup tables, so that deciding about an event
+ * neither allocates nor boxes: everything that depends on the event type is a single array lookup by the ordinal of
+ * the type, and excluded admin operations are a bit mask. Realm, client and error lists are only consulted when
+ * configured. Sampling is left to the {@link EventThrottle}, which counts the events it holds back.
+ * <p>
+ * Events excluded by {@code exclude-events} or {@code excludesOperations} are reported by {@link #isExcluded(Event)},
+ * so that the listener can mention them; events rejected by the other options are just not printed.
+ */
+class EventFilter {
+
+    /**
+     * Whether the events of each type are included by {@code include-events}.
+     */
+    private final boolean[] includedTypes = new boolean[EventType.values().length];
+    /**
+     * Whether the events of each type are excluded by {@code exclude-events}.
+     */
+    private final boolean[] excludedTypes = new boolean[EventType.values().length];
+    private final long excludedOperations;
+    private final Set<String> includedRealms;
+    private final Set<String> excludedRealms;
+    private final Set<String> includedClients;
+    private final Set<String> excludedClients;
+    private final Set<String> includedErrors;
+    private final Set<String> excludedErrors;
+
+    EventFilter(Config.Scope config) {
+        String[] included = config.getArray("include-events");
+        if (included == null) {
+            Arrays.fill(includedTypes, true);
+        } else {
+            for (String type : included) {
+                includedTypes[EventType.valueOf(type.trim()).ordinal()] = true;
+            }
+        }
+        String[] excluded = config.getArray("exclude-events");
+        if (excluded != null) {
+            for (String type : excluded) {
+                excludedTypes[EventType.valueOf(type.trim()).ordinal()] = true;
+            }
+        }
+
+        long operations = 0;
+        String[] excludesOperations = config.getArray("excludesOperations");
+        if (excludesOperations != null) {
+            for (String operation : excludesOperations) {
+                operations |= 1L << OperationType.valueOf(operation.trim()).ordinal();
+            }
+        }
+        excludedOperations = operations;
+
+        includedRealms = set(config.getArray("include-realms"));
+        excludedRealms = set(config.getArray("exclude-realms"));
+        includedClients = set(config.getArray("include-clients"));
+        excludedClients = set(config.getArray("exclude-clients"));
+        includedErrors = set(config.getArray("include-errors"));
+        excludedErrors = set(config.getArray("exclude-errors"));
+    }
+
+    private static Set<String> set(String[] values) {
+        if (values == null) {
+            return null;
+        }
+        Set<String> set = new HashSet<>();
+        for (String value : values) {
+            set.add(value.trim());
+        }
+        return set;
+    }
+
+    private static boolean matches(String value, Set<String> included, Set<String> excluded) {
+        return (included == null || (value != null && included.contains(value)))
+                && (excluded == null || value == null || !excluded.contains(value));
+    }
+
+    /**
+     * @return whether the type of the event is excluded by {@code exclude-events}
+     */
+    boolean isExcluded(Event event) {
+        return event.getType() != null && excludedTypes[event.getType().ordinal()];
+    }
+
+    /**
+     * @return whether the operation of the event is excluded by {@code excludesOperations}
+     */
+    boolean isExcluded(AdminEvent event) {
+        return event.getOperationType() != null
+                && (excludedOperations & 1L << event.getOperationType().ordinal()) != 0;
+    }
+
+    /**
+     * @return whether the event is printed
+     */
+    boolean test(Event event) {
+        if (event.getType() != null && (!includedTypes[event.getType().ordinal()] || isExcluded(event))) {
+            return false;
+        }
+        return matches(event.getRealmId(), includedRealms, excludedRealms)
+                && matches(event.getClientId(), includedClients, excludedClients)
+                && matches(event.getError(), includedErrors, excludedErrors);
+    }
+
+    /**
+     * @return whether the event is printed
+     */
+    boolean test(AdminEvent event) {
+        return !isExcluded(event) && matches(event.getRealmId(), includedRealms, excludedRealms);
+    }
+}
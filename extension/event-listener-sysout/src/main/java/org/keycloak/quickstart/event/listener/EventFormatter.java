@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+
+import static org.keycloak.quickstart.event.listener.LineBuffer.ascii;
+
+/**
+ * Formats events into a buffer, one line or record per event. Formatters encode the values straight into the buffer
+ * and the names of event types and operations are encoded once, so formatting allocates nothing.
+ */
+abstract class EventFormatter {
+
+    static final byte[][] EVENT_TYPES = names(EventType.values());
+    static final byte[][] OPERATION_TYPES = names(OperationType.values());
+
+    private static byte[][] names(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for (Enum<?> value : values) {
+            names[value.ordinal()] = ascii(value.name());
+        }
+        return names;
+    }
+
+    /**
+     * @return the encoded name of the value, or {@code null} if there is no value
+     */
+    static byte[] name(byte[][] names, Enum<?> value) {
+        return value == null ? null : names[value.ordinal()];
+    }
+
+    /**
+     * @param format {@code text}, {@code ndjson} or {@code binary}
+     */
+    static EventFormatter of(String format) {
+        switch (format) {
+            case "text":
+                return new TextEventFormatter();
+            case "ndjson":
+                return new JsonEventFormatter();
+            case "binary":
+                return new BinaryEventFormatter();
+            default:
+                throw new IllegalArgumentException("Unknown format: " + format);
+        }
+    }
+
+    abstract void format(Event event, LineBuffer line);
+
+    abstract void format(AdminEvent adminEvent, LineBuffer line);
+
+    /**
+     * Formats an event that is not printed, of which only the type is known.
+     */
+    abstract void formatExcluded(EventType type, LineBuffer line);
+
+    abstract void formatExcluded(OperationType operation, LineBuffer line);
+
+    /**
+     * Formats the summary of the events of a type that were held back by the {@link EventThrottle}.
+     */
+    abstract void formatSuppressed(EventType type, long count, LineBuffer line);
+}
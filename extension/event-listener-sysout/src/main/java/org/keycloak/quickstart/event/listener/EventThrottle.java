@@ -0,0 +1,260 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps floods of user events, such as the {@code LOGIN_ERROR} events of a credential stuffing attack, from saturating
+ * the output. Events are sampled per event type and rate limited per event type and per IP address; the events that
+ * are held back are not printed but counted, and the counts are printed as periodic summaries.
+ * <p>
+ * The rate limits are token buckets kept as the theoretical arrival time of the next event, as in the generic cell
+ * rate algorithm, so that taking a token is a single compare-and-set and refusing one is a single read. The token of
+ * the event type is given back if the IP address of the event is over its limit. IP addresses are hashed into a fixed
+ * number of buckets, so that an attack from many addresses cannot grow the state; addresses that share a bucket share
+ * its rate. The buckets of the event types are spaced a cache line apart and the counters are striped, so that threads
+ * reporting different events do not contend.
+ */
+class EventThrottle {
+
+    private static final Logger logger = Logger.getLogger(EventThrottle.class);
+
+    private static final int ALWAYS = 1 << 24;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Longs per cache line, the spacing of the buckets of the event types.
+     */
+    private static final int STRIDE = 8;
+
+    /**
+     * Prints the number of events of a type that were held back.
+     */
+    interface SummaryPrinter {
+
+        /**
+         * @return whether the summary was printed, otherwise the events are counted again in the next summary
+         */
+        boolean print(EventType type, long count);
+    }
+
+    private final EventType[] typeValues = EventType.values();
+
+    /**
+     * Out of {@link #ALWAYS}, the share of the events of each type that is kept.
+     */
+    private final int[] shares = new int[typeValues.length];
+
+    /**
+     * Nanoseconds per token of each event type, zero for no limit.
+     */
+    private final long[] typeIntervals = new long[typeValues.length];
+    private final AtomicLongArray typeBuckets = new AtomicLongArray(typeValues.length * STRIDE);
+    private final long ipInterval;
+    private final AtomicLongArray ipBuckets;
+    private final int ipShift;
+
+    /**
+     * Events held back per event type, the last one for events without a type.
+     */
+    private final LongAdder[] suppressed = new LongAdder[typeValues.length + 1];
+    /**
+     * Held back events per event type already printed in summaries. The counters are never reset, as resetting a
+     * {@link LongAdder} loses increments that race with it; summaries print the difference instead.
+     */
+    private final long[] summarized = new long[suppressed.length];
+    private final long summaryIntervalMillis;
+    private final long origin = System.nanoTime();
+    private ScheduledExecutorService summaries;
+    private SummaryPrinter summaryPrinter;
+
+    EventThrottle(Config.Scope config) {
+        Arrays.fill(shares, ALWAYS);
+        String[] rates = config.getArray("sample-rates");
+        if (rates != null) {
+            for (String rate : rates) {
+                int colon = rate.lastIndexOf(':');
+                if (colon == -1) {
+                    throw new IllegalArgumentException("Sample rate must have the form type:rate: " + rate);
+                }
+                int ordinal = EventType.valueOf(rate.substring(0, colon).trim()).ordinal();
+                double share = Double.parseDouble(rate.substring(colon + 1).trim());
+                if (share < 0 || share > 1) {
+                    throw new IllegalArgumentException("Sample rate must be between 0 and 1: " + rate);
+                }
+                shares[ordinal] = (int) Math.round(share * ALWAYS);
+            }
+        }
+
+        Arrays.fill(typeIntervals, interval(config.getInt("type-rate-limit", 0)));
+        String[] limits = config.getArray("type-rate-limits");
+        if (limits != null) {
+            for (String limit : limits) {
+                int colon = limit.lastIndexOf(':');
+                if (colon == -1) {
+                    throw new IllegalArgumentException("Rate limit must have the form type:events-per-second: " + limit);
+                }
+                typeIntervals[EventType.valueOf(limit.substring(0, colon).trim()).ordinal()] =
+                        interval(Integer.parseInt(limit.substring(colon + 1).trim()));
+            }
+        }
+
+        ipInterval = interval(config.getInt("ip-rate-limit", 0));
+        int slots = Integer.highestOneBit(Math.max(config.getInt("ip-rate-limit-slots", 65536), 2) - 1) << 1;
+        ipBuckets = ipInterval > 0 ? new AtomicLongArray(slots) : null;
+        ipShift = 32 - Integer.numberOfTrailingZeros(slots);
+
+        for (int i = 0; i < suppressed.length; i++) {
+            suppressed[i] = new LongAdder();
+        }
+        summaryIntervalMillis = TimeUnit.SECONDS.toMillis(config.getInt("suppressed-summary-interval", 60));
+    }
+
+    private static long interval(int eventsPerSecond) {
+        if (eventsPerSecond < 0) {
+            throw new IllegalArgumentException("Rate limit must not be negative: " + eventsPerSecond);
+        }
+        return eventsPerSecond == 0 ? 0 : Math.max(SECOND / eventsPerSecond, 1);
+    }
+
+    /**
+     * @return whether any event may be held back
+     */
+    boolean isActive() {
+        if (ipInterval > 0) {
+            return true;
+        }
+        for (int i = 0; i < shares.length; i++) {
+            if (shares[i] < ALWAYS || typeIntervals[i] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decides whether the event is printed, and counts it if it is held back.
+     */
+    boolean tryAcquire(Event event) {
+        EventType type = event.getType();
+        boolean acquired;
+        if (type == null) {
+            acquired = tryAcquireIp(event.getIpAddress());
+        } else {
+            int ordinal = type.ordinal();
+            int share = shares[ordinal];
+            long interval = typeIntervals[ordinal];
+            acquired = (share == ALWAYS || share > 0 && ThreadLocalRandom.current().nextInt(ALWAYS) < share)
+                    && (interval == 0 || tryAcquire(typeBuckets, ordinal * STRIDE, interval));
+            if (acquired && !tryAcquireIp(event.getIpAddress())) {
+                // An address over its limit must not use up the rate of the event type for everyone else
+                if (interval > 0) {
+                    typeBuckets.addAndGet(ordinal * STRIDE, -interval);
+                }
+                acquired = false;
+            }
+        }
+        if (!acquired) {
+            suppressed[type == null ? typeValues.length : type.ordinal()].increment();
+        }
+        return acquired;
+    }
+
+    private boolean tryAcquireIp(String ipAddress) {
+        if (ipInterval == 0 || ipAddress == null) {
+            return true;
+        }
+        // String caches its hash code, so hashing the address allocates nothing
+        int slot = (ipAddress.hashCode() * 0x9E3779B9) >>> ipShift;
+        return tryAcquire(ipBuckets, slot, ipInterval);
+    }
+
+    /**
+     * Takes a token from the bucket holding the arrival time the next event would have at the limited rate. The event
+     * may arrive up to a second earlier than that, which allows a burst of one second of events.
+     */
+    private boolean tryAcquire(AtomicLongArray buckets, int index, long interval) {
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long next = buckets.get(index);
+            long start = Math.max(next, now);
+            if (start - now > SECOND - interval) {
+                return false;
+            }
+            if (buckets.compareAndSet(index, next, start + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Prints the number of held back events per event type periodically from now on.
+     */
+    void startSummaries(SummaryPrinter printer) {
+        summaryPrinter = printer;
+        summaries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sysout-event-summary");
+            thread.setDaemon(true);
+            return thread;
+        });
+        summaries.scheduleWithFixedDelay(this::printSummaries, summaryIntervalMillis, summaryIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void printSummaries() {
+        try {
+            for (int i = 0; i < suppressed.length; i++) {
+                long count = suppressed[i].sum() - summarized[i];
+                if (count > 0 && summaryPrinter.print(i < typeValues.length ? typeValues[i] : null, count)) {
+                    summarized[i] += count;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Keep the summaries coming, a scheduled task that throws is not run again
+            logger.error("Failed to print summary of suppressed events", e);
+        }
+    }
+
+    /**
+     * Stops the periodic summaries and prints the last one.
+     */
+    void close() {
+        if (summaries != null) {
+            summaries.shutdown();
+            try {
+                summaries.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            printSummaries();
+            summaries = null;
+        }
+    }
+}
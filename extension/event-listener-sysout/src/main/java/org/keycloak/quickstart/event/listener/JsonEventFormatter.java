@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+
+import static org.keycloak.quickstart.event.listener.LineBuffer.ascii;
+
+/**
+ * Formats events as newline delimited JSON, one object per line, with the field names of the event representations
+ * of the admin REST API and a {@code kind} field telling user and admin events apart. Missing values are
+ * {@code null}, except for the error and the details, which are left out.
+ */
+class JsonEventFormatter extends EventFormatter {
+
+    private static final byte[] USER_EVENT = ascii("{\"kind\":\"user\",\"time\":");
+    private static final byte[] USER_EVENT_EXCLUDED = ascii("{\"kind\":\"user\",\"excluded\":true,\"type\":");
+    private static final byte[] ADMIN_EVENT = ascii("{\"kind\":\"admin\",\"time\":");
+    private static final byte[] ADMIN_EVENT_EXCLUDED = ascii("{\"kind\":\"admin\",\"excluded\":true,\"operationType\":");
+    private static final byte[] USER_EVENTS_SUPPRESSED = ascii("{\"kind\":\"user\",\"suppressed\":");
+    private static final byte[] TYPE = ascii(",\"type\":");
+    private static final byte[] OPERATION_TYPE = ascii(",\"operationType\":");
+    private static final byte[] RESOURCE_TYPE = ascii(",\"resourceType\":");
+    private static final byte[] RESOURCE_PATH = ascii(",\"resourcePath\":");
+    private static final byte[] AUTH_DETAILS = ascii(",\"authDetails\":");
+    private static final byte[] AUTH_REALM_ID = ascii("{\"realmId\":");
+    private static final byte[] REALM_ID = ascii(",\"realmId\":");
+    private static final byte[] CLIENT_ID = ascii(",\"clientId\":");
+    private static final byte[] USER_ID = ascii(",\"userId\":");
+    private static final byte[] SESSION_ID = ascii(",\"sessionId\":");
+    private static final byte[] IP_ADDRESS = ascii(",\"ipAddress\":");
+    private static final byte[] ERROR = ascii(",\"error\":");
+    private static final byte[] DETAILS = ascii(",\"details\":{");
+    private static final byte[] END = ascii("}\n");
+    private static final byte[] NULL = ascii("null");
+
+    private static final LineBuffer.EntryWriter DETAIL = (line, index, key, value) -> {
+        if (index > 0) {
+            line.put((byte) ',');
+        }
+        line.putJson(key).put((byte) ':').putJson(value);
+    };
+
+    /**
+     * Appends the name as a JSON string; names of event types and operations never need escaping.
+     */
+    private static void putName(LineBuffer line, byte[][] names, Enum<?> value) {
+        byte[] name = name(names, value);
+        if (name == null) {
+            line.put(NULL);
+        } else {
+            line.put((byte) '"').put(name).put((byte) '"');
+        }
+    }
+
+    @Override
+    void format(Event event, LineBuffer line) {
+        line.put(USER_EVENT).putDecimal(event.getTime()).put(TYPE);
+        putName(line, EVENT_TYPES, event.getType());
+        line.put(REALM_ID).putJson(event.getRealmId())
+                .put(CLIENT_ID).putJson(event.getClientId())
+                .put(USER_ID).putJson(event.getUserId())
+                .put(SESSION_ID).putJson(event.getSessionId())
+                .put(IP_ADDRESS).putJson(event.getIpAddress());
+
+        if (event.getError() != null) {
+            line.put(ERROR).putJson(event.getError());
+        }
+
+        if (event.getDetails() != null) {
+            line.put(DETAILS).putEntries(event.getDetails(), DETAIL).put((byte) '}');
+        }
+
+        line.put(END);
+    }
+
+    @Override
+    void format(AdminEvent adminEvent, LineBuffer line) {
+        line.put(ADMIN_EVENT).putDecimal(adminEvent.getTime())
+                .put(REALM_ID).putJson(adminEvent.getRealmId())
+                .put(OPERATION_TYPE);
+        putName(line, OPERATION_TYPES, adminEvent.getOperationType());
+        AuthDetails authDetails = adminEvent.getAuthDetails();
+        line.put(RESOURCE_TYPE).putJson(adminEvent.getResourceTypeAsString())
+                .put(RESOURCE_PATH).putJson(adminEvent.getResourcePath())
+                .put(AUTH_DETAILS);
+        if (authDetails == null) {
+            line.put(NULL);
+        } else {
+            line.put(AUTH_REALM_ID).putJson(authDetails.getRealmId())
+                    .put(CLIENT_ID).putJson(authDetails.getClientId())
+                    .put(USER_ID).putJson(authDetails.getUserId())
+                    .put(IP_ADDRESS).putJson(authDetails.getIpAddress())
+                    .put((byte) '}');
+        }
+
+        if (adminEvent.getError() != null) {
+            line.put(ERROR).putJson(adminEvent.getError());
+        }
+
+        line.put(END);
+    }
+
+    @Override
+    void formatExcluded(EventType type, LineBuffer line) {
+        line.put(USER_EVENT_EXCLUDED);
+        putName(line, EVENT_TYPES, type);
+        line.put(END);
+    }
+
+    @Override
+    void formatExcluded(OperationType operation, LineBuffer line) {
+        line.put(ADMIN_EVENT_EXCLUDED);
+        putName(line, OPERATION_TYPES, operation);
+        line.put(END);
+    }
+
+    @Override
+    void formatSuppressed(EventType type, long count, LineBuffer line) {
+        line.put(USER_EVENTS_SUPPRESSED).putDecimal(count).put(TYPE);
+        putName(line, EVENT_TYPES, type);
+        line.put(END);
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Growable byte buffer that events are formatted into. Strings are encoded to UTF-8 one character at a time, so that
+ * formatting into a reused buffer allocates nothing.
+ */
+final class LineBuffer {
+
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    /**
+     * Appends one entry of a map.
+     */
+    interface EntryWriter {
+
+        void write(LineBuffer buffer, int index, String key, String value);
+    }
+
+    /**
+     * Kept in a field so that iterating over a map does not allocate an iterator.
+     */
+    private final BiConsumer<String, String> entry = this::putEntry;
+    private EntryWriter entryWriter;
+    private int entryIndex;
+
+    private byte[] bytes;
+    private int length;
+    private ByteBuffer view;
+
+    LineBuffer(int capacity) {
+        bytes = new byte[capacity];
+    }
+
+    static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Drops what was appended after the given length, for example a line that failed to format.
+     */
+    void truncate(int length) {
+        this.length = length;
+    }
+
+    LineBuffer clear() {
+        length = 0;
+        return this;
+    }
+
+    private void ensure(int additional) {
+        if (length + additional > bytes.length) {
+            byte[] grown = new byte[Math.max(bytes.length * 2, length + additional)];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+    }
+
+    LineBuffer put(byte b) {
+        ensure(1);
+        bytes[length++] = b;
+        return this;
+    }
+
+    LineBuffer put(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, bytes, length, b.length);
+        length += b.length;
+        return this;
+    }
+
+    /**
+     * Appends the string, or {@code null} if there is none.
+     */
+    LineBuffer put(String value) {
+        if (value == null) {
+            return put(NULL);
+        }
+        encode(value, false);
+        return this;
+    }
+
+    /**
+     * Appends the string as a JSON string, or {@code null} if there is none.
+     */
+    LineBuffer putJson(String value) {
+        if (value == null) {
+            return put(NULL);
+        }
+        put((byte) '"');
+        encode(value, true);
+        return put((byte) '"');
+    }
+
+    /**
+     * Appends the number in decimal digits.
+     */
+    LineBuffer putDecimal(long value) {
+        // Negative numbers reach down to Long.MIN_VALUE, so the digits are taken from the negated value
+        long v = value;
+        if (v < 0) {
+            put((byte) '-');
+        } else {
+            v = -v;
+        }
+        int digits = 1;
+        for (long rest = v; rest <= -10; rest /= 10) {
+            digits++;
+        }
+        ensure(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' - v % 10);
+            v /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    LineBuffer putInt(int value) {
+        ensure(4);
+        setInt(length, value);
+        length += 4;
+        return this;
+    }
+
+    /**
+     * Overwrites four bytes appended before, for example the length of a record that is only known once the record
+     * is complete.
+     */
+    void setInt(int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    LineBuffer putLong(long value) {
+        return putInt((int) (value >>> 32)).putInt((int) value);
+    }
+
+    LineBuffer putVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        return put((byte) value);
+    }
+
+    /**
+     * Appends the string prefixed with its length in bytes plus one, or only a zero if there is none.
+     */
+    LineBuffer putSized(String value) {
+        if (value == null) {
+            return putVarInt(0);
+        }
+        putVarInt(encodedLength(value) + 1);
+        encode(value, false);
+        return this;
+    }
+
+    /**
+     * Appends the entries of the map one by one.
+     */
+    LineBuffer putEntries(Map<String, String> map, EntryWriter writer) {
+        entryWriter = writer;
+        entryIndex = 0;
+        try {
+            map.forEach(entry);
+        } finally {
+            entryWriter = null;
+        }
+        return this;
+    }
+
+    private void putEntry(String key, String value) {
+        entryWriter.write(this, entryIndex++, key, value);
+    }
+
+    /**
+     * Appends the string in single quotes if it contains a space. The string is scanned once: when a space turns up,
+     * the bytes encoded so far are moved to make room for the opening quote.
+     */
+    LineBuffer putQuotedIfSpaces(String value) {
+        if (value == null) {
+            return put(NULL);
+        }
+        int start = length;
+        if (encode(value, false)) {
+            ensure(2);
+            System.arraycopy(bytes, start, bytes, start + 1, length - start);
+            bytes[start] = '\'';
+            length++;
+            bytes[length++] = '\'';
+        }
+        return this;
+    }
+
+    /**
+     * @param json whether to escape the characters that cannot appear in a JSON string as they are
+     * @return whether the string contains a space
+     */
+    private boolean encode(String value, boolean json) {
+        int n = value.length();
+        ensure(n * (json ? 6 : 3));
+        byte[] b = bytes;
+        int p = length;
+        boolean spaces = false;
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (json && (c < 0x20 || c == '"' || c == '\\')) {
+                b[p++] = '\\';
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        b[p++] = (byte) c;
+                        break;
+                    case '\n':
+                        b[p++] = 'n';
+                        break;
+                    case '\r':
+                        b[p++] = 'r';
+                        break;
+                    case '\t':
+                        b[p++] = 't';
+                        break;
+                    default:
+                        b[p++] = 'u';
+                        b[p++] = '0';
+                        b[p++] = '0';
+                        b[p++] = HEX[c >> 4];
+                        b[p++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x80) {
+                spaces |= c == ' ';
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xC0 | c >> 6);
+                b[p++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                b[p++] = (byte) (0xF0 | codePoint >> 18);
+                b[p++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                b[p++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                b[p++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                b[p++] = '?';
+            } else {
+                b[p++] = (byte) (0xE0 | c >> 12);
+                b[p++] = (byte) (0x80 | c >> 6 & 0x3F);
+                b[p++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        length = p;
+        return spaces;
+    }
+
+    /**
+     * @return the number of bytes {@link #encode} appends for the string without escaping
+     */
+    private static int encodedLength(String value) {
+        int n = value.length();
+        int bytes = n;
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800 && Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 2;
+                i++;
+            } else if (c >= 0x800 && !Character.isSurrogate(c)) {
+                bytes += 2;
+            } else if (c >= 0x80 && c < 0x800) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    void writeTo(OutputStream out) {
+        try {
+            out.write(bytes, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the content as a buffer ready to be read, valid until the next change
+     */
+    ByteBuffer buffer() {
+        if (view == null || view.array() != bytes) {
+            view = ByteBuffer.wrap(bytes);
+        }
+        view.clear().limit(length);
+        return view;
+    }
+}
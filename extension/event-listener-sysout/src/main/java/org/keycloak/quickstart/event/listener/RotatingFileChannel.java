@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.jboss.logging.Logger;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends to a file through a large direct buffer, so that the file is written in big sequential chunks without
+ * copying the bytes once more into a temporary direct buffer. The file is rotated before a write would make it exceed
+ * its maximum size and once it has reached its maximum age: it is renamed after the time of the rotation and optionally
+ * compressed with gzip on a background thread, and a new file is started. Writes are never split across files, so
+ * every file holds whole lines, and a write larger than the maximum size ends up in a file of its own. A file that
+ * cannot be renamed is appended to until it is due for rotation again.
+ * <p>
+ * Only one thread may write and flush. Each {@link #flush()} ends a batch: the buffered bytes are written to the file
+ * and, depending on the {@link Fsync} policy, forced to the disk.
+ */
+class RotatingFileChannel implements WritableByteChannel, Flushable {
+
+    private static final Logger logger = Logger.getLogger(RotatingFileChannel.class);
+
+    private static final DateTimeFormatter ROTATED = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    enum Fsync {
+        /**
+         * The operating system decides when written events reach the disk.
+         */
+        NONE,
+        /**
+         * Written events are forced to the disk at the end of a batch if the last force is longer ago than the fsync
+         * interval.
+         */
+        INTERVAL,
+        /**
+         * Written events are forced to the disk at the end of every batch.
+         */
+        EVERY_BATCH;
+
+        static Fsync of(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final Fsync fsync;
+    private final long fsyncIntervalMillis;
+    private final ExecutorService compressor;
+    private FileChannel channel;
+    private long size;
+    private long openedAt;
+    private long forcedAt;
+    private boolean unforced;
+
+    /**
+     * @param maxBytes size after which the file is rotated, or zero to never rotate it by size
+     * @param maxAgeMillis age after which the file is rotated, or zero to never rotate it by age
+     * @param compress whether to compress rotated files
+     */
+    RotatingFileChannel(Path file, int bufferSize, long maxBytes, long maxAgeMillis, boolean compress, Fsync fsync,
+            long fsyncIntervalMillis) {
+        this.file = file.toAbsolutePath();
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.fsync = fsync;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.compressor = compress ? Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "sysout-event-compressor");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        try {
+            Files.createDirectories(this.file.getParent());
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open event file " + file, e);
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+        openedAt = System.currentTimeMillis();
+        forcedAt = openedAt;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (channel == null) {
+            throw new ClosedChannelException();
+        }
+        int length = src.remaining();
+        if (size > 0 && (maxBytes > 0 && size + length > maxBytes || isOld())) {
+            rotate();
+        }
+        int limit = src.limit();
+        try {
+            while (src.hasRemaining()) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                src.limit(src.position() + Math.min(buffer.remaining(), src.remaining()));
+                buffer.put(src);
+                src.limit(limit);
+            }
+        } finally {
+            src.limit(limit);
+        }
+        size += length;
+        return length;
+    }
+
+    private boolean isOld() {
+        return maxAgeMillis > 0 && System.currentTimeMillis() - openedAt >= maxAgeMillis;
+    }
+
+    /**
+     * Writes the buffered bytes to the file and forces them to the disk as the fsync policy demands.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        drain();
+        if (unforced && (fsync == Fsync.EVERY_BATCH
+                || fsync == Fsync.INTERVAL && System.currentTimeMillis() - forcedAt >= fsyncIntervalMillis)) {
+            force();
+        }
+        if (size > 0 && isOld()) {
+            rotate();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            unforced = true;
+        } finally {
+            // Bytes that could not be written are dropped rather than written again in front of later ones
+            buffer.clear();
+        }
+    }
+
+    private void force() throws IOException {
+        channel.force(false);
+        forcedAt = System.currentTimeMillis();
+        unforced = false;
+    }
+
+    private void rotate() throws IOException {
+        drain();
+        if (unforced && fsync != Fsync.NONE) {
+            force();
+        }
+        channel.close();
+        channel = null;
+
+        boolean renamed = false;
+        try {
+            String name = file.getFileName() + "." + ROTATED.format(Instant.now());
+            Path rotated = file.resolveSibling(name);
+            for (int i = 1; Files.exists(rotated) || Files.exists(gzipped(rotated)); i++) {
+                rotated = file.resolveSibling(name + "." + i);
+            }
+            Files.move(file, rotated);
+            renamed = true;
+            if (compressor != null) {
+                Path source = rotated;
+                compressor.execute(() -> compress(source));
+            }
+        } catch (IOException e) {
+            logger.errorf(e, "Failed to rotate event file %s, events keep being appended to it", file);
+        }
+        open();
+        if (!renamed) {
+            // The next rotation is tried once the file has grown by the maximum size or reached the maximum age again,
+            // rather than before every write
+            size = 0;
+        }
+    }
+
+    private static Path gzipped(Path file) {
+        return file.resolveSibling(file.getFileName() + ".gz");
+    }
+
+    private static void compress(Path file) {
+        Path target = gzipped(file);
+        try {
+            try (InputStream in = Files.newInputStream(file);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(target), 64 * 1024)) {
+                in.transferTo(out);
+            }
+            Files.delete(file);
+        } catch (IOException e) {
+            logger.errorf(e, "Failed to compress rotated event file %s", file);
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException ignored) {
+                // The uncompressed file is kept, which is all that matters
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel != null;
+    }
+
+    /**
+     * Writes the buffered bytes, forces them to the disk unless the fsync policy is {@link Fsync#NONE} and waits for
+     * the rotated files to be compressed.
+     */
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                drain();
+                if (fsync != Fsync.NONE) {
+                    force();
+                }
+                channel.close();
+            } catch (IOException e) {
+                logger.errorf(e, "Failed to close event file %s", file);
+            }
+            channel = null;
+        }
+        if (compressor != null) {
+            compressor.shutdown();
+            try {
+                if (!compressor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    logger.warn("Gave up waiting for rotated event files to be compressed");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
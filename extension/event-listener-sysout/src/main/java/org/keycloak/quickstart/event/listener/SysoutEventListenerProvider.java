@@ -19,107 +19,83 @@ package org.keycloak.quickstart.event.listener;
 
 import org.keycloak.events.Event;
 import org.keycloak.events.EventListenerProvider;
-import org.keycloak.events.EventType;
 import org.keycloak.events.admin.AdminEvent;
-import org.keycloak.events.admin.OperationType;
-
-import java.util.Map;
-import java.util.Set;
 
 /**
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
 public class SysoutEventListenerProvider implements EventListenerProvider {
 
-    private Set<EventType> excludedEvents;
-    private Set<OperationType> excludedAdminOperations;
-
-    public SysoutEventListenerProvider(Set<EventType> excludedEvents, Set<OperationType> excludedAdminOpearations) {
-        this.excludedEvents = excludedEvents;
-        this.excludedAdminOperations = excludedAdminOpearations;
+    /**
+     * Buffers of the threads that print their events themselves.
+     */
+    private static final ThreadLocal<LineBuffer> LINES = ThreadLocal.withInitial(() -> new LineBuffer(512));
+
+    private final EventFilter filter;
+    private final EventFormatter formatter;
+    private final EventThrottle throttle;
+    private final AsyncEventPrinter printer;
+
+    /**
+     * @param throttle the throttle that holds back floods of events, or {@code null} to print all events that pass the
+     * filter
+     * @param printer the printer that prints the events on its own thread, or {@code null} to print them on the
+     * calling thread
+     */
+    SysoutEventListenerProvider(EventFilter filter, EventThrottle throttle, EventFormatter formatter,
+            AsyncEventPrinter printer) {
+        this.filter = filter;
+        this.throttle = throttle;
+        this.formatter = formatter;
+        this.printer = printer;
     }
 
     @Override
     public void onEvent(Event event) {
-        if (excludedEvents != null && excludedEvents.contains(event.getType())) {
+        if (filter.isExcluded(event)) {
             // Ignore excluded events. Just log them for illustration purposes without any details.
-            System.out.println("USER EVENT EXCLUDED: " + event.getType());
-        } else {
-            System.out.println("USER EVENT: " + toString(event));
+            if (printer != null) {
+                printer.submitExcluded(event);
+            } else {
+                LineBuffer line = LINES.get().clear();
+                formatter.formatExcluded(event.getType(), line);
+                line.writeTo(System.out);
+            }
+        } else if (filter.test(event) && (throttle == null || throttle.tryAcquire(event))) {
+            // Events not selected by the other filter options are dropped silently. Events held back by the throttle
+            // are only counted, it prints how many there were periodically
+            if (printer != null) {
+                printer.submit(event);
+            } else {
+                LineBuffer line = LINES.get().clear();
+                formatter.format(event, line);
+                line.writeTo(System.out);
+            }
         }
     }
 
     @Override
     public void onEvent(AdminEvent event, boolean includeRepresentation) {
-        if (excludedAdminOperations != null && excludedAdminOperations.contains(event.getOperationType())) {
+        if (filter.isExcluded(event)) {
             // Ignore excluded events. Just log them for illustration purposes without any details.
-            System.out.println("ADMIN EVENT EXCLUDED: " + event.getOperationType());
-        } else {
-            System.out.println("ADMIN EVENT: " + toString(event));
-        }
-    }
-
-    private String toString(Event event) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("type=");
-        sb.append(event.getType());
-        sb.append(", realmId=");
-        sb.append(event.getRealmId());
-        sb.append(", clientId=");
-        sb.append(event.getClientId());
-        sb.append(", userId=");
-        sb.append(event.getUserId());
-        sb.append(", ipAddress=");
-        sb.append(event.getIpAddress());
-
-        if (event.getError() != null) {
-            sb.append(", error=");
-            sb.append(event.getError());
-        }
-
-        if (event.getDetails() != null) {
-            for (Map.Entry<String, String> e : event.getDetails().entrySet()) {
-                sb.append(", ");
-                sb.append(e.getKey());
-                if (e.getValue() == null || e.getValue().indexOf(' ') == -1) {
-                    sb.append("=");
-                    sb.append(e.getValue());
-                } else {
-                    sb.append("='");
-                    sb.append(e.getValue());
-                    sb.append("'");
-                }
+            if (printer != null) {
+                printer.submitExcluded(event);
+            } else {
+                LineBuffer line = LINES.get().clear();
+                formatter.formatExcluded(event.getOperationType(), line);
+                line.writeTo(System.out);
+            }
+        } else if (filter.test(event)) {
+            if (printer != null) {
+                printer.submit(event);
+            } else {
+                LineBuffer line = LINES.get().clear();
+                formatter.format(event, line);
+                line.writeTo(System.out);
             }
         }
-
-        return sb.toString();
     }
-    
-    private String toString(AdminEvent adminEvent) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("operationType=");
-        sb.append(adminEvent.getOperationType());
-        sb.append(", realmId=");
-        sb.append(adminEvent.getAuthDetails().getRealmId());
-        sb.append(", clientId=");
-        sb.append(adminEvent.getAuthDetails().getClientId());
-        sb.append(", userId=");
-        sb.append(adminEvent.getAuthDetails().getUserId());
-        sb.append(", ipAddress=");
-        sb.append(adminEvent.getAuthDetails().getIpAddress());
-        sb.append(", resourcePath=");
-        sb.append(adminEvent.getResourcePath());
 
-        if (adminEvent.getError() != null) {
-            sb.append(", error=");
-            sb.append(adminEvent.getError());
-        }
-        
-        return sb.toString();
-    }
-    
     @Override
     public void close() {
     }
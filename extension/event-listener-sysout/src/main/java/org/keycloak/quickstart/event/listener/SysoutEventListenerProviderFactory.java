@@ -20,43 +20,80 @@ package org.keycloak.quickstart.event.listener;
 import org.keycloak.Config;
 import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.EventListenerProviderFactory;
-import org.keycloak.events.EventType;
-import org.keycloak.events.admin.OperationType;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
 public class SysoutEventListenerProviderFactory implements EventListenerProviderFactory {
 
-    private Set<EventType> excludedEvents;
-    private Set<OperationType> excludedAdminOperations;
+    static final int DEFAULT_ASYNC_QUEUE_SIZE = 65536;
+    static final int DEFAULT_ASYNC_BATCH_SIZE = 1024;
+    static final long DEFAULT_ASYNC_FLUSH_INTERVAL = 200;
+    static final int DEFAULT_FILE_BUFFER_SIZE = 1024 * 1024;
+    static final long DEFAULT_FILE_MAX_BYTES = 100L * 1024 * 1024;
+    static final long DEFAULT_FILE_FSYNC_INTERVAL = 1000;
+
+    private EventFilter filter;
+    private EventThrottle throttle;
+    private EventFormatter formatter;
+    private AsyncEventPrinter printer;
+    private RotatingFileChannel file;
 
     @Override
     public EventListenerProvider create(KeycloakSession session) {
-        return new SysoutEventListenerProvider(excludedEvents, excludedAdminOperations);
+        return new SysoutEventListenerProvider(filter, throttle, formatter, printer);
     }
 
     @Override
     public void init(Config.Scope config) {
-        String[] excludes = config.getArray("exclude-events");
-        if (excludes != null) {
-            excludedEvents = new HashSet<>();
-            for (String e : excludes) {
-                excludedEvents.add(EventType.valueOf(e));
-            }
+        filter = new EventFilter(config);
+        String format = config.get("format", "text");
+        formatter = EventFormatter.of(format);
+
+        String path = config.get("file");
+        if (path == null && "binary".equals(format)) {
+            throw new IllegalArgumentException("The binary format requires the file option");
+        }
+        if (path != null) {
+            file = new RotatingFileChannel(Paths.get(path),
+                    config.getInt("file-buffer-size", DEFAULT_FILE_BUFFER_SIZE),
+                    config.getLong("file-max-bytes", DEFAULT_FILE_MAX_BYTES),
+                    TimeUnit.MINUTES.toMillis(config.getLong("file-rotation-minutes", 0L)),
+                    config.getBoolean("file-compress", false),
+                    RotatingFileChannel.Fsync.of(config.get("file-fsync", "interval")),
+                    config.getLong("file-fsync-interval", DEFAULT_FILE_FSYNC_INTERVAL));
+        }
+
+        // Only the writer thread of the printer writes to the file
+        if (file != null || config.getBoolean("async", false)) {
+            WritableByteChannel channel = file != null ? file : Channels.newChannel(System.out);
+            printer = new AsyncEventPrinter(formatter, channel,
+                    config.getInt("async-queue-size", DEFAULT_ASYNC_QUEUE_SIZE),
+                    config.getInt("async-batch-size", DEFAULT_ASYNC_BATCH_SIZE),
+                    config.getLong("async-flush-interval", DEFAULT_ASYNC_FLUSH_INTERVAL));
         }
-        
-        String[] excludesOperations = config.getArray("excludesOperations");
-        if (excludesOperations != null) {
-            excludedAdminOperations = new HashSet<>();
-            for (String e : excludesOperations) {
-                excludedAdminOperations.add(OperationType.valueOf(e));
+
+        EventThrottle throttle = new EventThrottle(config);
+        if (throttle.isActive()) {
+            if (printer != null) {
+                throttle.startSummaries(printer::submitSuppressed);
+            } else {
+                EventFormatter formatter = this.formatter;
+                LineBuffer line = new LineBuffer(128);
+                throttle.startSummaries((type, count) -> {
+                    formatter.formatSuppressed(type, count, line.clear());
+                    line.writeTo(System.out);
+                    return true;
+                });
             }
+            this.throttle = throttle;
         }
     }
 
@@ -66,6 +103,19 @@ public class SysoutEventListenerProviderFactory implements EventListenerProvider
     }
     @Override
     public void close() {
+        // The last summary of held back events is still printed
+        if (throttle != null) {
+            throttle.close();
+            throttle = null;
+        }
+        if (printer != null) {
+            printer.close();
+            printer = null;
+        }
+        if (file != null) {
+            file.close();
+            file = null;
+        }
     }
 
     @Override
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+
+import static org.keycloak.quickstart.event.listener.LineBuffer.ascii;
+
+/**
+ * Formats events as human readable {@code key=value} lines.
+ */
+class TextEventFormatter extends EventFormatter {
+
+    private static final byte[] USER_EVENT = ascii("USER EVENT: type=");
+    private static final byte[] USER_EVENT_EXCLUDED = ascii("USER EVENT EXCLUDED: ");
+    private static final byte[] ADMIN_EVENT = ascii("ADMIN EVENT: operationType=");
+    private static final byte[] ADMIN_EVENT_EXCLUDED = ascii("ADMIN EVENT EXCLUDED: ");
+    private static final byte[] USER_EVENTS_SUPPRESSED = ascii("USER EVENTS SUPPRESSED: type=");
+    private static final byte[] COUNT = ascii(", count=");
+    private static final byte[] REALM_ID = ascii(", realmId=");
+    private static final byte[] CLIENT_ID = ascii(", clientId=");
+    private static final byte[] USER_ID = ascii(", userId=");
+    private static final byte[] IP_ADDRESS = ascii(", ipAddress=");
+    private static final byte[] RESOURCE_PATH = ascii(", resourcePath=");
+    private static final byte[] ERROR = ascii(", error=");
+    private static final byte[] DETAIL_SEPARATOR = ascii(", ");
+    private static final byte[] NEWLINE = ascii(System.lineSeparator());
+    private static final byte[] NULL = ascii("null");
+
+    private static final LineBuffer.EntryWriter DETAIL = (line, index, key, value) ->
+            line.put(DETAIL_SEPARATOR).put(key).put((byte) '=').putQuotedIfSpaces(value);
+
+    private static byte[] typeName(byte[][] names, Enum<?> value) {
+        return value == null ? NULL : names[value.ordinal()];
+    }
+
+    @Override
+    void format(Event event, LineBuffer line) {
+        line.put(USER_EVENT).put(typeName(EVENT_TYPES, event.getType()))
+                .put(REALM_ID).put(event.getRealmId())
+                .put(CLIENT_ID).put(event.getClientId())
+                .put(USER_ID).put(event.getUserId())
+                .put(IP_ADDRESS).put(event.getIpAddress());
+
+        if (event.getError() != null) {
+            line.put(ERROR).put(event.getError());
+        }
+
+        if (event.getDetails() != null) {
+            line.putEntries(event.getDetails(), DETAIL);
+        }
+
+        line.put(NEWLINE);
+    }
+
+    @Override
+    void format(AdminEvent adminEvent, LineBuffer line) {
+        line.put(ADMIN_EVENT).put(typeName(OPERATION_TYPES, adminEvent.getOperationType()));
+        AuthDetails authDetails = adminEvent.getAuthDetails();
+        if (authDetails == null) {
+            line.put(REALM_ID).put(NULL)
+                    .put(CLIENT_ID).put(NULL)
+                    .put(USER_ID).put(NULL)
+                    .put(IP_ADDRESS).put(NULL);
+        } else {
+            line.put(REALM_ID).put(authDetails.getRealmId())
+                    .put(CLIENT_ID).put(authDetails.getClientId())
+                    .put(USER_ID).put(authDetails.getUserId())
+                    .put(IP_ADDRESS).put(authDetails.getIpAddress());
+        }
+        line.put(RESOURCE_PATH).put(adminEvent.getResourcePath());
+
+        if (adminEvent.getError() != null) {
+            line.put(ERROR).put(adminEvent.getError());
+        }
+
+        line.put(NEWLINE);
+    }
+
+    @Override
+    void formatExcluded(EventType type, LineBuffer line) {
+        line.put(USER_EVENT_EXCLUDED).put(typeName(EVENT_TYPES, type)).put(NEWLINE);
+    }
+
+    @Override
+    void formatExcluded(OperationType operation, LineBuffer line) {
+        line.put(ADMIN_EVENT_EXCLUDED).put(typeName(OPERATION_TYPES, operation)).put(NEWLINE);
+    }
+
+    @Override
+    void formatSuppressed(EventType type, long count, LineBuffer line) {
+        line.put(USER_EVENTS_SUPPRESSED).put(typeName(EVENT_TYPES, type)).put(COUNT).putDecimal(count).put(NEWLINE);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that the printer writes every submitted event in order, on its own thread and within the flush interval.
+ */
+public class AsyncEventPrinterTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Test
+    public void testEventsArePrintedInOrder() {
+        AsyncEventPrinter printer = printer(10_000, 60_000);
+        for (int i = 0; i < 5000; i++) {
+            printer.submit(event("user-" + i));
+        }
+        printer.close();
+
+        List<String> lines = lines();
+        Assert.assertEquals(5000, lines.size());
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertTrue(lines.get(i), lines.get(i).contains("userId=user-" + i + ","));
+        }
+    }
+
+    @Test
+    public void testExcludedAndSuppressedEvents() {
+        AsyncEventPrinter printer = printer(100, 60_000);
+        Event untyped = new Event();
+        AdminEvent adminEvent = new AdminEvent();
+        adminEvent.setOperationType(OperationType.DELETE);
+        printer.submitExcluded(event("user"));
+        printer.submitExcluded(untyped);
+        printer.submitExcluded(adminEvent);
+        printer.submitExcluded(new AdminEvent());
+        Assert.assertTrue(printer.submitSuppressed(EventType.LOGIN_ERROR, 42));
+        printer.close();
+
+        Assert.assertEquals(Arrays.asList("USER EVENT EXCLUDED: LOGIN", "USER EVENT EXCLUDED: null",
+                "ADMIN EVENT EXCLUDED: DELETE", "ADMIN EVENT EXCLUDED: null",
+                "USER EVENTS SUPPRESSED: type=LOGIN_ERROR, count=42"), lines());
+    }
+
+    @Test
+    public void testEventsAreFlushedWithinTheInterval() throws InterruptedException {
+        AsyncEventPrinter printer = printer(100, 50);
+        try {
+            printer.submit(event("user"));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (out.size() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, lines().size());
+        } finally {
+            printer.close();
+        }
+    }
+
+    @Test
+    public void testFailedEventIsSkipped() {
+        EventFormatter formatter = new TextEventFormatter() {
+            @Override
+            void format(Event event, LineBuffer line) {
+                super.format(event, line);
+                if ("failing".equals(event.getUserId())) {
+                    throw new IllegalStateException("Failing event");
+                }
+            }
+        };
+        AsyncEventPrinter printer = new AsyncEventPrinter(formatter, Channels.newChannel(out), 100, 64, 60_000);
+        printer.submit(event("before"));
+        printer.submit(event("failing"));
+        printer.submit(event("after"));
+        printer.close();
+
+        List<String> lines = lines();
+        Assert.assertEquals(2, lines.size());
+        Assert.assertTrue(lines.get(0).contains("userId=before,"));
+        Assert.assertTrue(lines.get(1).contains("userId=after,"));
+    }
+
+    @Test
+    public void testEventsAfterCloseAreDropped() {
+        AsyncEventPrinter printer = printer(100, 60_000);
+        printer.close();
+        printer.submit(event("user"));
+
+        Assert.assertFalse(printer.submitSuppressed(EventType.LOGIN, 1));
+        Assert.assertEquals(0, out.size());
+    }
+
+    private AsyncEventPrinter printer(int queueSize, long flushIntervalMillis) {
+        return new AsyncEventPrinter(new TextEventFormatter(), Channels.newChannel(out), queueSize, 64,
+                flushIntervalMillis);
+    }
+
+    private List<String> lines() {
+        String printed = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        return printed.lines().collect(Collectors.toList());
+    }
+
+    private static Event event(String user) {
+        Event event = new Event();
+        event.setType(EventType.LOGIN);
+        event.setRealmId("realm");
+        event.setClientId("client");
+        event.setUserId(user);
+        event.setIpAddress("10.0.0.1");
+        return event;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Checks the framing and the fields of the binary records by reading them back.
+ */
+public class BinaryEventFormatterTest {
+
+    private static final String PREFIX = "keycloak.test.binary-format.";
+
+    private final BinaryEventFormatter formatter = new BinaryEventFormatter();
+    private final List<String> properties = new ArrayList<>();
+
+    @After
+    public void cleanup() {
+        properties.forEach(System::clearProperty);
+    }
+
+    @Test
+    public void testEvent() {
+        Event event = new Event();
+        event.setTime(1700000000000L);
+        event.setType(EventType.LOGIN_ERROR);
+        event.setRealmId("master");
+        event.setUserId("Jürgen 😀");
+        event.setError("invalid_user_credentials");
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("auth_method", "openid-connect");
+        details.put("empty", null);
+        event.setDetails(details);
+        LineBuffer line = new LineBuffer(8);
+        formatter.format(event, line);
+
+        ByteBuffer record = record(line.buffer(), BinaryEventFormatter.USER_EVENT);
+        Assert.assertEquals(1700000000000L, record.getLong());
+        Assert.assertEquals("LOGIN_ERROR", string(record));
+        Assert.assertEquals("master", string(record));
+        Assert.assertNull(string(record));
+        Assert.assertEquals("Jürgen 😀", string(record));
+        Assert.assertNull(string(record));
+        Assert.assertNull(string(record));
+        Assert.assertEquals("invalid_user_credentials", string(record));
+        Assert.assertEquals(3, varInt(record));
+        Assert.assertEquals(Arrays.asList("auth_method", "openid-connect", "empty", null),
+                Arrays.asList(string(record), string(record), string(record), string(record)));
+        Assert.assertFalse(record.hasRemaining());
+    }
+
+    @Test
+    public void testEventWithoutDetails() {
+        LineBuffer line = new LineBuffer(8);
+        formatter.format(new Event(), line);
+
+        ByteBuffer record = record(line.buffer(), BinaryEventFormatter.USER_EVENT);
+        Assert.assertEquals(0, record.getLong());
+        for (int i = 0; i < 7; i++) {
+            Assert.assertNull(string(record));
+        }
+        Assert.assertEquals(0, varInt(record));
+        Assert.assertFalse(record.hasRemaining());
+    }
+
+    @Test
+    public void testAdminEvents() {
+        AdminEvent adminEvent = new AdminEvent();
+        adminEvent.setTime(42);
+        adminEvent.setRealmId("realm");
+        adminEvent.setOperationType(OperationType.UPDATE);
+        adminEvent.setResourceType(ResourceType.CLIENT);
+        adminEvent.setResourcePath("clients/1");
+        AuthDetails authDetails = new AuthDetails();
+        authDetails.setRealmId("master");
+        authDetails.setClientId("admin-cli");
+        authDetails.setUserId("admin");
+        authDetails.setIpAddress("127.0.0.1");
+        adminEvent.setAuthDetails(authDetails);
+        LineBuffer line = new LineBuffer(8);
+        formatter.format(adminEvent, line);
+        adminEvent.setAuthDetails(null);
+        adminEvent.setError("failed");
+        formatter.format(adminEvent, line);
+
+        ByteBuffer bytes = line.buffer();
+        ByteBuffer record = record(bytes, BinaryEventFormatter.ADMIN_EVENT);
+        Assert.assertEquals(42, record.getLong());
+        Assert.assertEquals(Arrays.asList("realm", "UPDATE", "CLIENT", "clients/1", "master", "admin-cli", "admin",
+                "127.0.0.1", null), strings(record, 9));
+        Assert.assertFalse(record.hasRemaining());
+        record = record(bytes, BinaryEventFormatter.ADMIN_EVENT);
+        Assert.assertEquals(42, record.getLong());
+        Assert.assertEquals(Arrays.asList("realm", "UPDATE", "CLIENT", "clients/1", null, null, null, null, "failed"),
+                strings(record, 9));
+        Assert.assertFalse(record.hasRemaining());
+        Assert.assertFalse(bytes.hasRemaining());
+    }
+
+    @Test
+    public void testExcludedAndSuppressedEvents() {
+        LineBuffer line = new LineBuffer(8);
+        formatter.formatExcluded(EventType.LOGOUT, line);
+        formatter.formatExcluded((EventType) null, line);
+        formatter.formatExcluded(OperationType.ACTION, line);
+        formatter.formatSuppressed(EventType.LOGIN, Long.MAX_VALUE, line);
+
+        ByteBuffer bytes = line.buffer();
+        Assert.assertEquals("LOGOUT", string(record(bytes, BinaryEventFormatter.USER_EVENT_EXCLUDED)));
+        Assert.assertNull(string(record(bytes, BinaryEventFormatter.USER_EVENT_EXCLUDED)));
+        Assert.assertEquals("ACTION", string(record(bytes, BinaryEventFormatter.ADMIN_EVENT_EXCLUDED)));
+        ByteBuffer record = record(bytes, BinaryEventFormatter.USER_EVENTS_SUPPRESSED);
+        Assert.assertEquals("LOGIN", string(record));
+        Assert.assertEquals(Long.MAX_VALUE, record.getLong());
+        Assert.assertFalse(bytes.hasRemaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBinaryFormatRequiresFile() {
+        init("binary", "format", "binary");
+    }
+
+    @Test
+    public void testBinaryFormatWithFile() throws IOException {
+        Path directory = Files.createTempDirectory("binary-format");
+        SysoutEventListenerProviderFactory factory = init("file", "format", "binary",
+                "file", directory.resolve("events.bin").toString());
+        factory.close();
+
+        Assert.assertTrue(Files.exists(directory.resolve("events.bin")));
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private SysoutEventListenerProviderFactory init(String name, String... options) {
+        String prefix = PREFIX + name + ".";
+        for (int i = 0; i < options.length; i += 2) {
+            System.setProperty(prefix + options[i], options[i + 1]);
+            properties.add(prefix + options[i]);
+        }
+        SysoutEventListenerProviderFactory factory = new SysoutEventListenerProviderFactory();
+        factory.init(new Config.SystemPropertiesScope(prefix));
+        return factory;
+    }
+
+    /**
+     * Reads the next record and checks its kind.
+     *
+     * @return the fields of the record
+     */
+    private static ByteBuffer record(ByteBuffer bytes, byte kind) {
+        int length = bytes.getInt();
+        ByteBuffer record = bytes.slice().limit(length);
+        bytes.position(bytes.position() + length);
+        Assert.assertEquals(kind, record.get());
+        return record;
+    }
+
+    private static List<String> strings(ByteBuffer record, int count) {
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            strings.add(string(record));
+        }
+        return strings;
+    }
+
+    private static String string(ByteBuffer record) {
+        int length = varInt(record);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int varInt(ByteBuffer record) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = record.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
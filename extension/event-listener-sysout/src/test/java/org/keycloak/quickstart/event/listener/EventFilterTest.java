@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks which events the filter compiled from the listener options lets through.
+ */
+public class EventFilterTest {
+
+    private static final String PREFIX = "keycloak.test.event-filter.";
+
+    private final List<String> properties = new ArrayList<>();
+
+    @After
+    public void cleanup() {
+        properties.forEach(System::clearProperty);
+    }
+
+    @Test
+    public void testEverythingPassesByDefault() {
+        EventFilter filter = filter();
+
+        Assert.assertTrue(filter.test(event(EventType.LOGIN, "realm", "client", null)));
+        Assert.assertTrue(filter.test(event(null, null, null, null)));
+        Assert.assertTrue(filter.test(adminEvent(OperationType.DELETE, "realm")));
+    }
+
+    @Test
+    public void testIncludeAndExcludeEvents() {
+        EventFilter filter = filter("include-events", "LOGIN, LOGIN_ERROR,LOGOUT", "exclude-events", "LOGOUT");
+
+        Assert.assertTrue(filter.test(event(EventType.LOGIN, "realm", "client", null)));
+        Assert.assertTrue(filter.test(event(EventType.LOGIN_ERROR, "realm", "client", "invalid_user_credentials")));
+        Assert.assertFalse(filter.test(event(EventType.LOGOUT, "realm", "client", null)));
+        Assert.assertFalse(filter.test(event(EventType.CODE_TO_TOKEN, "realm", "client", null)));
+    }
+
+    @Test
+    public void testExcludedOperations() {
+        EventFilter filter = filter("excludesOperations", "UPDATE,DELETE");
+
+        Assert.assertTrue(filter.test(adminEvent(OperationType.CREATE, "realm")));
+        Assert.assertFalse(filter.test(adminEvent(OperationType.UPDATE, "realm")));
+        Assert.assertFalse(filter.test(adminEvent(OperationType.DELETE, "realm")));
+        Assert.assertTrue(filter.test(adminEvent(null, "realm")));
+    }
+
+    @Test
+    public void testRealmClientAndErrorLists() {
+        EventFilter filter = filter("include-realms", "a,b", "exclude-realms", "b", "exclude-clients", "noisy",
+                "include-errors", "invalid_user_credentials");
+
+        Assert.assertFalse(filter.test(event(EventType.LOGIN, "a", "client", null)));
+        Assert.assertTrue(filter.test(event(EventType.LOGIN_ERROR, "a", "client", "invalid_user_credentials")));
+        Assert.assertFalse(filter.test(event(EventType.LOGIN_ERROR, "a", "client", "user_not_found")));
+        Assert.assertFalse(filter.test(event(EventType.LOGIN_ERROR, "b", "client", "invalid_user_credentials")));
+        Assert.assertFalse(filter.test(event(EventType.LOGIN_ERROR, "c", "client", "invalid_user_credentials")));
+        Assert.assertFalse(filter.test(event(EventType.LOGIN_ERROR, "a", "noisy", "invalid_user_credentials")));
+        Assert.assertTrue(filter.test(event(EventType.LOGIN_ERROR, "a", null, "invalid_user_credentials")));
+        Assert.assertTrue(filter.test(adminEvent(OperationType.CREATE, "a")));
+        Assert.assertFalse(filter.test(adminEvent(OperationType.CREATE, "b")));
+    }
+
+    @Test
+    public void testOnlyExcludeOptionsMarkEventsExcluded() {
+        EventFilter filter = filter("include-events", "LOGIN,LOGOUT", "exclude-events", "LOGOUT",
+                "excludesOperations", "DELETE", "include-realms", "a");
+
+        Assert.assertTrue(filter.isExcluded(event(EventType.LOGOUT, "a", "client", null)));
+        Assert.assertTrue(filter.isExcluded(event(EventType.LOGOUT, "b", "client", null)));
+        Assert.assertFalse(filter.isExcluded(event(EventType.CODE_TO_TOKEN, "a", "client", null)));
+        Assert.assertFalse(filter.test(event(EventType.CODE_TO_TOKEN, "a", "client", null)));
+        Assert.assertFalse(filter.isExcluded(event(EventType.LOGIN, "b", "client", null)));
+        Assert.assertFalse(filter.test(event(EventType.LOGIN, "b", "client", null)));
+        Assert.assertFalse(filter.isExcluded(event(null, "a", "client", null)));
+
+        Assert.assertTrue(filter.isExcluded(adminEvent(OperationType.DELETE, "b")));
+        Assert.assertFalse(filter.isExcluded(adminEvent(OperationType.CREATE, "b")));
+        Assert.assertFalse(filter.test(adminEvent(OperationType.CREATE, "b")));
+        Assert.assertFalse(filter.isExcluded(adminEvent(null, "a")));
+    }
+
+    private EventFilter filter(String... options) {
+        String prefix = PREFIX + properties.size() + ".";
+        for (int i = 0; i < options.length; i += 2) {
+            System.setProperty(prefix + options[i], options[i + 1]);
+            properties.add(prefix + options[i]);
+        }
+        return new EventFilter(new Config.SystemPropertiesScope(prefix));
+    }
+
+    private static Event event(EventType type, String realm, String client, String error) {
+        Event event = new Event();
+        event.setType(type);
+        event.setRealmId(realm);
+        event.setClientId(client);
+        event.setError(error);
+        return event;
+    }
+
+    private static AdminEvent adminEvent(OperationType operation, String realm) {
+        AdminEvent event = new AdminEvent();
+        event.setOperationType(operation);
+        event.setRealmId(realm);
+        return event;
+    }
+}
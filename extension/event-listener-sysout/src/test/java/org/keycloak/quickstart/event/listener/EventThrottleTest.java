@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks sampling, the rate limits per event type and per IP address, and the summaries of held back events.
+ */
+public class EventThrottleTest {
+
+    private static final String PREFIX = "keycloak.test.event-throttle.";
+
+    private final List<String> properties = new ArrayList<>();
+
+    @After
+    public void cleanup() {
+        properties.forEach(System::clearProperty);
+    }
+
+    @Test
+    public void testInactiveWithoutOptions() {
+        EventThrottle throttle = throttle();
+
+        Assert.assertFalse(throttle.isActive());
+        Assert.assertEquals(10_000, acquired(throttle, EventType.LOGIN, "10.0.0.1", 10_000));
+    }
+
+    @Test
+    public void testSampling() {
+        EventThrottle throttle = throttle("sample-rates", "LOGIN_ERROR:0.25,CODE_TO_TOKEN:0");
+
+        Assert.assertTrue(throttle.isActive());
+        int kept = acquired(throttle, EventType.LOGIN_ERROR, "10.0.0.1", 100_000);
+        Assert.assertTrue("Kept " + kept, kept > 23_000 && kept < 27_000);
+        Assert.assertEquals(0, acquired(throttle, EventType.CODE_TO_TOKEN, "10.0.0.1", 1000));
+        Assert.assertEquals(1000, acquired(throttle, EventType.LOGIN, "10.0.0.1", 1000));
+    }
+
+    @Test
+    public void testTypeRateLimitAllowsABurstOfOneSecond() {
+        EventThrottle throttle = throttle("type-rate-limits", "LOGIN_ERROR:10");
+
+        Assert.assertEquals(10, acquired(throttle, EventType.LOGIN_ERROR, "10.0.0.1", 100));
+        Assert.assertEquals(100, acquired(throttle, EventType.LOGIN, "10.0.0.1", 100));
+    }
+
+    @Test
+    public void testTypeRateLimitRefills() throws InterruptedException {
+        EventThrottle throttle = throttle("type-rate-limit", "20");
+
+        Assert.assertEquals(20, acquired(throttle, EventType.LOGIN, null, 100));
+        Thread.sleep(200);
+        int refilled = acquired(throttle, EventType.LOGIN, null, 100);
+        Assert.assertTrue("Refilled " + refilled, refilled >= 3 && refilled <= 6);
+    }
+
+    @Test
+    public void testIpRateLimitIsPerAddress() {
+        EventThrottle throttle = throttle("ip-rate-limit", "5");
+
+        Assert.assertEquals(5, acquired(throttle, EventType.LOGIN_ERROR, "10.0.0.1", 100));
+        Assert.assertEquals(5, acquired(throttle, EventType.LOGIN_ERROR, "10.0.0.2", 100));
+        Assert.assertEquals(100, acquired(throttle, EventType.LOGIN_ERROR, null, 100));
+        Event untyped = new Event();
+        untyped.setIpAddress("10.0.0.1");
+        Assert.assertFalse(throttle.tryAcquire(untyped));
+    }
+
+    @Test
+    public void testEventsHeldBackByTheirAddressLeaveTheTypeRateToOthers() {
+        EventThrottle throttle = throttle("type-rate-limit", "10", "ip-rate-limit", "5");
+
+        Assert.assertEquals(5, acquired(throttle, EventType.LOGIN_ERROR, "10.0.0.1", 1000));
+        Assert.assertEquals(5, acquired(throttle, EventType.LOGIN_ERROR, "10.0.0.2", 1000));
+        Assert.assertEquals(0, acquired(throttle, EventType.LOGIN_ERROR, "10.0.0.3", 1000));
+    }
+
+    @Test
+    public void testSummariesCountHeldBackEvents() {
+        EventThrottle throttle = throttle("type-rate-limits", "LOGIN_ERROR:10", "sample-rates", "LOGOUT:0",
+                "ip-rate-limit", "1000");
+        Map<EventType, Long> printed = new HashMap<>();
+        throttle.startSummaries((type, count) -> {
+            printed.merge(type, count, Long::sum);
+            return true;
+        });
+        acquired(throttle, EventType.LOGIN_ERROR, "10.0.0.1", 25);
+        acquired(throttle, EventType.LOGOUT, "10.0.0.1", 7);
+        throttle.close();
+
+        Map<EventType, Long> expected = new HashMap<>();
+        expected.put(EventType.LOGIN_ERROR, 15L);
+        expected.put(EventType.LOGOUT, 7L);
+        Assert.assertEquals(expected, printed);
+    }
+
+    @Test
+    public void testUnprintedSummariesAreCountedAgain() throws InterruptedException {
+        EventThrottle throttle = throttle("sample-rates", "LOGOUT:0", "suppressed-summary-interval", "1");
+        List<Long> printed = new ArrayList<>();
+        throttle.startSummaries((type, count) -> printed.add(count) && printed.size() > 1);
+        acquired(throttle, EventType.LOGOUT, null, 3);
+        Thread.sleep(1500);
+        acquired(throttle, EventType.LOGOUT, null, 2);
+        throttle.close();
+
+        Assert.assertEquals(List.of(3L, 5L), printed);
+    }
+
+    @Test
+    public void testEventsHeldBackDuringSummariesAreCounted() throws InterruptedException {
+        EventThrottle throttle = throttle("sample-rates", "LOGOUT:0", "suppressed-summary-interval", "1");
+        AtomicLong printed = new AtomicLong();
+        throttle.startSummaries((type, count) -> printed.addAndGet(count) >= 0);
+        AtomicLong heldBack = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2500);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    heldBack.addAndGet(100 - acquired(throttle, EventType.LOGOUT, null, 100));
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        throttle.close();
+
+        Assert.assertEquals(heldBack.get(), printed.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSampleRateOutOfRange() {
+        throttle("sample-rates", "LOGIN:2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRateLimitWithoutType() {
+        throttle("type-rate-limits", "10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeRateLimit() {
+        throttle("ip-rate-limit", "-1");
+    }
+
+    private EventThrottle throttle(String... options) {
+        String prefix = PREFIX + properties.size() + "." + options.length + ".";
+        for (int i = 0; i < options.length; i += 2) {
+            System.setProperty(prefix + options[i], options[i + 1]);
+            properties.add(prefix + options[i]);
+        }
+        return new EventThrottle(new Config.SystemPropertiesScope(prefix));
+    }
+
+    private static int acquired(EventThrottle throttle, EventType type, String ipAddress, int count) {
+        Event event = new Event();
+        event.setType(type);
+        event.setIpAddress(ipAddress);
+        int acquired = 0;
+        for (int i = 0; i < count; i++) {
+            if (throttle.tryAcquire(event)) {
+                acquired++;
+            }
+        }
+        return acquired;
+    }
+}
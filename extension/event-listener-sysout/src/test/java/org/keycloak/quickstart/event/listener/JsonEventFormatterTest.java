@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checks that the JSON format prints one valid, escaped JSON object per line.
+ */
+public class JsonEventFormatterTest {
+
+    private final JsonEventFormatter formatter = new JsonEventFormatter();
+
+    @Test
+    public void testEvent() {
+        Event event = new Event();
+        event.setTime(1700000000000L);
+        event.setType(EventType.LOGIN);
+        event.setRealmId("master");
+        event.setClientId("account-console");
+        event.setUserId("user");
+        event.setIpAddress("192.168.17.42");
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("auth_method", "openid-connect");
+        details.put("username", null);
+        event.setDetails(details);
+
+        Assert.assertEquals("{\"kind\":\"user\",\"time\":1700000000000,\"type\":\"LOGIN\",\"realmId\":\"master\","
+                + "\"clientId\":\"account-console\",\"userId\":\"user\",\"sessionId\":null,"
+                + "\"ipAddress\":\"192.168.17.42\",\"details\":{\"auth_method\":\"openid-connect\",\"username\":null}}\n",
+                format(event));
+    }
+
+    @Test
+    public void testStringsAreEscaped() {
+        Event event = new Event();
+        event.setError("say \"hi\"\\\n\r\t\u0001\u001f");
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("key \"quoted\"", "Jürgen 😀 </script>");
+        event.setDetails(details);
+
+        String line = format(event);
+        Assert.assertTrue(line, line.contains(",\"error\":\"say \\\"hi\\\"\\\\\\n\\r\\t\\u0001\\u001f\""));
+        Assert.assertTrue(line, line.contains("\"details\":{\"key \\\"quoted\\\"\":\"Jürgen 😀 </script>\"}"));
+        Assert.assertEquals(line.length() - 1, line.indexOf('\n'));
+    }
+
+    @Test
+    public void testAdminEvent() {
+        AdminEvent adminEvent = new AdminEvent();
+        adminEvent.setTime(1700000000000L);
+        adminEvent.setRealmId("master");
+        adminEvent.setOperationType(OperationType.CREATE);
+        adminEvent.setResourceType(ResourceType.USER);
+        adminEvent.setResourcePath("users/1");
+        adminEvent.setError("conflict");
+        AuthDetails authDetails = new AuthDetails();
+        authDetails.setRealmId("master");
+        authDetails.setClientId("security-admin-console");
+        authDetails.setUserId("admin");
+        authDetails.setIpAddress("192.168.17.42");
+        adminEvent.setAuthDetails(authDetails);
+
+        Assert.assertEquals("{\"kind\":\"admin\",\"time\":1700000000000,\"realmId\":\"master\","
+                + "\"operationType\":\"CREATE\",\"resourceType\":\"USER\",\"resourcePath\":\"users/1\","
+                + "\"authDetails\":{\"realmId\":\"master\",\"clientId\":\"security-admin-console\","
+                + "\"userId\":\"admin\",\"ipAddress\":\"192.168.17.42\"},\"error\":\"conflict\"}\n", format(adminEvent));
+    }
+
+    @Test
+    public void testAdminEventWithoutAuthDetails() {
+        AdminEvent adminEvent = new AdminEvent();
+        adminEvent.setOperationType(OperationType.DELETE);
+
+        Assert.assertEquals("{\"kind\":\"admin\",\"time\":0,\"realmId\":null,\"operationType\":\"DELETE\","
+                + "\"resourceType\":null,\"resourcePath\":null,\"authDetails\":null}\n", format(adminEvent));
+    }
+
+    @Test
+    public void testExcludedAndSuppressedEvents() {
+        LineBuffer line = new LineBuffer(16);
+        formatter.formatExcluded(EventType.CODE_TO_TOKEN, line);
+        formatter.formatExcluded((OperationType) null, line);
+        formatter.formatSuppressed(EventType.LOGIN_ERROR, 12, line);
+
+        Assert.assertEquals("{\"kind\":\"user\",\"excluded\":true,\"type\":\"CODE_TO_TOKEN\"}\n"
+                + "{\"kind\":\"admin\",\"excluded\":true,\"operationType\":null}\n"
+                + "{\"kind\":\"user\",\"suppressed\":12,\"type\":\"LOGIN_ERROR\"}\n", string(line));
+    }
+
+    private String format(Event event) {
+        LineBuffer line = new LineBuffer(16);
+        formatter.format(event, line);
+        return string(line);
+    }
+
+    private String format(AdminEvent adminEvent) {
+        LineBuffer line = new LineBuffer(16);
+        formatter.format(adminEvent, line);
+        return string(line);
+    }
+
+    private static String string(LineBuffer line) {
+        return StandardCharsets.UTF_8.decode(line.buffer()).toString();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that the line buffer encodes strings and numbers like the JDK does.
+ */
+public class LineBufferTest {
+
+    private static final List<String> STRINGS = Arrays.asList("", "plain", "with space", "café", "€ 5",
+            "😀 emoji", "mixed é中😀\u007f", "\u0000\u001f");
+
+    @Test
+    public void testStringsAreEncodedAsUtf8() {
+        for (String value : STRINGS) {
+            Assert.assertEquals(value, value, string(new LineBuffer(1).put(value)));
+        }
+        Assert.assertEquals("null", string(new LineBuffer(16).put((String) null)));
+    }
+
+    @Test
+    public void testLoneSurrogatesAreReplaced() {
+        Assert.assertEquals("a?b", string(new LineBuffer(16).put("a\ud83db")));
+        Assert.assertEquals("a?", string(new LineBuffer(16).put("a\ude00")));
+    }
+
+    @Test
+    public void testDecimals() {
+        for (long value : new long[] { 0, 7, -7, 10, 99, -100, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE }) {
+            Assert.assertEquals(Long.toString(value), string(new LineBuffer(1).putDecimal(value)));
+        }
+    }
+
+    @Test
+    public void testQuotedIfSpaces() {
+        Assert.assertEquals("plain", string(new LineBuffer(1).putQuotedIfSpaces("plain")));
+        Assert.assertEquals("'with space'", string(new LineBuffer(1).putQuotedIfSpaces("with space")));
+        Assert.assertEquals("x='café au lait'",
+                string(new LineBuffer(1).put("x=").putQuotedIfSpaces("café au lait")));
+        Assert.assertEquals("null", string(new LineBuffer(1).putQuotedIfSpaces(null)));
+    }
+
+    @Test
+    public void testSizedStrings() {
+        for (String value : STRINGS) {
+            LineBuffer buffer = new LineBuffer(1).putSized(value);
+            ByteBuffer bytes = buffer.buffer();
+            int length = readVarInt(bytes) - 1;
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            Assert.assertEquals(value, encoded.length, length);
+            Assert.assertEquals(value, encoded.length, bytes.remaining());
+        }
+        Assert.assertEquals(1, new LineBuffer(1).putSized(null).length());
+    }
+
+    @Test
+    public void testVarInts() {
+        for (int value : new int[] { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1 }) {
+            Assert.assertEquals(value, readVarInt(new LineBuffer(1).putVarInt(value).buffer()));
+        }
+    }
+
+    @Test
+    public void testIntsAndLongsAreBigEndian() {
+        LineBuffer buffer = new LineBuffer(1).putInt(0).putLong(-2L).putInt(0x01020304);
+        buffer.setInt(0, 42);
+
+        ByteBuffer bytes = buffer.buffer();
+        Assert.assertEquals(42, bytes.getInt());
+        Assert.assertEquals(-2L, bytes.getLong());
+        Assert.assertEquals(0x01020304, bytes.getInt());
+    }
+
+    @Test
+    public void testEntriesAreWrittenInMapOrder() {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("a", "1");
+        map.put("b", null);
+        map.put("c", "3");
+
+        LineBuffer buffer = new LineBuffer(1).putEntries(map,
+                (line, index, key, value) -> line.putDecimal(index).put(key).put(value).put((byte) ';'));
+        Assert.assertEquals("0a1;1bnull;2c3;", string(buffer));
+    }
+
+    @Test
+    public void testTruncateClearAndReuse() {
+        LineBuffer buffer = new LineBuffer(4).put("first line\n");
+        int length = buffer.length();
+        buffer.put("broken");
+        buffer.truncate(length);
+        Assert.assertEquals("first line\n", string(buffer));
+
+        buffer.clear().put("second");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        Assert.assertEquals("second", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static String string(LineBuffer buffer) {
+        ByteBuffer bytes = buffer.buffer();
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private static int readVarInt(ByteBuffer bytes) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
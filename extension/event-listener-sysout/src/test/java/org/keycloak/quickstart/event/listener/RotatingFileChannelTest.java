@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Checks that the file channel rotates files by size and age without splitting writes, and keeps appending when a
+ * rotation fails.
+ */
+public class RotatingFileChannelTest {
+
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("rotating-file");
+        file = directory.resolve("events.log");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testRotatesBeforeExceedingTheMaximumSize() throws IOException {
+        RotatingFileChannel channel = channel(100, 0, false);
+        for (int i = 0; i < 30; i++) {
+            write(channel, String.format("line %03d%n", i));
+        }
+        channel.close();
+
+        List<Path> files = files();
+        Assert.assertTrue(files.size() > 1);
+        List<String> lines = new ArrayList<>();
+        for (Path path : files) {
+            Assert.assertTrue(path + " has " + Files.size(path) + " bytes", Files.size(path) <= 100);
+            lines.addAll(Files.readAllLines(path));
+        }
+        Assert.assertEquals(30, lines.size());
+        Assert.assertTrue(lines.stream().allMatch(line -> line.matches("line \\d{3}")));
+        Assert.assertEquals(lines.stream().sorted().collect(Collectors.toList()), lines);
+    }
+
+    @Test
+    public void testLargeWriteGetsAFileOfItsOwn() throws IOException {
+        RotatingFileChannel channel = channel(100, 0, false);
+        write(channel, "small\n");
+        String large = "x".repeat(300) + "\n";
+        write(channel, large);
+        write(channel, "small again\n");
+        channel.close();
+
+        List<String> contents = new ArrayList<>();
+        for (Path path : files()) {
+            contents.add(Files.readString(path));
+        }
+        Assert.assertEquals(List.of("small\n", large, "small again\n"), contents);
+    }
+
+    @Test
+    public void testRotatesOldFilesOnFlush() throws IOException, InterruptedException {
+        RotatingFileChannel channel = channel(0, 50, false);
+        write(channel, "first\n");
+        channel.flush();
+        Thread.sleep(100);
+        channel.flush();
+        write(channel, "second\n");
+        channel.close();
+
+        List<Path> files = files();
+        Assert.assertEquals(2, files.size());
+        Assert.assertEquals("first\n", Files.readString(files.get(0)));
+        Assert.assertEquals("second\n", Files.readString(file));
+    }
+
+    @Test
+    public void testRotatedFilesAreCompressed() throws IOException {
+        RotatingFileChannel channel = channel(20, 0, true);
+        write(channel, "first line\n");
+        write(channel, "second line\n");
+        channel.close();
+
+        List<Path> files = files();
+        Assert.assertEquals(2, files.size());
+        Assert.assertTrue(files.get(0).getFileName().toString().endsWith(".gz"));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(files.get(0)))) {
+            Assert.assertEquals("first line\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals("second line\n", Files.readString(file));
+    }
+
+    @Test
+    public void testFailedRotationKeepsAppending() throws IOException {
+        RotatingFileChannel channel = channel(20, 0, false);
+        write(channel, "lost line\n");
+        channel.flush();
+        // The rename fails as the file is gone, the events that follow go to a new file
+        Files.delete(file);
+        write(channel, "second line\n");
+        write(channel, "third\n");
+        channel.close();
+
+        Assert.assertEquals(List.of(file), files());
+        Assert.assertEquals("second line\nthird\n", Files.readString(file));
+    }
+
+    @Test
+    public void testAppendsToAnExistingFile() throws IOException {
+        Files.writeString(file, "before restart\n");
+        RotatingFileChannel channel = channel(0, 0, false);
+        write(channel, "after restart\n");
+        channel.close();
+
+        Assert.assertEquals("before restart\nafter restart\n", Files.readString(file));
+    }
+
+    @Test
+    public void testFsyncNamesIgnoreTheDefaultLocale() {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            Assert.assertEquals(RotatingFileChannel.Fsync.INTERVAL, RotatingFileChannel.Fsync.of("interval"));
+            Assert.assertEquals(RotatingFileChannel.Fsync.EVERY_BATCH, RotatingFileChannel.Fsync.of("every-batch"));
+            Assert.assertEquals(RotatingFileChannel.Fsync.NONE, RotatingFileChannel.Fsync.of("none"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    private RotatingFileChannel channel(long maxBytes, long maxAgeMillis, boolean compress) {
+        return new RotatingFileChannel(file, 16, maxBytes, maxAgeMillis, compress, RotatingFileChannel.Fsync.NONE, 0);
+    }
+
+    private static void write(RotatingFileChannel channel, String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        channel.write(bytes);
+        Assert.assertFalse(bytes.hasRemaining());
+    }
+
+    /**
+     * @return the rotated files from oldest to newest, followed by the current file
+     */
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted((a, b) -> a.equals(file) ? 1 : b.equals(file) ? -1 : a.compareTo(b))
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.listener;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checks that the text format prints the same lines as formatting the events into strings did.
+ */
+public class TextEventFormatterTest {
+
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final TextEventFormatter formatter = new TextEventFormatter();
+
+    @Test
+    public void testEvent() {
+        Event event = new Event();
+        event.setType(EventType.LOGIN_ERROR);
+        event.setRealmId("realm");
+        event.setClientId("client");
+        event.setUserId("user");
+        event.setIpAddress("10.0.0.1");
+        event.setError("invalid_user_credentials");
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("auth_method", "openid-connect");
+        details.put("username", "Jürgen Müller");
+        details.put("empty", null);
+        event.setDetails(details);
+
+        Assert.assertEquals(expected(event), format(event));
+        Assert.assertEquals("USER EVENT: type=LOGIN_ERROR, realmId=realm, clientId=client, userId=user, "
+                + "ipAddress=10.0.0.1, error=invalid_user_credentials, auth_method=openid-connect, "
+                + "username='Jürgen Müller', empty=null" + NEWLINE, format(event));
+    }
+
+    @Test
+    public void testEventWithoutFields() {
+        Event event = new Event();
+
+        Assert.assertEquals(expected(event), format(event));
+    }
+
+    @Test
+    public void testAdminEvent() {
+        AdminEvent adminEvent = new AdminEvent();
+        adminEvent.setOperationType(OperationType.UPDATE);
+        adminEvent.setResourcePath("users/1234");
+        adminEvent.setError("conflict");
+        AuthDetails authDetails = new AuthDetails();
+        authDetails.setRealmId("master");
+        authDetails.setClientId("admin-cli");
+        authDetails.setUserId("admin");
+        authDetails.setIpAddress("127.0.0.1");
+        adminEvent.setAuthDetails(authDetails);
+
+        Assert.assertEquals(expected(adminEvent), format(adminEvent));
+    }
+
+    @Test
+    public void testAdminEventWithoutAuthDetails() {
+        AdminEvent adminEvent = new AdminEvent();
+        adminEvent.setOperationType(OperationType.DELETE);
+        adminEvent.setResourcePath("users/1234");
+
+        Assert.assertEquals("ADMIN EVENT: operationType=DELETE, realmId=null, clientId=null, userId=null, "
+                + "ipAddress=null, resourcePath=users/1234" + NEWLINE, format(adminEvent));
+    }
+
+    @Test
+    public void testBufferIsReused() {
+        Event event = new Event();
+        event.setType(EventType.LOGIN);
+        event.setUserId("user");
+        LineBuffer line = new LineBuffer(8);
+        formatter.format(event, line);
+        formatter.format(event, line.clear());
+
+        Assert.assertEquals(expected(event), StandardCharsets.UTF_8.decode(line.buffer()).toString());
+    }
+
+    private String format(Event event) {
+        LineBuffer line = new LineBuffer(16);
+        formatter.format(event, line);
+        return StandardCharsets.UTF_8.decode(line.buffer()).toString();
+    }
+
+    private String format(AdminEvent adminEvent) {
+        LineBuffer line = new LineBuffer(16);
+        formatter.format(adminEvent, line);
+        return StandardCharsets.UTF_8.decode(line.buffer()).toString();
+    }
+
+    /**
+     * Formats the event the way the listener did before it formatted into byte buffers.
+     */
+    private static String expected(Event event) {
+        StringBuilder sb = new StringBuilder("USER EVENT: type=").append(event.getType())
+                .append(", realmId=").append(event.getRealmId())
+                .append(", clientId=").append(event.getClientId())
+                .append(", userId=").append(event.getUserId())
+                .append(", ipAddress=").append(event.getIpAddress());
+        if (event.getError() != null) {
+            sb.append(", error=").append(event.getError());
+        }
+        if (event.getDetails() != null) {
+            for (Map.Entry<String, String> e : event.getDetails().entrySet()) {
+                sb.append(", ").append(e.getKey());
+                if (e.getValue() == null || e.getValue().indexOf(' ') == -1) {
+                    sb.append("=").append(e.getValue());
+                } else {
+                    sb.append("='").append(e.getValue()).append("'");
+                }
+            }
+        }
+        return sb.append(NEWLINE).toString();
+    }
+
+    private static String expected(AdminEvent adminEvent) {
+        StringBuilder sb = new StringBuilder("ADMIN EVENT: operationType=").append(adminEvent.getOperationType())
+                .append(", realmId=").append(adminEvent.getAuthDetails().getRealmId())
+                .append(", clientId=").append(adminEvent.getAuthDetails().getClientId())
+                .append(", userId=").append(adminEvent.getAuthDetails().getUserId())
+                .append(", ipAddress=").append(adminEvent.getAuthDetails().getIpAddress())
+                .append(", resourcePath=").append(adminEvent.getResourcePath());
+        if (adminEvent.getError() != null) {
+            sb.append(", error=").append(adminEvent.getError());
+        }
+        return sb.append(NEWLINE).toString();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage.benchmark;
+
+import org.keycloak.Config;
+import org.keycloak.models.RealmModel;
+import org.keycloak.quickstart.event.storage.MemEventStoreProviderFactory;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates in-memory event stores configured like the server would configure them.
+ */
+final class EventStores {
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private EventStores() {
+    }
+
+    /**
+     * @param options provider options, for example {@code max-events}
+     */
+    static MemEventStoreProviderFactory factory(Map<String, String> options) {
+        String prefix = "keycloak.benchmark.in-mem-" + instances.incrementAndGet() + ".";
+        options.forEach((key, value) -> System.setProperty(prefix + key, value));
+        MemEventStoreProviderFactory factory = new MemEventStoreProviderFactory();
+        factory.init(new Config.SystemPropertiesScope(prefix));
+        return factory;
+    }
+
+    static RealmModel realm(String id) {
+        return (RealmModel) Proxy.newProxyInstance(RealmModel.class.getClassLoader(), new Class<?>[] { RealmModel.class },
+                (proxy, method, args) -> "getId".equals(method.getName()) ? id : null);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage.benchmark;
+
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.models.RealmModel;
+import org.keycloak.quickstart.event.storage.MemEventStoreProviderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of expiring and clearing events, as done by the scheduled task that clears expired events and by the admin
+ * console. Each expiration moves the expiration time of a realm forward by one second of events; the store is refilled
+ * for every iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpiryBenchmark {
+
+    @Param({ "100000", "1000000" })
+    public int storedEvents;
+
+    @Param({ "objects", "compact" })
+    public String storage;
+
+    private MemEventStoreProviderFactory factory;
+    private EventStoreProvider provider;
+    private RealmModel[] realms;
+    private long olderThan;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> options = new HashMap<>();
+        options.put("storage", storage);
+        options.put("max-events", Integer.toString(storedEvents));
+        factory = EventStores.factory(options);
+        provider = factory.create(null);
+        realms = new RealmModel[SyntheticEvents.REALMS];
+        for (int i = 0; i < realms.length; i++) {
+            realms[i] = EventStores.realm(SyntheticEvents.realm(i));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        provider.clear();
+        SyntheticEvents.fill(provider, storedEvents, 42);
+        olderThan = SyntheticEvents.START;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        provider.close();
+        factory.close();
+    }
+
+    @Benchmark
+    public void clearOlderThan() {
+        RealmModel realm = realms[next++ % realms.length];
+        if (realm == realms[0]) {
+            olderThan += 1000;
+        }
+        provider.clear(realm, olderThan);
+    }
+
+    @Benchmark
+    public void clearRealm() {
+        provider.clear(realms[next++ % realms.length]);
+    }
+}
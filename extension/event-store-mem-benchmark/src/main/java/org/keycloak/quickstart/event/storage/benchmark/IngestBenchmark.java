@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage.benchmark;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.quickstart.event.storage.MemEventStoreProviderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of storing events reported concurrently by several request threads, as on a busy server. The events are
+ * generated up front, so that only storing them is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class IngestBenchmark {
+
+    private static final int GENERATED = 1 << 16;
+
+    @State(Scope.Benchmark)
+    public static class Store {
+
+        @Param({ "objects", "compact", "off-heap" })
+        public String storage;
+
+        @Param({ "false", "true" })
+        public boolean async;
+
+        @Param({ "1000000" })
+        public int maxEvents;
+
+        MemEventStoreProviderFactory factory;
+        EventStoreProvider provider;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Map<String, String> options = new HashMap<>();
+            options.put("storage", storage);
+            options.put("max-events", Integer.toString(maxEvents));
+            options.put("max-admin-events", Integer.toString(maxEvents));
+            options.put("async", Boolean.toString(async));
+            factory = EventStores.factory(options);
+            provider = factory.create(null);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            provider.close();
+            factory.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Events {
+
+        Event[] events = new Event[GENERATED];
+        AdminEvent[] adminEvents = new AdminEvent[GENERATED];
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(Thread.currentThread().getId());
+            for (int i = 0; i < GENERATED; i++) {
+                long time = SyntheticEvents.START + i * SyntheticEvents.INTERVAL_MILLIS;
+                events[i] = SyntheticEvents.event(random, time);
+                adminEvents[i] = SyntheticEvents.adminEvent(random, time);
+            }
+        }
+
+        int next() {
+            return next++ & GENERATED - 1;
+        }
+    }
+
+    @Benchmark
+    public void event(Store store, Events events) {
+        store.provider.onEvent(events.events[events.next()]);
+    }
+
+    @Benchmark
+    public void adminEvent(Store store, Events events) {
+        store.provider.onEvent(events.adminEvents[events.next()], false);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage.benchmark;
+
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.quickstart.event.storage.MemEventStoreProviderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the queries the admin console and typical integrations run against a filled store. Every query asks
+ * for one page of results, the way the admin console does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+    private static final int PAGE = 100;
+
+    @Param({ "10000", "100000", "1000000", "10000000" })
+    public int storedEvents;
+
+    @Param({ "objects", "compact", "off-heap" })
+    public String storage;
+
+    private MemEventStoreProviderFactory factory;
+    private EventStoreProvider provider;
+    private String realm;
+    private String user;
+    private String client;
+    private String ipAddress;
+    private Date middle;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> options = new HashMap<>();
+        options.put("storage", storage);
+        options.put("max-events", Integer.toString(storedEvents));
+        options.put("max-admin-events", Integer.toString(storedEvents / 10));
+        if ("off-heap".equals(storage)) {
+            // Leave room for every stored event, as the default budgets hold far fewer than the largest sizes
+            options.put("off-heap-bytes", Long.toString(storedEvents * 512L));
+            options.put("admin-off-heap-bytes", Long.toString(storedEvents * 64L));
+        }
+        factory = EventStores.factory(options);
+        provider = factory.create(null);
+        SyntheticEvents.fill(provider, storedEvents, 42);
+        Random admin = new Random(43);
+        for (int i = 0; i < storedEvents / 10; i++) {
+            provider.onEvent(SyntheticEvents.adminEvent(admin,
+                    SyntheticEvents.START + i * SyntheticEvents.INTERVAL_MILLIS * 10), false);
+        }
+        realm = SyntheticEvents.realm(0);
+        user = SyntheticEvents.user(1);
+        client = SyntheticEvents.client(2);
+        ipAddress = SyntheticEvents.ipAddress(3);
+        middle = new Date(SyntheticEvents.START + storedEvents / 2 * SyntheticEvents.INTERVAL_MILLIS);
+        random = new Random(44);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        provider.close();
+        factory.close();
+    }
+
+    @Benchmark
+    public void latestPage(Blackhole blackhole) {
+        provider.createQuery().realm(realm).maxResults(PAGE).getResultStream().forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void userPage(Blackhole blackhole) {
+        provider.createQuery().realm(realm).user(user).maxResults(PAGE).getResultStream().forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void clientAndTypes(Blackhole blackhole) {
+        provider.createQuery().realm(realm).client(client).type(EventType.LOGIN_ERROR, EventType.CODE_TO_TOKEN)
+                .maxResults(PAGE).getResultStream().forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void ipAddress(Blackhole blackhole) {
+        provider.createQuery().realm(realm).ipAddress(ipAddress).maxResults(PAGE).getResultStream()
+                .forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void oldestPage(Blackhole blackhole) {
+        provider.createQuery().realm(realm).orderByAscTime().maxResults(PAGE).getResultStream()
+                .forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void timeRange(Blackhole blackhole) {
+        provider.createQuery().realm(realm).toDate(middle).maxResults(PAGE).getResultStream()
+                .forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void deepPage(Blackhole blackhole) {
+        provider.createQuery().realm(realm).firstResult(100 * PAGE).maxResults(PAGE).getResultStream()
+                .forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void adminResourcePath(Blackhole blackhole) {
+        provider.createAdminQuery().realm(realm).operation(OperationType.UPDATE)
+                .resourcePath("^users/" + Integer.toHexString(random.nextInt(16))).maxResults(PAGE)
+                .getResultStream().forEach(blackhole::consume);
+    }
+}
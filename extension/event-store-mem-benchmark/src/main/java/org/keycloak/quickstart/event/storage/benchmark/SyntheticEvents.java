@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage.benchmark;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates events that resemble the traffic of a busy server: a few realms and clients, many users and IP addresses,
+ * mostly successful logins and a share of failed ones.
+ */
+final class SyntheticEvents {
+
+    static final int REALMS = 10;
+    static final int CLIENTS = 20;
+    static final int USERS = 10000;
+    static final int IP_ADDRESSES = 50000;
+
+    /**
+     * Time between two generated events.
+     */
+    static final long INTERVAL_MILLIS = 10;
+
+    static final long START = 1700000000000L;
+
+    private SyntheticEvents() {
+    }
+
+    static String realm(int i) {
+        return "realm-" + i;
+    }
+
+    static String client(int i) {
+        return "client-" + i;
+    }
+
+    static String user(int i) {
+        return "user-" + i;
+    }
+
+    static String ipAddress(int i) {
+        return "10." + (i >>> 16 & 0xFF) + "." + (i >>> 8 & 0xFF) + "." + (i & 0xFF);
+    }
+
+    static Event event(Random random, long time) {
+        Event event = new Event();
+        event.setId(UUID.randomUUID().toString());
+        event.setTime(time);
+        int type = random.nextInt(10);
+        event.setType(type < 7 ? EventType.LOGIN : type < 9 ? EventType.LOGIN_ERROR : EventType.CODE_TO_TOKEN);
+        event.setRealmId(realm(random.nextInt(REALMS)));
+        event.setClientId(client(random.nextInt(CLIENTS)));
+        event.setUserId(user(random.nextInt(USERS)));
+        event.setSessionId(UUID.randomUUID().toString());
+        event.setIpAddress(ipAddress(random.nextInt(IP_ADDRESSES)));
+        if (event.getType() == EventType.LOGIN_ERROR) {
+            event.setError("invalid_user_credentials");
+        }
+        Map<String, String> details = new HashMap<>();
+        details.put("auth_method", "openid-connect");
+        details.put("redirect_uri", "https://app.example.com/" + event.getClientId() + "/callback");
+        details.put("username", event.getUserId());
+        event.setDetails(details);
+        return event;
+    }
+
+    static AdminEvent adminEvent(Random random, long time) {
+        AdminEvent event = new AdminEvent();
+        event.setId(UUID.randomUUID().toString());
+        event.setTime(time);
+        event.setRealmId(realm(random.nextInt(REALMS)));
+        event.setOperationType(OperationType.values()[random.nextInt(OperationType.values().length)]);
+        event.setResourceType(ResourceType.USER);
+        event.setResourcePath("users/" + UUID.nameUUIDFromBytes(user(random.nextInt(USERS)).getBytes()));
+        AuthDetails authDetails = new AuthDetails();
+        authDetails.setRealmId(event.getRealmId());
+        authDetails.setClientId("admin-cli");
+        authDetails.setUserId(user(random.nextInt(100)));
+        authDetails.setIpAddress(ipAddress(random.nextInt(100)));
+        event.setAuthDetails(authDetails);
+        return event;
+    }
+
+    /**
+     * Stores the given number of user events, {@link #INTERVAL_MILLIS} apart starting at {@link #START}.
+     */
+    static void fill(EventStoreProvider provider, int count, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            provider.onEvent(event(random, START + i * INTERVAL_MILLIS));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage.benchmark;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.quickstart.event.storage.MemEventStoreProviderFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Checks that the benchmark stores hold the generated events, so that the benchmarks measure queries over real data.
+ */
+public class SyntheticEventsTest {
+
+    private static final int EVENTS = 10_000;
+
+    private MemEventStoreProviderFactory factory;
+    private EventStoreProvider provider;
+
+    @Before
+    public void setUp() {
+        factory = EventStores.factory(Map.of("max-events", Integer.toString(EVENTS)));
+        provider = factory.create(null);
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+        factory.close();
+    }
+
+    @Test
+    public void testFillStoresEveryEvent() {
+        SyntheticEvents.fill(provider, EVENTS, 42);
+
+        List<Event> events = provider.createQuery().getResultStream().collect(Collectors.toList());
+        Assert.assertEquals(EVENTS, events.size());
+        Assert.assertEquals(SyntheticEvents.START + (EVENTS - 1) * SyntheticEvents.INTERVAL_MILLIS,
+                events.get(0).getTime());
+        Assert.assertEquals(SyntheticEvents.START, events.get(EVENTS - 1).getTime());
+    }
+
+    @Test
+    public void testBenchmarkedFiltersFindEvents() {
+        SyntheticEvents.fill(provider, EVENTS, 42);
+
+        String realm = SyntheticEvents.realm(0);
+        Assert.assertEquals(100, provider.createQuery().realm(realm).maxResults(100).getResultStream().count());
+        Assert.assertTrue(provider.createQuery().realm(realm).user(SyntheticEvents.user(1)).getResultStream()
+                .allMatch(e -> realm.equals(e.getRealmId()) && SyntheticEvents.user(1).equals(e.getUserId())));
+        Assert.assertTrue(provider.createQuery().client(SyntheticEvents.client(2)).getResultStream().count() > 0);
+    }
+
+    @Test
+    public void testSameSeedGivesSameEvents() {
+        Event first = SyntheticEvents.event(new Random(7), SyntheticEvents.START);
+        Event second = SyntheticEvents.event(new Random(7), SyntheticEvents.START);
+
+        Assert.assertEquals(first.getType(), second.getType());
+        Assert.assertEquals(first.getRealmId(), second.getRealmId());
+        Assert.assertEquals(first.getUserId(), second.getUserId());
+        Assert.assertEquals(first.getIpAddress(), second.getIpAddress());
+        Assert.assertEquals(first.getDetails(), second.getDetails());
+    }
+
+    @Test
+    public void testIpAddressesAreDistinct() {
+        Assert.assertEquals(SyntheticEvents.IP_ADDRESSES, IntStream.range(0, SyntheticEvents.IP_ADDRESSES)
+                .mapToObj(SyntheticEvents::ipAddress).distinct().count());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+
+/**
+ * Encodes every field of an admin event. The operation type is written by name, see {@link UserEventCodec}.
+ */
+class AdminEventCodec implements EventCodec<AdminEvent> {
+
+    static final AdminEventCodec INSTANCE = new AdminEventCodec();
+
+    @Override
+    public void write(AdminEvent event, RecordWriter record) {
+        record.writeString(event.getId());
+        record.writeLong(event.getTime());
+        record.writeString(event.getRealmId());
+        AuthDetails authDetails = event.getAuthDetails();
+        if (authDetails == null) {
+            record.writeByte(0);
+        } else {
+            record.writeByte(1);
+            record.writeString(authDetails.getRealmId());
+            record.writeString(authDetails.getClientId());
+            record.writeString(authDetails.getUserId());
+            record.writeString(authDetails.getIpAddress());
+        }
+        record.writeString(event.getOperationType() == null ? null : event.getOperationType().name());
+        record.writeString(event.getResourceTypeAsString());
+        record.writeString(event.getResourcePath());
+        record.writeString(event.getRepresentation());
+        record.writeString(event.getError());
+    }
+
+    @Override
+    public AdminEvent read(RecordReader record) {
+        AdminEvent event = new AdminEvent();
+        event.setId(record.readString());
+        event.setTime(record.readLong());
+        event.setRealmId(record.readString());
+        if (record.readByte() != 0) {
+            AuthDetails authDetails = new AuthDetails();
+            authDetails.setRealmId(record.readString());
+            authDetails.setClientId(record.readString());
+            authDetails.setUserId(record.readString());
+            authDetails.setIpAddress(record.readString());
+            event.setAuthDetails(authDetails);
+        }
+        String operation = record.readString();
+        event.setResourceTypeAsString(record.readString());
+        event.setResourcePath(record.readString());
+        event.setRepresentation(record.readString());
+        event.setError(record.readString());
+        event.setOperationType(operation == null ? null : OperationType.valueOf(operation));
+        return event;
+    }
+}
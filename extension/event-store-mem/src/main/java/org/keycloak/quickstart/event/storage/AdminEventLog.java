@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.keycloak.events.admin.AdminEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Admin events together with the indexes maintained for them.
+ */
+class AdminEventLog extends IndexedEventLog<AdminEvent> {
+
+    final SequenceIndex<AdminEvent> authUsers;
+
+    /**
+     * Indexes by the first one, two, ... segments of the resource path.
+     */
+    final List<SequenceIndex<AdminEvent>> resourcePaths = new ArrayList<>();
+
+    AdminEventLog(int capacity, IntFunction<EventRingBuffer.Slots<AdminEvent>> slots) {
+        super(capacity, slots, AdminEvent::getRealmId, AdminEvent::getTime);
+        authUsers = index(e -> e.getAuthDetails() != null ? e.getAuthDetails().getUserId() : null);
+        for (int i = 1; i <= ResourcePathPattern.INDEXED_SEGMENTS; i++) {
+            int count = i;
+            resourcePaths.add(index(e -> ResourcePathPattern.segments(e.getResourcePath(), count)));
+        }
+    }
+
+    @Override
+    AdminEventLog partition(int capacity) {
+        return new AdminEventLog(capacity, slots);
+    }
+}
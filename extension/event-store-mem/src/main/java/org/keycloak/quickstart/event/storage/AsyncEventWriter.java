@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples the threads reporting events from the writes into an {@link IndexedEventLog}. Events are handed over
+ * through a bounded queue and a single writer thread drains it in batches, so the reporting threads never contend on
+ * the log, its indexes or its journal. When the queue is full, the {@link Backpressure} policy decides whether the
+ * reporting thread waits or an event is dropped.
+ * <p>
+ * A submitted event is only visible to queries once the writer thread stored it, so a thread that queries right after
+ * submitting an event may not find it. Clearing and expiring events wait for the queued events first.
+ */
+class AsyncEventWriter<T> {
+
+    private static final Logger logger = Logger.getLogger(AsyncEventWriter.class);
+
+    private static final long DROP_REPORT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    enum Backpressure {
+        /**
+         * The reporting thread waits until the queue has room.
+         */
+        BLOCK,
+        /**
+         * The oldest queued event is dropped to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * The new event is dropped.
+         */
+        DROP;
+
+        static Backpressure of(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private final IndexedEventLog<T> log;
+    private final BlockingQueue<T> queue;
+    private final int batchSize;
+    private final Backpressure backpressure;
+    private final Thread thread;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    AsyncEventWriter(IndexedEventLog<T> log, String name, int queueSize, int batchSize, Backpressure backpressure) {
+        this.log = log;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.backpressure = backpressure;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void submit(T event) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+        // Counted before the event is queued, so flush() never misses an event the writer thread already stored
+        accepted.incrementAndGet();
+        switch (backpressure) {
+            case BLOCK:
+                try {
+                    while (!queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                        if (closed) {
+                            reject();
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    reject();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(event)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                        completed.incrementAndGet();
+                    }
+                }
+                break;
+            case DROP:
+                if (!queue.offer(event)) {
+                    reject();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Waits until the events submitted before the call are written to the log.
+     */
+    void flush() {
+        long target = accepted.get();
+        while (completed.get() < target && thread.isAlive()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Writes the queued events and stops the writer thread.
+     */
+    void close() {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dropped.get() > 0) {
+            logger.warnf("%s dropped %d events in total", thread.getName(), dropped.get());
+        }
+    }
+
+    private void reject() {
+        accepted.decrementAndGet();
+        dropped.incrementAndGet();
+    }
+
+    private void run() {
+        List<T> batch = new ArrayList<>(batchSize);
+        long reportedDrops = 0;
+        long reportedAt = System.currentTimeMillis();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                T first = queue.poll(DROP_REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                // Woken up by close(), the remaining events are drained before the thread ends
+            }
+            queue.drainTo(batch, batchSize - batch.size());
+            for (T event : batch) {
+                try {
+                    log.add(event);
+                } catch (RuntimeException e) {
+                    logger.error("Failed to store event", e);
+                }
+            }
+            completed.addAndGet(batch.size());
+            batch.clear();
+
+            long now = System.currentTimeMillis();
+            long drops = dropped.get();
+            if (drops > reportedDrops && now - reportedAt >= DROP_REPORT_INTERVAL) {
+                logger.warnf("%s dropped %d events because its queue was full", thread.getName(), drops - reportedDrops);
+                reportedDrops = drops;
+                reportedAt = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Set membership sketch that answers "definitely not added" or "maybe added". The filter starts small and adds a
+ * stage twice the size of the previous one whenever the current stage holds as many values as it was sized for, so
+ * its memory follows the number of added values while the false positive rate of every stage stays around one
+ * percent.
+ */
+class BloomFilter {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int BITS_PER_VALUE = 10;
+    private static final int HASHES = 4;
+
+    private volatile Stage[] stages = { new Stage(INITIAL_CAPACITY) };
+
+    void add(String value) {
+        long hash = hash(value);
+        Stage[] current = stages;
+        Stage stage = current[current.length - 1];
+        stage.add(hash);
+        if (stage.count.incrementAndGet() == stage.capacity) {
+            grow(stage);
+        }
+    }
+
+    boolean mightContain(String value) {
+        long hash = hash(value);
+        for (Stage stage : stages) {
+            if (stage.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void grow(Stage full) {
+        Stage[] current = stages;
+        if (current[current.length - 1] == full) {
+            Stage[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = new Stage(full.capacity * 2);
+            stages = grown;
+        }
+    }
+
+    private static long hash(String value) {
+        long h = value.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 29);
+    }
+
+    private static class Stage {
+
+        private final int capacity;
+        private final int mask;
+        private final AtomicLongArray bits;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Stage(int capacity) {
+            this.capacity = capacity;
+            int size = Integer.highestOneBit(capacity * BITS_PER_VALUE - 1) << 1;
+            this.mask = size - 1;
+            this.bits = new AtomicLongArray(size / Long.SIZE);
+        }
+
+        private void add(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < HASHES; i++) {
+                int bit = (h1 + i * h2) & mask;
+                long word = 1L << bit;
+                if ((bits.get(bit >>> 6) & word) == 0) {
+                    bits.getAndAccumulate(bit >>> 6, word, (a, b) -> a | b);
+                }
+            }
+        }
+
+        private boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < HASHES; i++) {
+                int bit = (h1 + i * h2) & mask;
+                if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size ring of bytes shared by the records of many events. Writers claim their region with a single atomic
+ * increment, so the newest records overwrite the oldest ones once the arena is full. A region stays readable as long as
+ * less than the capacity of the arena was appended after it.
+ * <p>
+ * The bytes are kept in one or more buffers of at most 1 GiB, either on the heap or in direct memory.
+ */
+class ByteArena {
+
+    static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    private final ByteBuffer[] chunks;
+    private final int chunkSize;
+    private final long mask;
+    private final AtomicLong next = new AtomicLong();
+
+    ByteArena(long capacity, boolean direct) {
+        long size = Long.highestOneBit(Math.max(capacity, 1));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.chunkSize = (int) Math.min(size, MAX_CHUNK_SIZE);
+        this.chunks = new ByteBuffer[(int) (size / chunkSize)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = direct ? ByteBuffer.allocateDirect(chunkSize) : ByteBuffer.allocate(chunkSize);
+        }
+    }
+
+    long capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return position of the appended record, or {@code -1} if the record does not fit into the arena
+     */
+    long append(byte[] record, int length) {
+        if (length > capacity()) {
+            return -1;
+        }
+        long position = next.getAndAdd(length);
+        int copied = 0;
+        while (copied < length) {
+            long offset = (position + copied) & mask;
+            int inChunk = (int) (offset % chunkSize);
+            int count = Math.min(length - copied, chunkSize - inChunk);
+            chunks[(int) (offset / chunkSize)].put(inChunk, record, copied, count);
+            copied += count;
+        }
+        return position;
+    }
+
+    /**
+     * Copies a region. The copy may be corrupt if the region is overwritten concurrently, which
+     * {@link #isRetained(long)} tells after the copy is taken.
+     */
+    byte[] copy(long position, int length) {
+        byte[] copy = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            long offset = (position + copied) & mask;
+            int inChunk = (int) (offset % chunkSize);
+            int count = Math.min(length - copied, chunkSize - inChunk);
+            chunks[(int) (offset / chunkSize)].get(inChunk, copy, copied, count);
+            copied += count;
+        }
+        return copy;
+    }
+
+    boolean isRetained(long position) {
+        VarHandle.loadLoadFence();
+        return position >= 0 && next.get() - position <= capacity();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps user events in primitive columns instead of object graphs. Realm ids, client ids, IP addresses and detail keys
+ * are encoded with dictionaries, canonical UUID event ids are stored as two longs, and the remaining strings and the
+ * details are packed into records of a shared {@link ByteArena}. {@link Event} objects are only created when a slot is
+ * read.
+ */
+class CompactEventSlots implements EventRingBuffer.Slots<Event> {
+
+    private static final EventType[] TYPES = EventType.values();
+
+    private static final int ID_IN_RECORD = 1;
+    private static final int REALM_IN_RECORD = 1 << 1;
+    private static final int CLIENT_IN_RECORD = 1 << 2;
+    private static final int IP_ADDRESS_IN_RECORD = 1 << 3;
+
+    private final StringDictionary names;
+    private final StringDictionary ipAddresses;
+    private final ByteArena arena;
+    private final ThreadLocal<RecordWriter> writers = ThreadLocal.withInitial(RecordWriter::new);
+
+    private final long[] times;
+    private final long[] idHigh;
+    private final long[] idLow;
+    private final short[] types;
+    private final int[] realmIds;
+    private final int[] clientIds;
+    private final int[] ipAddressIds;
+    private final long[] records;
+    private final int[] recordLengths;
+
+    CompactEventSlots(int size, StringDictionary names, StringDictionary ipAddresses, ByteArena arena) {
+        this.names = names;
+        this.ipAddresses = ipAddresses;
+        this.arena = arena;
+        times = new long[size];
+        idHigh = new long[size];
+        idLow = new long[size];
+        types = new short[size];
+        realmIds = new int[size];
+        clientIds = new int[size];
+        ipAddressIds = new int[size];
+        records = new long[size];
+        recordLengths = new int[size];
+    }
+
+    @Override
+    public void write(int index, Event event) {
+        RecordWriter record = writers.get().reset();
+        int flags = 0;
+        if (!parseUuid(event.getId(), index)) {
+            flags |= ID_IN_RECORD;
+        }
+        int realm = names.encode(event.getRealmId());
+        if (realm == StringDictionary.NOT_ENCODED) {
+            flags |= REALM_IN_RECORD;
+        }
+        int client = names.encode(event.getClientId());
+        if (client == StringDictionary.NOT_ENCODED) {
+            flags |= CLIENT_IN_RECORD;
+        }
+        int ipAddress = ipAddresses.encode(event.getIpAddress());
+        if (ipAddress == StringDictionary.NOT_ENCODED) {
+            flags |= IP_ADDRESS_IN_RECORD;
+        }
+
+        record.writeByte(flags);
+        if ((flags & ID_IN_RECORD) != 0) {
+            record.writeString(event.getId());
+        }
+        if ((flags & REALM_IN_RECORD) != 0) {
+            record.writeString(event.getRealmId());
+        }
+        if ((flags & CLIENT_IN_RECORD) != 0) {
+            record.writeString(event.getClientId());
+        }
+        if ((flags & IP_ADDRESS_IN_RECORD) != 0) {
+            record.writeString(event.getIpAddress());
+        }
+        record.writeString(event.getUserId());
+        record.writeString(event.getSessionId());
+        record.writeString(event.getError());
+        writeDetails(record, event.getDetails());
+
+        times[index] = event.getTime();
+        types[index] = (short) (event.getType() == null ? 0 : event.getType().ordinal() + 1);
+        realmIds[index] = realm;
+        clientIds[index] = client;
+        ipAddressIds[index] = ipAddress;
+        long position = arena.append(record.buffer(), record.length());
+        records[index] = position;
+        recordLengths[index] = position < 0 ? -1 : record.length();
+    }
+
+    private void writeDetails(RecordWriter record, Map<String, String> details) {
+        if (details == null) {
+            record.writeVarInt(0);
+            return;
+        }
+        record.writeVarInt(details.size() + 1);
+        for (Map.Entry<String, String> detail : details.entrySet()) {
+            int key = names.encode(detail.getKey());
+            if (key == StringDictionary.NOT_ENCODED || key == StringDictionary.NULL) {
+                record.writeVarInt(0);
+                record.writeString(detail.getKey());
+            } else {
+                record.writeVarInt(key + 1);
+            }
+            record.writeString(detail.getValue());
+        }
+    }
+
+    @Override
+    public Event read(int index, long sequence, EventRingBuffer<Event> buffer) {
+        long time = times[index];
+        long high = idHigh[index];
+        long low = idLow[index];
+        int type = types[index];
+        int realm = realmIds[index];
+        int client = clientIds[index];
+        int ipAddress = ipAddressIds[index];
+        long position = records[index];
+        int length = recordLengths[index];
+        byte[] copy = length >= 0 && length <= arena.capacity() ? arena.copy(position, length) : null;
+        if (!buffer.isUnchanged(sequence) || copy == null || !arena.isRetained(position)) {
+            return null;
+        }
+
+        RecordReader record = new RecordReader(copy);
+        int flags = record.readByte();
+        Event event = new Event();
+        event.setTime(time);
+        event.setType(type == 0 ? null : TYPES[type - 1]);
+        event.setId((flags & ID_IN_RECORD) != 0 ? record.readString() : new UUID(high, low).toString());
+        event.setRealmId((flags & REALM_IN_RECORD) != 0 ? record.readString() : names.decode(realm));
+        event.setClientId((flags & CLIENT_IN_RECORD) != 0 ? record.readString() : names.decode(client));
+        event.setIpAddress((flags & IP_ADDRESS_IN_RECORD) != 0 ? record.readString() : ipAddresses.decode(ipAddress));
+        event.setUserId(record.readString());
+        event.setSessionId(record.readString());
+        event.setError(record.readString());
+        event.setDetails(readDetails(record));
+        return event;
+    }
+
+    private Map<String, String> readDetails(RecordReader record) {
+        int size = record.readVarInt() - 1;
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> details = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            int key = record.readVarInt();
+            details.put(key == 0 ? record.readString() : names.decode(key - 1), record.readString());
+        }
+        return details;
+    }
+
+    /**
+     * Parses a UUID in the canonical lower-case form that {@link UUID#toString()} produces into the id columns of the
+     * slot.
+     */
+    private boolean parseUuid(String value, int index) {
+        if (value == null || value.length() != 36) {
+            return false;
+        }
+        long high = 0;
+        long low = 0;
+        int digits = 0;
+        for (int i = 0; i < 36; i++) {
+            char c = value.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+                continue;
+            }
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return false;
+            }
+            if (digits++ < 16) {
+                high = (high << 4) | digit;
+            } else {
+                low = (low << 4) | digit;
+            }
+        }
+        idHigh[index] = high;
+        idLow[index] = low;
+        return true;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Rolling counters of the user events of the last minutes, maintained as the events are stored. Counts grouped by
+ * client, IP address or user, histograms and top offenders are computed from the counters, without looking at the
+ * events themselves. Every realm keeps one bucket per minute; a bucket is reused once its minute leaves the window.
+ * <p>
+ * The counters include events that were evicted by a quota. The number of groups per minute and dimension is bounded;
+ * events of further groups are counted under {@link #OTHER}. A group only keeps counters for the event types it had,
+ * as most clients, IP addresses and users only cause a few of them.
+ */
+public class EventAggregates implements EventRingBuffer.Indexer<Event> {
+
+    /**
+     * Group of the events that did not fit into the bounded number of groups.
+     */
+    public static final String OTHER = "(other)";
+
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static final EventType[] TYPES = EventType.values();
+
+    public enum Dimension {
+        CLIENT(Event::getClientId),
+        IP_ADDRESS(Event::getIpAddress),
+        USER(Event::getUserId);
+
+        private final Function<Event, String> value;
+
+        Dimension(Function<Event, String> value) {
+            this.value = value;
+        }
+    }
+
+    private final int minutes;
+    private final int maxGroups;
+    private final ConcurrentMap<String, AtomicReferenceArray<Bucket>> realms = new ConcurrentHashMap<>();
+
+    /**
+     * @param minutes number of minutes the counters cover
+     * @param maxGroups number of groups counted per minute and dimension
+     */
+    EventAggregates(int minutes, int maxGroups) {
+        this.minutes = minutes;
+        this.maxGroups = maxGroups;
+    }
+
+    @Override
+    public void link(long sequence, Event event) {
+        if (event.getRealmId() == null || event.getType() == null) {
+            return;
+        }
+        long minute = Math.floorDiv(event.getTime(), MINUTE_MILLIS);
+        Bucket bucket = bucket(realms.computeIfAbsent(event.getRealmId(), r -> new AtomicReferenceArray<>(minutes)),
+                minute);
+        if (bucket != null) {
+            bucket.count(event, maxGroups);
+        }
+    }
+
+    private Bucket bucket(AtomicReferenceArray<Bucket> buckets, long minute) {
+        int index = (int) Math.floorMod(minute, (long) minutes);
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.minute >= minute) {
+                return bucket.minute == minute ? bucket : null;
+            }
+            Bucket replacement = new Bucket(minute);
+            if (buckets.compareAndSet(index, bucket, replacement)) {
+                return replacement;
+            }
+        }
+    }
+
+    /**
+     * Forgets the counters of the realm, or of all realms if it is {@code null}.
+     */
+    void clear(String realmId) {
+        if (realmId == null) {
+            realms.clear();
+        } else {
+            realms.remove(realmId);
+        }
+    }
+
+    /**
+     * @return the number of events of the given types per group, between the given times
+     * @param types the event types to count, or {@code null} for all
+     */
+    public Map<String, Long> count(String realmId, Dimension by, Set<EventType> types, long from, long to) {
+        Map<String, Long> counts = new HashMap<>();
+        for (Bucket bucket : buckets(realmId, from, to)) {
+            bucket.groups.get(by).forEach((group, counters) -> {
+                long count = counters.sum(types);
+                if (count > 0) {
+                    counts.merge(group, count, Long::sum);
+                }
+            });
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of events of each type between the given times
+     */
+    public Map<EventType, Long> countByType(String realmId, long from, long to) {
+        Map<EventType, Long> counts = new EnumMap<>(EventType.class);
+        for (Bucket bucket : buckets(realmId, from, to)) {
+            for (int i = 0; i < TYPES.length; i++) {
+                long count = bucket.types.get(i);
+                if (count > 0) {
+                    counts.merge(TYPES[i], count, Long::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of events of the given types per minute between the given times, keyed by the start of the
+     * minute; minutes without events are included as far as the counters reach
+     * @param types the event types to count, or {@code null} for all
+     */
+    public SortedMap<Long, Long> histogram(String realmId, Set<EventType> types, long from, long to) {
+        SortedMap<Long, Long> histogram = new TreeMap<>();
+        List<Bucket> buckets = buckets(realmId, Long.MIN_VALUE, Long.MAX_VALUE);
+        if (buckets.isEmpty()) {
+            return histogram;
+        }
+        long newest = Long.MIN_VALUE;
+        for (Bucket bucket : buckets) {
+            newest = Math.max(newest, bucket.minute);
+        }
+        long first = Math.max(Math.floorDiv(from, MINUTE_MILLIS), newest - minutes + 1);
+        long last = Math.min(Math.floorDiv(to, MINUTE_MILLIS), newest);
+        for (long minute = first; minute <= last; minute++) {
+            histogram.put(minute * MINUTE_MILLIS, 0L);
+        }
+        for (Bucket bucket : buckets) {
+            if (bucket.minute >= first && bucket.minute <= last) {
+                histogram.put(bucket.minute * MINUTE_MILLIS, sum(bucket.types, types));
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the groups with the most events of the given types between the given times, most events first
+     * @param types the event types to count, or {@code null} for all
+     */
+    public List<Map.Entry<String, Long>> top(String realmId, Dimension by, Set<EventType> types, long from, long to,
+            int n) {
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+        PriorityQueue<Map.Entry<String, Long>> top = new PriorityQueue<>(n + 1, Map.Entry.comparingByValue());
+        for (Map.Entry<String, Long> group : count(realmId, by, types, from, to).entrySet()) {
+            top.add(group);
+            if (top.size() > n) {
+                top.poll();
+            }
+        }
+        List<Map.Entry<String, Long>> result = new ArrayList<>(top);
+        result.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return result;
+    }
+
+    private List<Bucket> buckets(String realmId, long from, long to) {
+        AtomicReferenceArray<Bucket> buckets = realms.get(realmId);
+        if (buckets == null) {
+            return Collections.emptyList();
+        }
+        long first = Math.floorDiv(from, MINUTE_MILLIS);
+        long last = Math.floorDiv(to, MINUTE_MILLIS);
+        List<Bucket> result = new ArrayList<>();
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.minute >= first && bucket.minute <= last) {
+                result.add(bucket);
+            }
+        }
+        return result;
+    }
+
+    private static long sum(AtomicLongArray counters, Set<EventType> types) {
+        long sum = 0;
+        if (types == null) {
+            for (int i = 0; i < counters.length(); i++) {
+                sum += counters.get(i);
+            }
+        } else {
+            for (EventType type : types) {
+                sum += counters.get(type.ordinal());
+            }
+        }
+        return sum;
+    }
+
+    private static class Bucket {
+
+        private final long minute;
+        private final AtomicLongArray types = new AtomicLongArray(TYPES.length);
+        private final Map<Dimension, ConcurrentMap<String, TypeCounts>> groups = new EnumMap<>(Dimension.class);
+
+        private Bucket(long minute) {
+            this.minute = minute;
+            for (Dimension dimension : Dimension.values()) {
+                groups.put(dimension, new ConcurrentHashMap<>());
+            }
+        }
+
+        private void count(Event event, int maxGroups) {
+            int type = event.getType().ordinal();
+            types.incrementAndGet(type);
+            for (Map.Entry<Dimension, ConcurrentMap<String, TypeCounts>> dimension : groups.entrySet()) {
+                String group = dimension.getKey().value.apply(event);
+                if (group == null) {
+                    continue;
+                }
+                ConcurrentMap<String, TypeCounts> counters = dimension.getValue();
+                TypeCounts counter = counters.get(group);
+                if (counter == null) {
+                    if (counters.size() >= maxGroups) {
+                        group = OTHER;
+                    }
+                    counter = counters.computeIfAbsent(group, g -> new TypeCounts());
+                }
+                counter.increment(type);
+            }
+        }
+    }
+
+    /**
+     * Counts per event type of one group, holding only the types that occurred, in the order they first occurred.
+     */
+    private static class TypeCounts {
+
+        private short[] types = new short[1];
+        private long[] counts = new long[1];
+        private int size;
+
+        private synchronized void increment(int type) {
+            for (int i = 0; i < size; i++) {
+                if (types[i] == type) {
+                    counts[i]++;
+                    return;
+                }
+            }
+            if (size == types.length) {
+                types = Arrays.copyOf(types, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            types[size] = (short) type;
+            counts[size++] = 1;
+        }
+
+        private synchronized long sum(Set<EventType> included) {
+            long sum = 0;
+            for (int i = 0; i < size; i++) {
+                if (included == null || included.contains(TYPES[types[i]])) {
+                    sum += counts[i];
+                }
+            }
+            return sum;
+        }
+    }
+}
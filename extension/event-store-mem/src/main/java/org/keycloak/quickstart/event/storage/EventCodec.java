@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+/**
+ * Binary encoding of events of one kind.
+ */
+interface EventCodec<T> {
+
+    void write(T event, RecordWriter record);
+
+    /**
+     * @throws RuntimeException if the record cannot be decoded, for example because it names an event type this
+     * version of Keycloak does not know. Unknown types are only resolved once the whole record is read, so the reader
+     * is then positioned at the next record.
+     */
+    T read(RecordReader record);
+}
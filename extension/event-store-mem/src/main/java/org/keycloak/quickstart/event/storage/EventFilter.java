@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which events are stored. The options are compiled once into lookup tables, so that deciding about an event
+ * neither allocates nor boxes: everything that depends on the event type, including sampling, is a single array
+ * lookup by the ordinal of the type, and excluded admin operations are a bit mask. Realm, client and error lists are
+ * only consulted when configured.
+ */
+class EventFilter {
+
+    private static final int ALWAYS = 1 << 24;
+
+    /**
+     * Out of {@link #ALWAYS}, the share of the events of each type that is kept.
+     */
+    private final int[] types = new int[EventType.values().length];
+    private final long excludedOperations;
+    private final Set<String> includedRealms;
+    private final Set<String> excludedRealms;
+    private final Set<String> includedClients;
+    private final Set<String> excludedClients;
+    private final Set<String> includedErrors;
+    private final Set<String> excludedErrors;
+
+    EventFilter(Config.Scope config) {
+        String[] included = config.getArray("include-events");
+        if (included == null) {
+            Arrays.fill(types, ALWAYS);
+        } else {
+            for (String type : included) {
+                types[EventType.valueOf(type.trim()).ordinal()] = ALWAYS;
+            }
+        }
+        String[] excluded = config.getArray("exclude-events");
+        if (excluded != null) {
+            for (String type : excluded) {
+                types[EventType.valueOf(type.trim()).ordinal()] = 0;
+            }
+        }
+        String[] rates = config.getArray("sample-rates");
+        if (rates != null) {
+            for (String rate : rates) {
+                int colon = rate.lastIndexOf(':');
+                if (colon == -1) {
+                    throw new IllegalArgumentException("Sample rate must have the form type:rate: " + rate);
+                }
+                int ordinal = EventType.valueOf(rate.substring(0, colon).trim()).ordinal();
+                double share = Double.parseDouble(rate.substring(colon + 1).trim());
+                if (share < 0 || share > 1) {
+                    throw new IllegalArgumentException("Sample rate must be between 0 and 1: " + rate);
+                }
+                types[ordinal] = (int) Math.min(types[ordinal], Math.round(share * ALWAYS));
+            }
+        }
+
+        long operations = 0;
+        String excludesOperations = config.get("excludesOperations");
+        if (excludesOperations != null) {
+            for (String operation : excludesOperations.split(",")) {
+                operations |= 1L << OperationType.valueOf(operation.trim()).ordinal();
+            }
+        }
+        excludedOperations = operations;
+
+        includedRealms = set(config.getArray("include-realms"));
+        excludedRealms = set(config.getArray("exclude-realms"));
+        includedClients = set(config.getArray("include-clients"));
+        excludedClients = set(config.getArray("exclude-clients"));
+        includedErrors = set(config.getArray("include-errors"));
+        excludedErrors = set(config.getArray("exclude-errors"));
+    }
+
+    private static Set<String> set(String[] values) {
+        if (values == null) {
+            return null;
+        }
+        Set<String> set = new HashSet<>();
+        for (String value : values) {
+            set.add(value.trim());
+        }
+        return set;
+    }
+
+    private static boolean matches(String value, Set<String> included, Set<String> excluded) {
+        return (included == null || (value != null && included.contains(value)))
+                && (excluded == null || value == null || !excluded.contains(value));
+    }
+
+    boolean test(Event event) {
+        if (event.getType() != null) {
+            int share = types[event.getType().ordinal()];
+            if (share < ALWAYS && (share == 0 || ThreadLocalRandom.current().nextInt(ALWAYS) >= share)) {
+                return false;
+            }
+        }
+        return matches(event.getRealmId(), includedRealms, excludedRealms)
+                && matches(event.getClientId(), includedClients, excludedClients)
+                && matches(event.getError(), includedErrors, excludedErrors);
+    }
+
+    boolean test(AdminEvent event) {
+        if (event.getOperationType() != null && (excludedOperations & 1L << event.getOperationType().ordinal()) != 0) {
+            return false;
+        }
+        return matches(event.getRealmId(), includedRealms, excludedRealms);
+    }
+}
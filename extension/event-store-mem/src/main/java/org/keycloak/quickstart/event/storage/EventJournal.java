@@ -0,0 +1,397 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of the events of an {@link IndexedEventLog}, kept in memory-mapped segment files so that the
+ * events survive a restart. Writers claim their region of the current segment with an atomic increment and copy the
+ * record into the mapping; a new segment is created when the current one is full. Segments are deleted once enough
+ * newer records exist to fill the log.
+ * <p>
+ * A segment starts with a magic number followed by records of the form {@code length, type, payload, crc}, where the
+ * CRC covers the type and the payload. Replaying a segment stops at the first record that was not written completely.
+ * <p>
+ * Concurrent writers reach the journal in a slightly different order than they got their sequences, so the oldest
+ * events restored after a restart may differ by a few from the ones the log held before.
+ * <p>
+ * Segment files are created at their full size and stay mapped until they are deleted. Records written to the mapping
+ * survive a crash of the JVM, but only the records forced to disk survive a crash of the operating system. Segments are
+ * forced when they are full, when the journal is closed and, if a force interval is given, periodically in between.
+ */
+class EventJournal<T> {
+
+    private static final Logger logger = Logger.getLogger(EventJournal.class);
+
+    /**
+     * Identifies the format of a segment; segments of an older format are skipped on replay.
+     */
+    private static final int MAGIC = 0x4B434A32;
+    private static final int HEADER_BYTES = 4;
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4;
+
+    private static final byte EVENT = 1;
+    private static final byte CLEAR = 2;
+    private static final byte EXPIRE = 3;
+
+    private final Path directory;
+    private final EventCodec<T> codec;
+    private final int segmentBytes;
+    private final long forceInterval;
+    private final ThreadLocal<RecordWriter> writers = ThreadLocal.withInitial(RecordWriter::new);
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    /**
+     * Adding and appending events shares the lock, clearing events takes it exclusively.
+     */
+    private final ReadWriteLock appends = new ReentrantReadWriteLock();
+    private volatile Segment current;
+    private long retainedRecords;
+    private Thread forcer;
+
+    /**
+     * @param forceInterval milliseconds between forcing the current segment to disk, zero to force it only when it is
+     * full or the journal is closed
+     */
+    EventJournal(Path directory, EventCodec<T> codec, int segmentBytes, long forceInterval) {
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentBytes = segmentBytes;
+        this.forceInterval = forceInterval;
+    }
+
+    /**
+     * Replays the existing segments into the log and opens a new segment for appending. Must be called before the log
+     * starts journaling.
+     */
+    synchronized void open(IndexedEventLog<T> log) {
+        retainedRecords = log.events.capacity();
+        long next = 0;
+        try {
+            Files.createDirectories(directory);
+            for (Path file : existingSegments()) {
+                long index = Long.parseLong(file.getFileName().toString().replace(".log", ""));
+                Segment segment = new Segment(file, index, replay(file, log));
+                segments.addLast(segment);
+                next = index + 1;
+            }
+            roll(next);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open event journal in " + directory, e);
+        }
+        if (forceInterval > 0) {
+            forcer = new Thread(this::force, "in-mem-event-journal-" + directory.getFileName());
+            forcer.setDaemon(true);
+            forcer.start();
+        }
+    }
+
+    private void force() {
+        while (true) {
+            try {
+                Thread.sleep(forceInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Segment segment = current;
+            try {
+                segment.buffer.force();
+            } catch (UncheckedIOException e) {
+                logger.warnf(e, "Failed to force event journal segment %s", segment.file);
+            }
+        }
+    }
+
+    private List<Path> existingSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().matches("\\d{20}\\.log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private int replay(Path file, IndexedEventLog<T> log) throws IOException {
+        int records = 0;
+        int skipped = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+                logger.warnf("Skipping event journal segment %s with unknown format", file);
+                return 0;
+            }
+            while (buffer.remaining() >= RECORD_OVERHEAD) {
+                int length = buffer.getInt(buffer.position());
+                if (length <= 0 || length > buffer.remaining() - RECORD_OVERHEAD) {
+                    break;
+                }
+                byte[] record = new byte[1 + length];
+                buffer.get(buffer.position() + 4, record);
+                CRC32C crc = new CRC32C();
+                crc.update(record);
+                if ((int) crc.getValue() != buffer.getInt(buffer.position() + 4 + record.length)) {
+                    logger.warnf("Event journal segment %s is truncated at position %d", file, buffer.position());
+                    break;
+                }
+                buffer.position(buffer.position() + RECORD_OVERHEAD + length);
+                try {
+                    apply(record, log);
+                } catch (RuntimeException e) {
+                    // For example an event type that no longer exists after an upgrade
+                    if (skipped++ == 0) {
+                        logger.warnf(e, "Skipping event journal record that cannot be decoded in %s", file);
+                    }
+                }
+                records++;
+            }
+        }
+        if (skipped > 0) {
+            logger.warnf("Skipped %d records that could not be decoded in event journal segment %s", skipped, file);
+        }
+        return records;
+    }
+
+    private void apply(byte[] record, IndexedEventLog<T> log) {
+        RecordReader reader = new RecordReader(record);
+        switch (reader.readByte()) {
+            case EVENT:
+                log.add(codec.read(reader));
+                break;
+            case CLEAR:
+                log.clear(reader.readString());
+                break;
+            case EXPIRE:
+                log.expire(reader.readString(), reader.readLong());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Adds the event to the ring buffer and appends it to the journal.
+     *
+     * @return the sequence assigned to the event
+     */
+    long append(T event, EventRingBuffer<T> events) {
+        RecordWriter record = writers.get().reset();
+        record.writeByte(EVENT);
+        codec.write(event, record);
+        Lock lock = appends.readLock();
+        lock.lock();
+        try {
+            long sequence = events.add(event);
+            append(record);
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clears the events while no event is being added, so every event added before is cleared both in memory and on
+     * replay, and every event added after is kept in both.
+     *
+     * @param realmId the cleared realm, or {@code null} if all events are cleared, in which case the existing segments
+     * are deleted
+     * @param clear hides the cleared events in memory
+     */
+    void appendClear(String realmId, Runnable clear) {
+        RecordWriter record = writers.get().reset();
+        record.writeByte(CLEAR);
+        record.writeString(realmId);
+        Lock lock = appends.writeLock();
+        lock.lock();
+        try {
+            clear.run();
+            if (realmId == null) {
+                discard();
+            }
+            append(record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void appendExpire(String realmId, long olderThan) {
+        RecordWriter record = writers.get().reset();
+        record.writeByte(EXPIRE);
+        record.writeString(realmId);
+        record.writeLong(olderThan);
+        Lock lock = appends.readLock();
+        lock.lock();
+        try {
+            append(record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(RecordWriter record) {
+        int size = RECORD_OVERHEAD + record.length() - 1;
+        if (HEADER_BYTES + size > segmentBytes) {
+            logger.warnf("Event of %d bytes does not fit into an event journal segment and is not journaled", size);
+            return;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(record.buffer(), 0, record.length());
+        while (true) {
+            Segment segment = current;
+            int position = segment.claim(size);
+            if (position >= 0) {
+                segment.write(position, record, (int) crc.getValue());
+                return;
+            }
+            synchronized (this) {
+                if (segment == current) {
+                    try {
+                        roll(segment.index + 1);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to create event journal segment", e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void roll(long index) throws IOException {
+        Segment previous = current;
+        if (previous != null) {
+            previous.buffer.force();
+        }
+        Path file = directory.resolve(String.format("%020d.log", index));
+        Segment segment = new Segment(file, index, 0);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            segment.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        segment.buffer.putInt(0, MAGIC);
+        segments.addLast(segment);
+        current = segment;
+        deleteObsoleteSegments();
+    }
+
+    /**
+     * Replaces all segments with a new one. Called with the append lock held exclusively, so no append is still
+     * writing to the deleted segments.
+     */
+    private synchronized void discard() {
+        try {
+            roll(current.index + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create event journal segment", e);
+        }
+        while (segments.size() > 1) {
+            delete(segments.removeFirst());
+        }
+    }
+
+    private void deleteObsoleteSegments() {
+        long newer = 0;
+        List<Segment> obsolete = new ArrayList<>();
+        for (var it = segments.descendingIterator(); it.hasNext(); ) {
+            Segment segment = it.next();
+            if (newer >= retainedRecords) {
+                obsolete.add(segment);
+            }
+            newer += segment.records.get();
+        }
+        for (Segment segment : obsolete) {
+            segments.remove(segment);
+            delete(segment);
+        }
+    }
+
+    private void delete(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            logger.warnf(e, "Failed to delete event journal segment %s", segment.file);
+        }
+    }
+
+    void close() {
+        Thread forcer = this.forcer;
+        if (forcer != null) {
+            forcer.interrupt();
+            try {
+                forcer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (current != null) {
+                current.buffer.force();
+            }
+        }
+    }
+
+    private class Segment {
+
+        private final Path file;
+        private final long index;
+        private final AtomicInteger records;
+        private final AtomicLong next = new AtomicLong(HEADER_BYTES);
+        private MappedByteBuffer buffer;
+
+        private Segment(Path file, long index, int records) {
+            this.file = file;
+            this.index = index;
+            this.records = new AtomicInteger(records);
+        }
+
+        /**
+         * @return position of the claimed region, or {@code -1} if the segment is full
+         */
+        private int claim(int size) {
+            long position = next.getAndAdd(size);
+            return position + size <= segmentBytes ? (int) position : -1;
+        }
+
+        private void write(int position, RecordWriter record, int crc) {
+            ByteBuffer target = buffer;
+            int length = record.length() - 1;
+            target.put(position + 4, record.buffer(), 0, record.length());
+            target.putInt(position + 4 + record.length(), crc);
+            // The length goes last, so that replay never sees a length without the record behind it
+            target.putInt(position, length);
+            records.incrementAndGet();
+        }
+    }
+}
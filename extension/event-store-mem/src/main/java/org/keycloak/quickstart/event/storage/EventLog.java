@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.keycloak.events.Event;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * User events together with the indexes maintained for them. IP addresses have too many distinct values to index
+ * every one of them, so the time segments only keep a filter of them.
+ */
+class EventLog extends IndexedEventLog<Event> {
+
+    final SequenceIndex<Event> users;
+    final SequenceIndex<Event> clients;
+    final SequenceIndex<Event> types;
+    final TimeSegments.Sketch<Event> ipAddresses;
+
+    /**
+     * Indexes by the values of the configured detail keys.
+     */
+    final Map<String, SequenceIndex<Event>> details = new LinkedHashMap<>();
+    private volatile EventAggregates aggregates;
+
+    EventLog(int capacity, IntFunction<EventRingBuffer.Slots<Event>> slots) {
+        super(capacity, slots, Event::getRealmId, Event::getTime);
+        users = index(Event::getUserId);
+        clients = index(Event::getClientId);
+        types = index(Event::getType);
+        ipAddresses = segments.sketch(Event::getIpAddress);
+    }
+
+    /**
+     * Indexes the events by the value of a detail from now on. Must be called before the first event is added.
+     */
+    void indexDetail(String key) {
+        details.computeIfAbsent(key, k -> index(e -> detail(e, k)));
+    }
+
+    @Override
+    EventLog partition(int capacity) {
+        EventLog partition = new EventLog(capacity, slots);
+        details.keySet().forEach(partition::indexDetail);
+        return partition;
+    }
+
+    /**
+     * Counts the event in the rolling counters, whether it is kept in this log or in a partition. Partitions do not
+     * count their events, as the events of a partition are added again when it is replaced by a larger one.
+     */
+    @Override
+    long add(Event event) {
+        long sequence = super.add(event);
+        EventAggregates aggregates = this.aggregates;
+        if (aggregates != null) {
+            aggregates.link(sequence, event);
+        }
+        return sequence;
+    }
+
+    static String detail(Event event, String key) {
+        return event.getDetails() != null ? event.getDetails().get(key) : null;
+    }
+
+    /**
+     * Maintains rolling counters of the events from now on. Must be called before the first event is added.
+     */
+    void aggregate(int minutes, int maxGroups) {
+        aggregates = new EventAggregates(minutes, maxGroups);
+    }
+
+    /**
+     * @return the rolling counters, or {@code null} if they are not maintained
+     */
+    EventAggregates aggregates() {
+        return aggregates;
+    }
+
+    @Override
+    void clear(String realmId) {
+        super.clear(realmId);
+        EventAggregates aggregates = this.aggregates;
+        if (aggregates != null) {
+            aggregates.clear(realmId);
+        }
+    }
+}
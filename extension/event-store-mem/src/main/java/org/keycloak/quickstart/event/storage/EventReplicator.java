@@ -0,0 +1,498 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.jboss.logging.Logger;
+import org.keycloak.events.Event;
+import org.keycloak.events.admin.AdminEvent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Replicates the events and clears of one node to the other nodes of a cluster, so that every node can answer queries
+ * with the complete history. Changes are queued and a single sender thread encodes them in batches, compresses every
+ * batch once and writes it to a TCP connection per member. Received batches are applied to the local logs without
+ * being replicated again.
+ * <p>
+ * A batch is framed as {@code uncompressed length, compressed length, deflated records, signature} and holds at most
+ * {@value #MAX_BATCH_BYTES} bytes of records; larger batches are split by the sender. Members that cannot be reached
+ * miss the batches sent in the meantime, there is no resynchronization; the sender reconnects with the next batch.
+ * <p>
+ * All nodes share a secret. A receiving node sends a random challenge to every new connection and expects the HMAC of
+ * the challenge back within {@value #CONNECT_TIMEOUT_MILLIS} ms before it reads any batch, so nodes that do not know
+ * the secret cannot make it buffer batches. Every batch is in addition signed with an HMAC over the challenge, the
+ * number of the batch on the connection and the framed batch. Connections with an invalid signature are closed without
+ * applying the batch, so that only nodes knowing the secret can add or clear events, and recorded batches cannot be
+ * replayed. The number of connections a node receives at once is bounded. The batches themselves are not encrypted.
+ * <p>
+ * Changes that cannot be decoded, such as events of a type only known to a newer member, are skipped.
+ */
+class EventReplicator {
+
+    private static final Logger logger = Logger.getLogger(EventReplicator.class);
+
+    static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+    /**
+     * Upper bound of the size of a deflated batch, which is slightly larger than the records if they do not compress.
+     */
+    private static final int MAX_COMPRESSED_BYTES = MAX_BATCH_BYTES + MAX_BATCH_BYTES / 256 + 64;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_INTERVAL_MILLIS = 5000;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int CHALLENGE_BYTES = 16;
+    private static final int SIGNATURE_BYTES = 32;
+    private static final byte[] HANDSHAKE = "in-mem-event-replication".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte EVENT = 1;
+    private static final byte ADMIN_EVENT = 2;
+    private static final byte CLEAR = 3;
+    private static final byte CLEAR_ADMIN = 4;
+    private static final byte EXPIRE = 5;
+    private static final byte EXPIRE_ADMIN = 6;
+
+    private final EventLog events;
+    private final AdminEventLog adminEvents;
+    private final BlockingQueue<Object> queue;
+    private final int batchSize;
+    private final SecretKeySpec secret;
+    private final SecureRandom random = new SecureRandom();
+    private final List<Member> members = new ArrayList<>();
+    private final ServerSocket server;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final int maxConnections;
+    private final Thread sender;
+    private final Thread acceptor;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    /**
+     * Buffer of the deflated batches, only used by the sender thread.
+     */
+    private byte[] compressed = new byte[4096];
+    private volatile boolean closed;
+
+    EventReplicator(EventLog events, AdminEventLog adminEvents, InetSocketAddress bind,
+            List<InetSocketAddress> members, String secret, int queueSize, int batchSize) {
+        this.events = events;
+        this.adminEvents = adminEvents;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        mac(this.secret);
+        for (InetSocketAddress address : members) {
+            this.members.add(new Member(address));
+        }
+        // Room for a second connection per member, as a restarted member may connect before its old connection is gone
+        this.maxConnections = Math.max(4, 2 * members.size());
+        try {
+            this.server = new ServerSocket();
+            this.server.bind(bind);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot listen for replicated events on " + bind, e);
+        }
+        this.acceptor = start("in-mem-event-replication-acceptor", this::accept);
+        this.sender = start("in-mem-event-replication-sender", this::send);
+    }
+
+    private static Mac mac(SecretKeySpec secret) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign replicated events with " + MAC_ALGORITHM, e);
+        }
+    }
+
+    /**
+     * Computes the response to the challenge of a new connection.
+     */
+    static byte[] handshake(Mac mac, byte[] challenge) {
+        mac.update(HANDSHAKE);
+        mac.update(challenge);
+        return mac.doFinal();
+    }
+
+    /**
+     * Computes the signature of a batch sent on a connection.
+     */
+    static byte[] sign(Mac mac, byte[] challenge, long batch, int length, byte[] compressed, int compressedLength) {
+        mac.update(challenge);
+        mac.update(ByteBuffer.allocate(16).putLong(batch).putInt(length).putInt(compressedLength).array());
+        mac.update(compressed, 0, compressedLength);
+        return mac.doFinal();
+    }
+
+    private static Thread start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    void replicate(Event event) {
+        enqueue(event);
+    }
+
+    void replicate(AdminEvent event) {
+        enqueue(event);
+    }
+
+    void clear(String realmId, boolean admin) {
+        enqueue(new Operation(admin ? CLEAR_ADMIN : CLEAR, realmId, 0));
+    }
+
+    void expire(String realmId, long olderThan, boolean admin) {
+        enqueue(new Operation(admin ? EXPIRE_ADMIN : EXPIRE, realmId, olderThan));
+    }
+
+    private void enqueue(Object change) {
+        if (closed || !queue.offer(change)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sends the queued changes and stops replicating.
+     */
+    void close() {
+        closed = true;
+        sender.interrupt();
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close the replication socket", e);
+        }
+        for (Socket connection : connections) {
+            closeQuietly(connection);
+        }
+        for (Member member : members) {
+            member.disconnect();
+        }
+        if (dropped.get() > 0) {
+            logger.warnf("Replication dropped %d changes because its queue was full", dropped.get());
+        }
+        if (skipped.get() > 0) {
+            logger.warnf("Replication skipped %d received changes that could not be decoded", skipped.get());
+        }
+    }
+
+    private void send() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        RecordWriter record = new RecordWriter();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        Mac mac = mac(secret);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Object first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                // Woken up by close(), the remaining changes are sent before the thread ends
+            }
+            queue.drainTo(batch, batchSize - batch.size());
+            if (batch.isEmpty()) {
+                continue;
+            }
+
+            send(batch, record, deflater, mac);
+            batch.clear();
+        }
+        deflater.end();
+    }
+
+    private void send(List<Object> batch, RecordWriter record, Deflater deflater, Mac mac) {
+        encode(batch, record.reset());
+        if (record.length() > MAX_BATCH_BYTES) {
+            if (batch.size() == 1) {
+                logger.warnf("Not replicating a change of %d bytes, batches are limited to %d bytes", record.length(),
+                        MAX_BATCH_BYTES);
+                dropped.incrementAndGet();
+                return;
+            }
+            int half = batch.size() / 2;
+            send(batch.subList(0, half), record, deflater, mac);
+            send(batch.subList(half, batch.size()), record, deflater, mac);
+            return;
+        }
+        deflater.reset();
+        deflater.setInput(record.buffer(), 0, record.length());
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        for (Member member : members) {
+            member.send(record.length(), compressed, length, mac);
+        }
+    }
+
+    private static void encode(List<Object> batch, RecordWriter record) {
+        record.writeVarInt(batch.size());
+        for (Object change : batch) {
+            if (change instanceof Event) {
+                record.writeByte(EVENT);
+                UserEventCodec.INSTANCE.write((Event) change, record);
+            } else if (change instanceof AdminEvent) {
+                record.writeByte(ADMIN_EVENT);
+                AdminEventCodec.INSTANCE.write((AdminEvent) change, record);
+            } else {
+                Operation operation = (Operation) change;
+                record.writeByte(operation.type);
+                record.writeString(operation.realmId);
+                record.writeLong(operation.olderThan);
+            }
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket connection = server.accept();
+                if (connections.size() >= maxConnections) {
+                    logger.debugf("Refusing replication connection from %s, %d connections are open",
+                            connection.getRemoteSocketAddress(), connections.size());
+                    closeQuietly(connection);
+                    continue;
+                }
+                connections.add(connection);
+                start("in-mem-event-replication-receiver", () -> receive(connection));
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.warn("Failed to accept a replication connection", e);
+                }
+            }
+        }
+    }
+
+    private void receive(Socket connection) {
+        Inflater inflater = new Inflater();
+        Mac mac = mac(secret);
+        byte[] challenge = new byte[CHALLENGE_BYTES];
+        random.nextBytes(challenge);
+        byte[] signature = new byte[SIGNATURE_BYTES];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+            connection.getOutputStream().write(challenge);
+            connection.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            in.readFully(signature);
+            if (!MessageDigest.isEqual(signature, handshake(mac, challenge))) {
+                throw new IOException("Invalid response to the challenge");
+            }
+            connection.setSoTimeout(0);
+            for (long batches = 0; !closed; batches++) {
+                int length = in.readInt();
+                int compressedLength = in.readInt();
+                if (length < 0 || length > MAX_BATCH_BYTES || compressedLength < 0
+                        || compressedLength > MAX_COMPRESSED_BYTES) {
+                    throw new IOException("Invalid batch size " + length + "/" + compressedLength);
+                }
+                byte[] compressed = new byte[compressedLength];
+                in.readFully(compressed);
+                in.readFully(signature);
+                if (!MessageDigest.isEqual(signature, sign(mac, challenge, batches, length, compressed, compressedLength))) {
+                    throw new IOException("Batch with an invalid signature");
+                }
+                byte[] batch = new byte[length];
+                inflater.reset();
+                inflater.setInput(compressed);
+                if (inflater.inflate(batch) != length) {
+                    throw new IOException("Truncated batch");
+                }
+                apply(new RecordReader(batch));
+            }
+        } catch (EOFException e) {
+            logger.debugf("Replication connection from %s closed", connection.getRemoteSocketAddress());
+        } catch (IOException | DataFormatException | RuntimeException e) {
+            if (!closed) {
+                logger.warnf(e, "Replication connection from %s failed", connection.getRemoteSocketAddress());
+            }
+        } finally {
+            inflater.end();
+            connections.remove(connection);
+            closeQuietly(connection);
+        }
+    }
+
+    private void apply(RecordReader record) {
+        int count = record.readVarInt();
+        for (int i = 0; i < count; i++) {
+            byte type = (byte) record.readByte();
+            switch (type) {
+                case EVENT:
+                    Event event = decode(UserEventCodec.INSTANCE, record);
+                    if (event != null) {
+                        events.add(event);
+                    }
+                    break;
+                case ADMIN_EVENT:
+                    AdminEvent adminEvent = decode(AdminEventCodec.INSTANCE, record);
+                    if (adminEvent != null) {
+                        adminEvents.add(adminEvent);
+                    }
+                    break;
+                default:
+                    String realmId = record.readString();
+                    long olderThan = record.readLong();
+                    IndexedEventLog<?> log = type == CLEAR || type == EXPIRE ? events : adminEvents;
+                    if (type == CLEAR || type == CLEAR_ADMIN) {
+                        log.clear(realmId);
+                    } else {
+                        log.expire(realmId, olderThan);
+                    }
+            }
+        }
+    }
+
+    /**
+     * @return the decoded event, or {@code null} if it has a type this node does not know
+     */
+    private <T> T decode(EventCodec<T> codec, RecordReader record) {
+        try {
+            return codec.read(record);
+        } catch (IllegalArgumentException e) {
+            if (skipped.getAndIncrement() == 0) {
+                logger.warn("Skipping a replicated event that cannot be decoded, further ones are only counted", e);
+            }
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close a replication connection", e);
+        }
+    }
+
+    private static class Operation {
+
+        private final byte type;
+        private final String realmId;
+        private final long olderThan;
+
+        private Operation(byte type, String realmId, long olderThan) {
+            this.type = type;
+            this.realmId = realmId;
+            this.olderThan = olderThan;
+        }
+    }
+
+    /**
+     * Connection to another node, only used by the sender thread.
+     */
+    private static class Member {
+
+        private final InetSocketAddress address;
+        private final byte[] challenge = new byte[CHALLENGE_BYTES];
+        private Socket socket;
+        private DataOutputStream out;
+        private long batches;
+        private long retryAt;
+
+        private Member(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        private void send(int length, byte[] compressed, int compressedLength, Mac mac) {
+            if (socket == null && !connect(mac)) {
+                return;
+            }
+            try {
+                out.writeInt(length);
+                out.writeInt(compressedLength);
+                out.write(compressed, 0, compressedLength);
+                out.write(sign(mac, challenge, batches++, length, compressed, compressedLength));
+                out.flush();
+            } catch (IOException e) {
+                logger.warnf(e, "Failed to replicate events to %s", address);
+                disconnect();
+            }
+        }
+
+        private boolean connect(Mac mac) {
+            long now = System.currentTimeMillis();
+            if (now < retryAt) {
+                return false;
+            }
+            Socket connecting = new Socket();
+            try {
+                connecting.setTcpNoDelay(true);
+                connecting.connect(address, CONNECT_TIMEOUT_MILLIS);
+                connecting.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+                new DataInputStream(connecting.getInputStream()).readFully(challenge);
+                connecting.setSoTimeout(0);
+                out = new DataOutputStream(new BufferedOutputStream(connecting.getOutputStream()));
+                out.write(handshake(mac, challenge));
+                socket = connecting;
+                batches = 0;
+                return true;
+            } catch (IOException e) {
+                closeQuietly(connecting);
+                logger.warnf("Cannot connect to cluster member %s, retrying in %d ms", address, RECONNECT_INTERVAL_MILLIS);
+                retryAt = now + RECONNECT_INTERVAL_MILLIS;
+                return false;
+            }
+        }
+
+        private void disconnect() {
+            if (socket != null) {
+                closeQuietly(socket);
+                socket = null;
+                out = null;
+            }
+        }
+    }
+}
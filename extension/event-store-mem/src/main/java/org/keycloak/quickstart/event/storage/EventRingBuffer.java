@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Bounded, lock-free event log. Every added event gets a monotonically increasing sequence number and is written to
+ * the slot {@code sequence % capacity}, overwriting the oldest event once the buffer is full.
+ * <p>
+ * Each slot carries the sequence of the event it holds. A writer marks the slot as being written before storing the
+ * event and publishes the new sequence afterwards, so a reader that sees the same sequence before and after reading
+ * the event knows it was not overwritten in between. A writer that falls behind by a whole lap finds a newer sequence
+ * in its slot and drops its event, as it would have been overwritten anyway. How the event itself is kept in the slot
+ * is up to the {@link Slots} implementation.
+ */
+class EventRingBuffer<T> {
+
+    private static final long FREE = -2;
+    private static final long WRITING = -1;
+
+    /**
+     * Structure maintained by {@link #add(Object)} after the event is stored in its slot and before the slot is
+     * published.
+     */
+    interface Indexer<T> {
+        void link(long sequence, T event);
+    }
+
+    /**
+     * Storage of the slot contents.
+     */
+    interface Slots<T> {
+
+        void write(int index, T event);
+
+        /**
+         * Reads a slot that may be overwritten concurrently. Implementations copy the raw content of the slot, then
+         * check {@link EventRingBuffer#isUnchanged(long)} and decode the copy only if it returns {@code true}.
+         *
+         * @return the event, or {@code null} if the slot was overwritten
+         */
+        T read(int index, long sequence, EventRingBuffer<T> buffer);
+    }
+
+    /**
+     * Decides whether a stored event is returned by queries.
+     */
+    interface Visibility<T> {
+        boolean isVisible(long sequence, T event);
+    }
+
+    private final int capacity;
+    private final Slots<T> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong next = new AtomicLong();
+    private final List<Indexer<T>> indexers = new CopyOnWriteArrayList<>();
+
+    EventRingBuffer(int capacity, IntFunction<Slots<T>> slots) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = slots.apply(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, FREE);
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    /**
+     * Registers a structure to be maintained by {@link #add(Object)}. Indexers must be registered before the first
+     * event is added.
+     */
+    <I extends Indexer<T>> I register(I indexer) {
+        indexers.add(indexer);
+        return indexer;
+    }
+
+    SequenceIndex<T> index(Function<T, ?> key) {
+        return register(new SequenceIndex<>(this, key));
+    }
+
+    /**
+     * @return the sequence assigned to the event
+     */
+    long add(T event) {
+        long sequence = next.getAndIncrement();
+        int index = index(sequence);
+        long current;
+        do {
+            while ((current = sequences.get(index)) == WRITING) {
+                Thread.onSpinWait();
+            }
+            if (current > sequence) {
+                return sequence;
+            }
+        } while (!sequences.compareAndSet(index, current, WRITING));
+        VarHandle.storeStoreFence();
+        slots.write(index, event);
+        for (Indexer<T> indexer : indexers) {
+            indexer.link(sequence, event);
+        }
+        sequences.set(index, sequence);
+        return sequence;
+    }
+
+    /**
+     * @return the event stored under the sequence, or {@code null} if it was overwritten or is not published yet
+     */
+    T get(long sequence) {
+        int index = index(sequence);
+        if (sequences.get(index) != sequence) {
+            return null;
+        }
+        return slots.read(index, sequence, this);
+    }
+
+    /**
+     * @return whether the slot still holds the sequence after its content was copied
+     */
+    boolean isUnchanged(long sequence) {
+        VarHandle.loadLoadFence();
+        return sequences.get(index(sequence)) == sequence;
+    }
+
+    /**
+     * @return whether the slot of the sequence still belongs to it
+     */
+    boolean isStored(long sequence) {
+        return sequences.get(index(sequence)) == sequence;
+    }
+
+    /**
+     * Waits until a writer that already claimed the sequence publishes it.
+     *
+     * @return {@code false} if the sequence was overwritten in the meantime
+     */
+    boolean awaitPublished(long sequence) {
+        int index = index(sequence);
+        long current;
+        while ((current = sequences.get(index)) != sequence) {
+            if (current > sequence) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    /**
+     * @return the sequence the next added event will get
+     */
+    long head() {
+        return next.get();
+    }
+
+    /**
+     * @return the oldest sequence that may still be stored when the log is at the given head
+     */
+    long tail(long head) {
+        return Math.max(0, head - capacity());
+    }
+
+    /**
+     * Iterates over the sequences between the given ones that may still be stored. Events overwritten while the
+     * cursor is consumed are skipped by {@link #get(long)}.
+     *
+     * @param from first sequence, inclusive
+     * @param to last sequence, exclusive
+     */
+    SequenceCursor cursor(long from, long to, boolean newestFirst) {
+        long low = Math.max(from, tail(to));
+        return newestFirst ? new SequenceCursor() {
+            private long sequence = to;
+
+            @Override
+            public long next() {
+                return sequence > low ? --sequence : NONE;
+            }
+        } : new SequenceCursor() {
+            private long sequence = low;
+
+            @Override
+            public long next() {
+                return sequence < to ? sequence++ : NONE;
+            }
+        };
+    }
+
+    /**
+     * Iterates over the sequences returned by a newest first cursor, stopping at the first sequence before the given
+     * lower bound. The cursor is consumed lazily when iterating newest first; oldest first requires collecting the
+     * sequences before the first one is returned.
+     */
+    SequenceCursor cursor(SequenceCursor cursor, long from, boolean newestFirst) {
+        SequenceCursor bounded = () -> {
+            long sequence = cursor.next();
+            return sequence >= from ? sequence : SequenceCursor.NONE;
+        };
+        return newestFirst ? bounded : reverse(bounded);
+    }
+
+    private static SequenceCursor reverse(SequenceCursor cursor) {
+        long[] collected = new long[16];
+        int size = 0;
+        long sequence;
+        while ((sequence = cursor.next()) != SequenceCursor.NONE) {
+            if (size == collected.length) {
+                collected = Arrays.copyOf(collected, size * 2);
+            }
+            collected[size++] = sequence;
+        }
+        long[] sequences = collected;
+        int count = size;
+        return new SequenceCursor() {
+            private int position = count;
+
+            @Override
+            public long next() {
+                return position > 0 ? sequences[--position] : NONE;
+            }
+        };
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+
+/**
+ * Walks the sequences of a cursor and tells which of them hold a visible event that matches the filter. Small scans
+ * look at one sequence after the other. Once a scan has looked at more sequences than the threshold, the sequences
+ * still to come are taken from the cursor in chunks, and the chunks of a wave are evaluated in parallel on the
+ * fork/join pool; the results are returned in cursor order as if the scan had been sequential.
+ */
+class EventScan<T> {
+
+    /**
+     * Number of sequences evaluated by a task.
+     */
+    static final int CHUNK_SIZE = 4096;
+
+    private final EventRingBuffer<T> events;
+    private final SequenceCursor cursor;
+    private final EventRingBuffer.Visibility<T> visibility;
+    private final Predicate<T> filter;
+    private final long threshold;
+    private final ForkJoinPool pool;
+    private long examined;
+    private T event;
+    private long[] sequences;
+    private Object[] matches;
+    private int position;
+    private int size;
+
+    /**
+     * @param threshold number of sequences looked at sequentially, {@code Long.MAX_VALUE} to never go parallel
+     */
+    EventScan(EventRingBuffer<T> events, SequenceCursor cursor, EventRingBuffer.Visibility<T> visibility,
+            Predicate<T> filter, long threshold, ForkJoinPool pool) {
+        this.events = events;
+        this.cursor = cursor;
+        this.visibility = visibility;
+        this.filter = filter;
+        this.threshold = pool.getParallelism() > 1 ? threshold : Long.MAX_VALUE;
+        this.pool = pool;
+    }
+
+    /**
+     * @return the next sequence looked at, or {@link SequenceCursor#NONE} once the cursor is exhausted; a sequence
+     * may be returned twice
+     */
+    @SuppressWarnings("unchecked")
+    long next() {
+        if (position < size) {
+            event = (T) matches[position];
+            return sequences[position++];
+        }
+        if (examined >= threshold) {
+            return wave() ? next() : SequenceCursor.NONE;
+        }
+        long sequence = cursor.next();
+        if (sequence == SequenceCursor.NONE) {
+            event = null;
+            return SequenceCursor.NONE;
+        }
+        examined++;
+        event = match(sequence);
+        return sequence;
+    }
+
+    /**
+     * @return the event of the sequence last returned by {@link #next()} if it matches, otherwise {@code null}
+     */
+    T event() {
+        return event;
+    }
+
+    private T match(long sequence) {
+        // Writers that got their sequence before the snapshot was taken may still be storing the event
+        T event = events.awaitPublished(sequence) ? events.get(sequence) : null;
+        return event != null && visibility.isVisible(sequence, event) && filter.test(event) ? event : null;
+    }
+
+    /**
+     * Evaluates the next chunks of the cursor in parallel and keeps their matches, each chunk followed by its last
+     * sequence so that the caller learns how far the scan got.
+     *
+     * @return {@code false} if the cursor is exhausted
+     */
+    private boolean wave() {
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < pool.getParallelism(); i++) {
+            Chunk chunk = new Chunk();
+            if (chunk.size == 0) {
+                break;
+            }
+            chunks.add(chunk);
+            if (chunk.size < CHUNK_SIZE) {
+                break;
+            }
+        }
+        if (chunks.isEmpty()) {
+            return false;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            tasks.add(ForkJoinTask.adapt(chunk::evaluate));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+        size = 0;
+        for (Chunk chunk : chunks) {
+            size += chunk.matched + 1;
+        }
+        sequences = new long[size];
+        matches = new Object[size];
+        position = 0;
+        int i = 0;
+        for (Chunk chunk : chunks) {
+            System.arraycopy(chunk.sequences, 0, sequences, i, chunk.matched);
+            System.arraycopy(chunk.events, 0, matches, i, chunk.matched);
+            i += chunk.matched;
+            sequences[i++] = chunk.last;
+            examined += chunk.size;
+        }
+        return true;
+    }
+
+    private class Chunk {
+
+        private final long[] sequences = new long[CHUNK_SIZE];
+        private Object[] events;
+        private int size;
+        private int matched;
+        private long last;
+
+        private Chunk() {
+            long sequence;
+            while (size < CHUNK_SIZE && (sequence = cursor.next()) != SequenceCursor.NONE) {
+                sequences[size++] = sequence;
+            }
+            last = size > 0 ? sequences[size - 1] : SequenceCursor.NONE;
+        }
+
+        /**
+         * Keeps the matching sequences and their events at the start of the arrays.
+         */
+        private void evaluate() {
+            events = new Object[size];
+            for (int i = 0; i < size; i++) {
+                T event = match(sequences[i]);
+                if (event != null) {
+                    sequences[matched] = sequences[i];
+                    events[matched++] = event;
+                }
+            }
+        }
+    }
+}
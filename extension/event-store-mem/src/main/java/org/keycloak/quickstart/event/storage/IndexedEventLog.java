@@ -0,0 +1,452 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Events of one kind together with the structures maintained for them: secondary indexes, time segments, realm
+ * cutoffs, retention quotas, optionally a journal that makes them durable and optionally a writer thread that stores submitted events
+ * asynchronously.
+ * <p>
+ * Events of keys with a retention quota are kept in partitions, logs of the same kind created by {@link #partition(int)}.
+ * Queries on the log also look at its partitions and merge the results; adding, clearing and expiring events, the
+ * journal and the writer thread are handled by the log for all of its partitions. A partition that is replaced by a
+ * larger one stays readable by the snapshots taken before.
+ */
+abstract class IndexedEventLog<T> {
+
+    final EventRingBuffer<T> events;
+    final TimeSegments<T> segments;
+    final RealmCutoffs<T> cutoffs;
+    final SequenceIndex<T> realms;
+    final IntFunction<EventRingBuffer.Slots<T>> slots;
+    private final List<SequenceIndex<T>> indexes = new ArrayList<>();
+    private final RetentionQuota<T> quotas = new RetentionQuota<>(capacity -> {
+        IndexedEventLog<T> partition = partition(capacity);
+        partition.parallelThreshold = this.parallelThreshold;
+        return partition;
+    });
+    private volatile EventJournal<T> journal;
+    private volatile AsyncEventWriter<T> writer;
+    private final ToLongFunction<T> time;
+    private long parallelThreshold = Long.MAX_VALUE;
+
+    IndexedEventLog(int capacity, IntFunction<EventRingBuffer.Slots<T>> slots, Function<T, String> realm,
+            ToLongFunction<T> time) {
+        this.time = time;
+        this.slots = slots;
+        events = new EventRingBuffer<>(capacity, slots);
+        segments = events.register(new TimeSegments<>(events, time));
+        cutoffs = new RealmCutoffs<>(realm, time);
+        realms = index(realm);
+    }
+
+    SequenceIndex<T> index(Function<T, ?> key) {
+        SequenceIndex<T> index = events.index(key);
+        indexes.add(index);
+        return index;
+    }
+
+    /**
+     * Creates an empty log of the same kind and with the same indexes, to keep the events of a retention quota.
+     */
+    abstract IndexedEventLog<T> partition(int capacity);
+
+    /**
+     * Caps the number of events retained per key. Must be called before the first event is added.
+     *
+     * @param quotas quota of specific keys
+     * @param defaultQuota quota of the other keys, zero for none
+     */
+    void quota(String name, Function<T, String> key, Map<String, Long> quotas, long defaultQuota) {
+        this.quotas.add(name, key, quotas, defaultQuota);
+    }
+
+    /**
+     * Bounds the number of events kept in the partitions of all keys together. Must be called before the first event
+     * is added.
+     */
+    void quotaCapacity(long maxEvents) {
+        quotas.maxCapacity(maxEvents);
+    }
+
+    /**
+     * @return the number of events evicted so far by the quota of every partition, by the keys of the partition
+     */
+    Map<String, Long> evictions() {
+        return quotas.evictions();
+    }
+
+    /**
+     * Logs the events evicted by the quotas since the last report.
+     */
+    void reportEvictions() {
+        quotas.report();
+    }
+
+    /**
+     * Drops the partitions whose events were all cleared or expired.
+     */
+    void dropEmptyPartitions() {
+        quotas.dropEmpty();
+    }
+
+    /**
+     * Restores the events from the journal and journals all changes from now on.
+     */
+    void journal(EventJournal<T> journal) {
+        journal.open(this);
+        this.journal = journal;
+    }
+
+    /**
+     * Stores submitted events on a writer thread from now on.
+     */
+    void async(String name, int queueSize, int batchSize, AsyncEventWriter.Backpressure backpressure) {
+        writer = new AsyncEventWriter<>(this, name, queueSize, batchSize, backpressure);
+    }
+
+    /**
+     * Evaluates the rest of a query in parallel once it has looked at the given number of events.
+     */
+    void parallel(long threshold) {
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Stores the event, on the writer thread if the log is asynchronous.
+     */
+    void submit(T event) {
+        AsyncEventWriter<T> writer = this.writer;
+        if (writer != null) {
+            writer.submit(event);
+        } else {
+            add(event);
+        }
+    }
+
+    /**
+     * @return the sequence assigned to the event in the log or partition it was added to
+     */
+    long add(T event) {
+        EventJournal<T> journal = this.journal;
+        long sequence = quotas.add(event, journal);
+        if (sequence != RetentionQuota.NONE) {
+            return sequence;
+        }
+        return journal != null ? journal.append(event, events) : events.add(event);
+    }
+
+    /**
+     * Adds the events visible in this log to an empty log, oldest first, together with the expirations.
+     */
+    void copyTo(IndexedEventLog<T> log) {
+        RealmCutoffs<T>.Version visible = cutoffs.version();
+        long head = head();
+        SequenceCursor cursor = events.cursor(visible.first(null), head, false);
+        for (long sequence = cursor.next(); sequence != SequenceCursor.NONE; sequence = cursor.next()) {
+            T event = events.get(sequence);
+            if (event != null && visible.isVisible(sequence, event)) {
+                log.events.add(event);
+            }
+        }
+        log.cutoffs.expire(visible);
+    }
+
+    /**
+     * @return whether no event of the log is visible
+     */
+    boolean isEmpty() {
+        return unordered(snapshot(), Collections.emptyMap(), Collections.emptyMap(), null, null, e -> true)
+                .findAny().isEmpty();
+    }
+
+    long head() {
+        return events.head();
+    }
+
+    /**
+     * Takes a snapshot of the events stored so far, in constant time per partition, without blocking writers.
+     */
+    Snapshot<T> snapshot() {
+        Map<IndexedEventLog<T>, Snapshot<T>> partitions = Collections.emptyMap();
+        for (IndexedEventLog<T> partition : quotas.partitions()) {
+            if (partitions.isEmpty()) {
+                partitions = new HashMap<>();
+            }
+            partitions.put(partition, partition.snapshot());
+        }
+        return new Snapshot<>(head(), cutoffs.version(), partitions);
+    }
+
+    /**
+     * Removes all events of the realm, or of all realms if it is {@code null}, stored so far.
+     */
+    void clear(String realmId) {
+        flush();
+        Runnable clear = () -> {
+            cutoffs.clear(realmId, head());
+            quotas.forEach(partition -> partition.cutoffs.clear(realmId, partition.head()));
+        };
+        EventJournal<T> journal = this.journal;
+        if (journal != null) {
+            journal.appendClear(realmId, clear);
+        } else {
+            clear.run();
+        }
+    }
+
+    /**
+     * Removes the events of the realm that are older than the given time.
+     */
+    void expire(String realmId, long olderThan) {
+        flush();
+        cutoffs.expire(realmId, olderThan);
+        quotas.forEach(partition -> partition.cutoffs.expire(realmId, olderThan));
+        EventJournal<T> journal = this.journal;
+        if (journal != null) {
+            journal.appendExpire(realmId, olderThan);
+        }
+    }
+
+    private void flush() {
+        AsyncEventWriter<T> writer = this.writer;
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    void purgeIndexes() {
+        indexes.forEach(SequenceIndex::purge);
+        quotas.partitions().forEach(IndexedEventLog::purgeIndexes);
+    }
+
+    void close() {
+        AsyncEventWriter<T> writer = this.writer;
+        if (writer != null) {
+            writer.close();
+        }
+        EventJournal<T> journal = this.journal;
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Streams the events of the snapshot that match the query, ordered by event time. The time range and the index
+     * constraints narrow down the sequences to look at, the filter decides about every remaining event.
+     *
+     * @param constraints the keys the query requires for each index
+     * @param probes the values the query requires for each sketch of the time segments
+     * @param from oldest event time, or {@code null}
+     * @param to newest event time, or {@code null}
+     * @param limit number of events the caller takes at most
+     */
+    Stream<T> query(Snapshot<T> snapshot, Map<SequenceIndex<T>, Collection<?>> constraints,
+            Map<TimeSegments.Sketch<T>, String> probes, Long from, Long to, Predicate<T> filter, boolean newestFirst,
+            long limit) {
+        Stream<T> events = ordered(snapshot, constraints, probes, from, to, filter, newestFirst, limit);
+        if (snapshot.partitions.isEmpty()) {
+            return events;
+        }
+        List<Stream<T>> streams = new ArrayList<>();
+        streams.add(events);
+        snapshot.partitions.forEach((partition, s) -> streams.add(partition.query(s, constraints(partition, constraints),
+                probes(partition, probes), from, to, filter, newestFirst, limit)));
+        return merge(streams, newestFirst).limit(limit);
+    }
+
+    private Stream<T> ordered(Snapshot<T> snapshot, Map<SequenceIndex<T>, Collection<?>> constraints,
+            Map<TimeSegments.Sketch<T>, String> probes, Long from, Long to, Predicate<T> filter, boolean newestFirst,
+            long limit) {
+        long high = to == null ? snapshot.head : segments.upperBound(to, snapshot.head);
+        EventScan<T> scan = limit > 0 ? scan(snapshot, constraints, probes, from, high, filter, newestFirst) : null;
+        if (scan == null) {
+            return Stream.empty();
+        }
+        return StreamSupport.stream(new TimeOrderedSpliterator<>(scan, time, segments.bounds(high), newestFirst, limit),
+                false);
+    }
+
+    /**
+     * Streams the events of the snapshot that match the query in no particular order, for callers that aggregate the
+     * events rather than page through them.
+     */
+    Stream<T> matches(Snapshot<T> snapshot, Map<SequenceIndex<T>, Collection<?>> constraints,
+            Map<TimeSegments.Sketch<T>, String> probes, Long from, Long to, Predicate<T> filter) {
+        Stream<T> events = unordered(snapshot, constraints, probes, from, to, filter);
+        if (snapshot.partitions.isEmpty()) {
+            return events;
+        }
+        return Stream.concat(events, snapshot.partitions.entrySet().stream()
+                .flatMap(p -> p.getKey().matches(p.getValue(), constraints(p.getKey(), constraints),
+                        probes(p.getKey(), probes), from, to, filter)));
+    }
+
+    private Stream<T> unordered(Snapshot<T> snapshot, Map<SequenceIndex<T>, Collection<?>> constraints,
+            Map<TimeSegments.Sketch<T>, String> probes, Long from, Long to, Predicate<T> filter) {
+        long high = to == null ? snapshot.head : segments.upperBound(to, snapshot.head);
+        EventScan<T> scan = scan(snapshot, constraints, probes, from, high, filter, true);
+        if (scan == null) {
+            return Stream.empty();
+        }
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                while (scan.next() != SequenceCursor.NONE) {
+                    T event = scan.event();
+                    if (event != null) {
+                        action.accept(event);
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }, false);
+    }
+
+    /**
+     * @return the scan over the sequences before {@code high} that may hold a matching event, or {@code null} if there
+     * are none
+     */
+    private EventScan<T> scan(Snapshot<T> snapshot, Map<SequenceIndex<T>, Collection<?>> constraints,
+            Map<TimeSegments.Sketch<T>, String> probes, Long from, long high, Predicate<T> filter, boolean newestFirst) {
+        long low = Math.max(from == null ? 0 : segments.lowerBound(from, snapshot.head),
+                snapshot.cutoffs.first(constraints.get(realms)));
+        if (low >= high) {
+            return null;
+        }
+        SequenceCursor index = SequenceIndex.select(constraints, high);
+        SequenceCursor cursor;
+        if (index != null) {
+            cursor = events.cursor(index, low, newestFirst);
+        } else if (!probes.isEmpty()) {
+            cursor = segments.cursor(low, high, newestFirst, probes);
+        } else {
+            cursor = events.cursor(low, high, newestFirst);
+        }
+        return new EventScan<>(events, cursor, snapshot, filter, parallelThreshold, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return the constraints of a query on this log for the corresponding indexes of a partition
+     */
+    private Map<SequenceIndex<T>, Collection<?>> constraints(IndexedEventLog<T> partition,
+            Map<SequenceIndex<T>, Collection<?>> constraints) {
+        Map<SequenceIndex<T>, Collection<?>> mapped = new HashMap<>();
+        constraints.forEach((index, keys) -> mapped.put(partition.indexes.get(indexes.indexOf(index)), keys));
+        return mapped;
+    }
+
+    private static <T> Map<TimeSegments.Sketch<T>, String> probes(IndexedEventLog<T> partition,
+            Map<TimeSegments.Sketch<T>, String> probes) {
+        Map<TimeSegments.Sketch<T>, String> mapped = new HashMap<>();
+        probes.forEach((sketch, value) -> mapped.put(partition.segments.sketch(sketch), value));
+        return mapped;
+    }
+
+    /**
+     * Merges streams ordered by event time into one, taking the events of each stream only as they are needed.
+     */
+    private Stream<T> merge(List<Stream<T>> streams, boolean newestFirst) {
+        Comparator<Head<T>> order = Comparator.comparingLong(h -> h.time);
+        PriorityQueue<Head<T>> heads = new PriorityQueue<>(newestFirst ? order.reversed() : order);
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            private boolean started;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if (!started) {
+                    started = true;
+                    streams.forEach(stream -> advance(heads, stream.iterator()));
+                }
+                Head<T> head = heads.poll();
+                if (head == null) {
+                    return false;
+                }
+                action.accept(head.event);
+                advance(heads, head.rest);
+                return true;
+            }
+        }, false);
+    }
+
+    private void advance(PriorityQueue<Head<T>> heads, Iterator<T> rest) {
+        if (rest.hasNext()) {
+            T event = rest.next();
+            heads.add(new Head<>(time.applyAsLong(event), event, rest));
+        }
+    }
+
+    private static final class Head<T> {
+
+        private final long time;
+        private final T event;
+        private final Iterator<T> rest;
+
+        private Head(long time, T event, Iterator<T> rest) {
+            this.time = time;
+            this.event = event;
+            this.rest = rest;
+        }
+    }
+
+    /**
+     * The events stored before a head as seen by the cutoffs at that moment, together with the snapshots of the
+     * partitions that existed then. Events cleared or expired later stay visible to the snapshot. Events that are
+     * overwritten later are gone for good, so the snapshot no longer returns them; how far back a snapshot can look is
+     * bounded by the capacity of the log and of its partitions.
+     */
+    static final class Snapshot<T> implements EventRingBuffer.Visibility<T> {
+
+        private final long head;
+        private final RealmCutoffs<T>.Version cutoffs;
+        private final Map<IndexedEventLog<T>, Snapshot<T>> partitions;
+
+        private Snapshot(long head, RealmCutoffs<T>.Version cutoffs, Map<IndexedEventLog<T>, Snapshot<T>> partitions) {
+            this.head = head;
+            this.cutoffs = cutoffs;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public boolean isVisible(long sequence, T event) {
+            return sequence < head && cutoffs.isVisible(sequence, event);
+        }
+    }
+}
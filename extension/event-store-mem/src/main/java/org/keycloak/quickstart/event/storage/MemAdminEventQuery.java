@@ -19,15 +19,20 @@ package org.keycloak.quickstart.event.storage;
 
 import org.keycloak.events.admin.AdminEvent;
 import org.keycloak.events.admin.AdminEventQuery;
+import org.keycloak.events.admin.AuthDetails;
 import org.keycloak.events.admin.OperationType;
 import org.keycloak.events.admin.ResourceType;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.List;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 /**
@@ -35,142 +40,102 @@ import java.util.stream.Stream;
  */
 public class MemAdminEventQuery implements AdminEventQuery {
     
-    private List<AdminEvent> adminEvents;
+    private final AdminEventLog log;
+    private final IndexedEventLog.Snapshot<AdminEvent> snapshot;
+
+    private final Map<SequenceIndex<AdminEvent>, Collection<?>> constraints = new HashMap<>();
+    private Predicate<AdminEvent> filter = e -> true;
+    private Long from;
+    private Long to;
+    private boolean newestFirst = true;
 
     private int first;
-    private int max;
+    private Integer max;
+
+    MemAdminEventQuery(AdminEventLog log, IndexedEventLog.Snapshot<AdminEvent> snapshot) {
+        this.log = log;
+        this.snapshot = snapshot;
+    }
 
-    public MemAdminEventQuery(List<AdminEvent> events) {
-        this.adminEvents = events;
+    private AdminEventQuery and(Predicate<AdminEvent> predicate) {
+        filter = filter.and(predicate);
+        return this;
     }
 
+    private AdminEventQuery and(SequenceIndex<AdminEvent> index, Object key, Predicate<AdminEvent> predicate) {
+        if (key != null) {
+            constraints.put(index, Collections.singleton(key));
+        }
+        return and(predicate);
+    }
+
+    private static Predicate<AdminEvent> authDetail(Function<AuthDetails, String> detail, String value) {
+        return e -> e.getAuthDetails() != null && Objects.equals(value, detail.apply(e.getAuthDetails()));
+    }
 
     @Override
     public AdminEventQuery realm(String realmId) {
-        Iterator<AdminEvent> itr = adminEvents.iterator();
-        while (itr.hasNext()) {
-            if (!itr.next().getRealmId().equals(realmId)) {
-                itr.remove();
-            }
-        }
-        return this;
+        return and(log.realms, realmId, e -> Objects.equals(realmId, e.getRealmId()));
     }
 
     @Override
     public AdminEventQuery operation(OperationType... operations) {
-        Iterator<AdminEvent> itr = this.adminEvents.iterator();
-        while (itr.hasNext()) {
-            AdminEvent next = itr.next();
-            boolean include = false;
-            for (OperationType e : operations) {
-                if (next.getOperationType().equals(e)) {
-                    include = true;
-                    break;
-                }
-            }
-            if (!include) {
-                itr.remove();
-            }
-        }
-        return this;
+        EnumSet<OperationType> included = EnumSet.noneOf(OperationType.class);
+        included.addAll(Arrays.asList(operations));
+        return and(e -> included.contains(e.getOperationType()));
     }
 
     @Override
     public AdminEventQuery resourceType(ResourceType... resourceTypes) {
-
-        Iterator<AdminEvent> itr = this.adminEvents.iterator();
-        while (itr.hasNext()) {
-            AdminEvent next = itr.next();
-            boolean include = false;
-            for (ResourceType e : resourceTypes) {
-                if (next.getResourceType().equals(e)) {
-                    include = true;
-                    break;
-                }
-            }
-            if (!include) {
-                itr.remove();
-            }
-        }
-
-        return this;
+        EnumSet<ResourceType> included = EnumSet.noneOf(ResourceType.class);
+        included.addAll(Arrays.asList(resourceTypes));
+        return and(e -> included.contains(e.getResourceType()));
     }
     
     @Override
     public AdminEventQuery authRealm(String authRealmId) {
-        Iterator<AdminEvent> itr = adminEvents.iterator();
-        while (itr.hasNext()) {
-            if (!itr.next().getAuthDetails().getRealmId().equals(authRealmId)) {
-                itr.remove();
-            }
-        }
-        return this;
+        return and(authDetail(AuthDetails::getRealmId, authRealmId));
     }
 
     @Override
     public AdminEventQuery authClient(String authClientId) {
-        Iterator<AdminEvent> itr = adminEvents.iterator();
-        while (itr.hasNext()) {
-            if (!itr.next().getAuthDetails().getClientId().equals(authClientId)) {
-                itr.remove();
-            }
-        }
-        return this;
+        return and(authDetail(AuthDetails::getClientId, authClientId));
     }
 
     @Override
     public AdminEventQuery authUser(String authUserId) {
-        Iterator<AdminEvent> itr = adminEvents.iterator();
-        while (itr.hasNext()) {
-            if (!itr.next().getAuthDetails().getUserId().equals(authUserId)) {
-                itr.remove();
-            }
-        }
-        return this;
+        return and(log.authUsers, authUserId, authDetail(AuthDetails::getUserId, authUserId));
     }
 
     @Override
     public AdminEventQuery authIpAddress(String ipAddress) {
-        Iterator<AdminEvent> itr = adminEvents.iterator();
-        while (itr.hasNext()) {
-            if (!itr.next().getAuthDetails().getIpAddress().equals(ipAddress)) {
-                itr.remove();
-            }
-        }
-        return this;
+        return and(authDetail(AuthDetails::getIpAddress, ipAddress));
     }
 
     @Override
     public AdminEventQuery resourcePath(String resourcePath) {
-        Iterator<AdminEvent> itr = this.adminEvents.iterator();
-        while (itr.hasNext()) {
-            if(!Pattern.compile(resourcePath).matcher(itr.next().getResourcePath()).find()) {
-                itr.remove();
+        ResourcePathPattern pattern = ResourcePathPattern.compile(resourcePath);
+        for (int count = ResourcePathPattern.INDEXED_SEGMENTS; count > 0; count--) {
+            String key = pattern.indexKey(count);
+            if (key != null) {
+                return and(log.resourcePaths.get(count - 1), key, e -> pattern.test(e.getResourcePath()));
             }
         }
-        return (AdminEventQuery) this;
+        return and(e -> pattern.test(e.getResourcePath()));
     }
 
     @Override
     public AdminEventQuery fromTime(Date fromTime) {
-        Iterator<AdminEvent> itr = this.adminEvents.iterator();
-        while (itr.hasNext()) {
-            if (!(itr.next().getTime() >= fromTime.getTime())) {
-                itr.remove();
-            }
-        }
-        return this;
+        long from = fromTime.getTime();
+        this.from = this.from == null ? from : Math.max(this.from, from);
+        return and(e -> e.getTime() >= from);
     }
 
     @Override
     public AdminEventQuery toTime(Date toTime) {
-        Iterator<AdminEvent> itr = this.adminEvents.iterator();
-        while (itr.hasNext()) {
-            if (!(itr.next().getTime() <= toTime.getTime())) {
-                itr.remove();
-            }
-        }
-        return this;
+        long to = toTime.getTime();
+        this.to = this.to == null ? to : Math.min(this.to, to);
+        return and(e -> e.getTime() <= to);
     }
 
     @Override
@@ -187,23 +152,20 @@ public class MemAdminEventQuery implements AdminEventQuery {
 
     @Override
     public Stream<AdminEvent> getResultStream() {
-        if (adminEvents.size() < first) {
-            return Stream.empty();
-        }
-        int end = first + max <= adminEvents.size() ? first + max : adminEvents.size();
-
-        return adminEvents.subList(first, end).stream();
+        long limit = max != null && max >= 0 ? (long) first + max : Long.MAX_VALUE;
+        Stream<AdminEvent> result = log.query(snapshot, constraints, Collections.emptyMap(), from, to, filter, newestFirst, limit);
+        return first > 0 ? result.skip(first) : result;
     }
 
     @Override
     public AdminEventQuery orderByDescTime() {
-        adminEvents.sort((event1, event2) -> MemEventQuery.signum(event1.getTime() - event2.getTime()));
+        newestFirst = true;
         return this;
     }
 
     @Override
     public AdminEventQuery orderByAscTime() {
-        adminEvents.sort((event1, event2) -> -MemEventQuery.signum(event1.getTime() - event2.getTime()));
+        newestFirst = false;
         return this;
     }
 }
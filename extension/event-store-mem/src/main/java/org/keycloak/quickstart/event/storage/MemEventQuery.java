@@ -21,149 +21,152 @@ import org.keycloak.events.Event;
 import org.keycloak.events.EventQuery;
 import org.keycloak.events.EventType;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.List;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
+ * Records the filters of a query and evaluates them in a single pass over the events stored before the query was
+ * created. Nothing is copied, and the evaluation stops as soon as the requested page is complete. Filters on realm,
+ * user, client and type also constrain the index the pass starts from; the most selective one is used. Date filters
+ * limit the pass to the time segments that overlap the requested range.
+ *
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
 public class MemEventQuery implements EventQuery {
 
-    private List<Event> events;
+    private final EventLog log;
+    private final IndexedEventLog.Snapshot<Event> snapshot;
+
+    private final Map<SequenceIndex<Event>, Collection<?>> constraints = new HashMap<>();
+    private final Map<TimeSegments.Sketch<Event>, String> probes = new HashMap<>();
+    private Predicate<Event> filter = e -> true;
+    private Long from;
+    private Long to;
+    private boolean newestFirst = true;
 
     private int first;
-    private int max;
+    private Integer max;
 
-    public MemEventQuery(List<Event> events) {
-        this.events = events;
+    MemEventQuery(EventLog log, IndexedEventLog.Snapshot<Event> snapshot) {
+        this.log = log;
+        this.snapshot = snapshot;
     }
 
-    @Override
-    public EventQuery type(EventType... types) {
-        Iterator<Event> itr = this.events.iterator();
-        while (itr.hasNext()) {
-            Event next = itr.next();
-            boolean include = false;
-            for (EventType e : types) {
-                if (next.getType().equals(e)) {
-                    include = true;
-                    break;
-                }
-            }
-            if (!include) {
-                itr.remove();
-            }
-        }
+    private MemEventQuery and(Predicate<Event> predicate) {
+        filter = filter.and(predicate);
         return this;
     }
 
-    @Override
-    public EventQuery realm(String realmId) {
-        Iterator<Event> itr = this.events.iterator();
-        while (itr.hasNext()) {
-            if (!itr.next().getRealmId().equals(realmId)) {
-                itr.remove();
-            }
+    private MemEventQuery and(SequenceIndex<Event> index, Collection<?> keys, Predicate<Event> predicate) {
+        if (!keys.contains(null)) {
+            constraints.put(index, keys);
         }
-        return this;
+        return and(predicate);
     }
 
     @Override
-    public EventQuery client(String clientId) {
-        Iterator<Event> itr = this.events.iterator();
-        while (itr.hasNext()) {
-            if (!itr.next().getClientId().equals(clientId)) {
-                itr.remove();
-            }
-        }
-        return this;
+    public MemEventQuery type(EventType... types) {
+        EnumSet<EventType> included = EnumSet.noneOf(EventType.class);
+        included.addAll(Arrays.asList(types));
+        return and(log.types, included, e -> included.contains(e.getType()));
     }
 
     @Override
-    public EventQuery user(String userId) {
-        Iterator<Event> itr = this.events.iterator();
-        while (itr.hasNext()) {
-            if (!itr.next().getUserId().equals(userId)) {
-                itr.remove();
-            }
-        }
-        return this;
+    public MemEventQuery realm(String realmId) {
+        return and(log.realms, Collections.singleton(realmId), e -> Objects.equals(realmId, e.getRealmId()));
+    }
+
+    @Override
+    public MemEventQuery client(String clientId) {
+        return and(log.clients, Collections.singleton(clientId), e -> Objects.equals(clientId, e.getClientId()));
+    }
+
+    @Override
+    public MemEventQuery user(String userId) {
+        return and(log.users, Collections.singleton(userId), e -> Objects.equals(userId, e.getUserId()));
     }
     
     @Override
-    public EventQuery fromDate(Date fromDate) {
-        Iterator<Event> itr = this.events.iterator();
-        while (itr.hasNext()) {
-            if (!(itr.next().getTime() >= fromDate.getTime())) {
-                itr.remove();
-            }
-        }
-        return this;
+    public MemEventQuery fromDate(Date fromDate) {
+        long from = fromDate.getTime();
+        this.from = this.from == null ? from : Math.max(this.from, from);
+        return and(e -> e.getTime() >= from);
     }
     
     @Override
-    public EventQuery toDate(Date toDate) {
-        Iterator<Event> itr = this.events.iterator();
-        while (itr.hasNext()) {
-            if (!(itr.next().getTime() <= toDate.getTime())) {
-                itr.remove();
-            }
-        }
-        return this;
+    public MemEventQuery toDate(Date toDate) {
+        long to = toDate.getTime();
+        this.to = this.to == null ? to : Math.min(this.to, to);
+        return and(e -> e.getTime() <= to);
     }
     
     @Override
-    public EventQuery ipAddress(String ipAddress) {
-        Iterator<Event> itr = this.events.iterator();
-        while (itr.hasNext()) {
-            if (!itr.next().getIpAddress().equals(ipAddress)) {
-                itr.remove();
-            }
+    public MemEventQuery ipAddress(String ipAddress) {
+        if (ipAddress != null) {
+            probes.put(log.ipAddresses, ipAddress);
         }
-        return this;
+        return and(e -> Objects.equals(ipAddress, e.getIpAddress()));
+    }
+
+    /**
+     * Restricts the results to events with the given value of a detail, for example {@code redirect_uri}. Detail keys
+     * listed in the {@code indexed-details} option are looked up in an index, other keys are checked on every event.
+     */
+    public MemEventQuery detail(String key, String value) {
+        Predicate<Event> predicate = e -> Objects.equals(value, EventLog.detail(e, key));
+        SequenceIndex<Event> index = log.details.get(key);
+        return index != null ? and(index, Collections.singleton(value), predicate) : and(predicate);
+    }
+
+    /**
+     * Counts the events that match the query by the value of a detail, without returning the events. Paging and
+     * ordering do not apply; events without the detail are not counted.
+     */
+    public Map<String, Long> countByDetail(String key) {
+        return log.matches(snapshot, constraints, probes, from, to, filter)
+                .map(e -> EventLog.detail(e, key))
+                .filter(Objects::nonNull)
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
     }
 
     @Override
-    public EventQuery firstResult(int result) {
+    public MemEventQuery firstResult(int result) {
         this.first = result;
         return this;
     }
 
     @Override
-    public EventQuery maxResults(int results) {
+    public MemEventQuery maxResults(int results) {
         this.max = results;
         return this;
     }
 
     @Override
     public Stream<Event> getResultStream() {
-
-        if (events.size() < first) {
-            return Stream.empty();
-        }
-        int end = first + max <= events.size() ? first + max : events.size();
-
-        return events.subList(first, end).stream();
+        long limit = max != null && max >= 0 ? (long) first + max : Long.MAX_VALUE;
+        Stream<Event> result = log.query(snapshot, constraints, probes, from, to, filter, newestFirst, limit);
+        return first > 0 ? result.skip(first) : result;
     }
 
     @Override
-    public EventQuery orderByDescTime() {
-        events.sort((event1, event2) -> signum(event1.getTime() - event2.getTime()));
+    public MemEventQuery orderByDescTime() {
+        newestFirst = true;
         return this;
     }
 
     @Override
-    public EventQuery orderByAscTime() {
-        events.sort((event1, event2) -> -signum(event1.getTime() - event2.getTime()));
+    public MemEventQuery orderByAscTime() {
+        newestFirst = false;
         return this;
     }
-
-    static int signum(long l1) {
-        if (l1 == 0) return 0;
-        return (l1 > 0) ? 1 : -1;
-    }
 }
@@ -20,113 +20,121 @@ package org.keycloak.quickstart.event.storage;
 import org.keycloak.events.Event;
 import org.keycloak.events.EventQuery;
 import org.keycloak.events.EventStoreProvider;
-import org.keycloak.events.EventType;
 import org.keycloak.events.admin.AdminEvent;
 import org.keycloak.events.admin.AdminEventQuery;
-import org.keycloak.events.admin.OperationType;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 /**
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
 public class MemEventStoreProvider implements EventStoreProvider {
-    private final List<Event> events;
-    private final Set<EventType> excludedEvents;
-    private final List<AdminEvent> adminEvents;
-    private final Set<OperationType> excludedOperations;
+    private final EventLog events;
+    private final AdminEventLog adminEvents;
+    private final EventFilter filter;
+    private final EventReplicator replicator;
     private final KeycloakSession session;
 
-    public MemEventStoreProvider(List<Event> events, Set<EventType> excludedEvents, 
-            List<AdminEvent> adminEvents, Set<OperationType> excludedOperations, KeycloakSession session) {
+    MemEventStoreProvider(EventLog events, AdminEventLog adminEvents, EventFilter filter, EventReplicator replicator,
+            KeycloakSession session) {
         this.events = events;
-        this.excludedEvents = excludedEvents;
-        
         this.adminEvents = adminEvents;
-        this.excludedOperations = excludedOperations;
+        this.filter = filter;
 
+        this.replicator = replicator;
         this.session = session;
     }
 
     @Override
     public EventQuery createQuery() {
-        return new MemEventQuery(new LinkedList<>(events));
+        return new MemEventQuery(events, events.snapshot());
     }
 
     @Override
     public void clear() {
-
+        events.clear(null);
+        if (replicator != null) {
+            replicator.clear(null, false);
+        }
     }
 
     @Override
     public void clear(RealmModel realm) {
-        synchronized(events) {
-            Iterator<Event> itr = events.iterator();
-            while (itr.hasNext()) {
-                if (itr.next().getRealmId().equals(realm.getId())) {
-                    itr.remove();
-                }
-            }
+        events.clear(realm.getId());
+        if (replicator != null) {
+            replicator.clear(realm.getId(), false);
         }
     }
 
     @Override
     public void clear(RealmModel realm, long olderThan) {
-        synchronized(events) {
-            Iterator<Event> itr = events.iterator();
-            while (itr.hasNext()) {
-                Event e = itr.next();
-                if (e.getRealmId().equals(realm.getId()) && e.getTime() < olderThan) {
-                    itr.remove();
-                }
-            }
+        events.expire(realm.getId(), olderThan);
+        if (replicator != null) {
+            replicator.expire(realm.getId(), olderThan, false);
         }
     }
 
     @Override
     public void onEvent(Event event) {
-        if (excludedEvents == null || !excludedEvents.contains(event.getType())) {
-            events.add(0, event);
+        if (filter.test(event)) {
+            events.submit(event);
+            if (replicator != null) {
+                replicator.replicate(event);
+            }
         }
     }
 
+    /**
+     * @return the rolling counters of the user events, or {@code null} if the {@code aggregation-minutes} option is not
+     * set
+     */
+    public EventAggregates aggregates() {
+        return events.aggregates();
+    }
+
+    /**
+     * @return the number of user events evicted so far by the quota of every realm or event type, for example
+     * {@code realm 7d3f..., event type LOGIN_ERROR}, that still has events
+     */
+    public Map<String, Long> evictions() {
+        return events.evictions();
+    }
+
+    /**
+     * @return the number of admin events evicted so far by the quota of every realm that still has events
+     */
+    public Map<String, Long> adminEvictions() {
+        return adminEvents.evictions();
+    }
+
     @Override
     public AdminEventQuery createAdminQuery() {
-        return new MemAdminEventQuery(new LinkedList<>(adminEvents));
+        return new MemAdminEventQuery(adminEvents, adminEvents.snapshot());
     }
 
     @Override
     public void clearAdmin() {
-
+        adminEvents.clear(null);
+        if (replicator != null) {
+            replicator.clear(null, true);
+        }
     }
 
     @Override
     public void clearAdmin(RealmModel realm) {
-        synchronized(adminEvents) {
-            Iterator<AdminEvent> itr = adminEvents.iterator();
-            while (itr.hasNext()) {
-                if (itr.next().getRealmId().equals(realm.getId())) {
-                    itr.remove();
-                }
-            }
+        adminEvents.clear(realm.getId());
+        if (replicator != null) {
+            replicator.clear(realm.getId(), true);
         }
     }
 
     @Override
     public void clearAdmin(RealmModel realm, long olderThan) {
-        synchronized(adminEvents) {
-            Iterator<AdminEvent> itr = adminEvents.iterator();
-            while (itr.hasNext()) {
-                AdminEvent e = itr.next();
-                if (e.getRealmId().equals(realm.getId()) && e.getTime() < olderThan) {
-                    itr.remove();
-                }
-            }
+        adminEvents.expire(realm.getId(), olderThan);
+        if (replicator != null) {
+            replicator.expire(realm.getId(), olderThan, true);
         }
     }
 
@@ -138,12 +146,21 @@ public class MemEventStoreProvider implements EventStoreProvider {
                 clear(r, olderThan);
             }
         });
+        events.purgeIndexes();
+        adminEvents.purgeIndexes();
+        events.reportEvictions();
+        adminEvents.reportEvictions();
+        events.dropEmptyPartitions();
+        adminEvents.dropEmptyPartitions();
     }
 
     @Override
     public void onEvent(AdminEvent adminEvent, boolean includeRepresentation) {
-        if (excludedOperations == null || !excludedOperations.contains(adminEvent.getOperationType())) {
-            adminEvents.add(0, adminEvent);
+        if (filter.test(adminEvent)) {
+            adminEvents.submit(adminEvent);
+            if (replicator != null) {
+                replicator.replicate(adminEvent);
+            }
         }
     }
 
@@ -23,51 +23,166 @@ import org.keycloak.events.EventStoreProvider;
 import org.keycloak.events.EventStoreProviderFactory;
 import org.keycloak.events.EventType;
 import org.keycloak.events.admin.AdminEvent;
-import org.keycloak.events.admin.OperationType;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.function.Function;
 
 /**
  * @author <a href="mailto:sthorger@redhat.com">Stian Thorgersen</a>
  */
 public class MemEventStoreProviderFactory implements EventStoreProviderFactory {
 
-    private List<Event> events;
-    private Set<EventType> excludedEvents;
-    private List<AdminEvent> adminEvents;
-    private Set<OperationType> excludedOperations;
+    static final int DEFAULT_MAX_EVENTS = 100000;
+    static final int DEFAULT_ARENA_BYTES_PER_EVENT = 128;
+    static final int DEFAULT_MAX_DICTIONARY_SIZE = 65536;
+    static final long DEFAULT_OFF_HEAP_BYTES = 256L * 1024 * 1024;
+    static final long DEFAULT_ADMIN_OFF_HEAP_BYTES = 64L * 1024 * 1024;
+    static final int DEFAULT_JOURNAL_SEGMENT_BYTES = 64 * 1024 * 1024;
+    static final long DEFAULT_JOURNAL_FORCE_INTERVAL = 1000;
+    static final int DEFAULT_ASYNC_QUEUE_SIZE = 65536;
+    static final int DEFAULT_ASYNC_BATCH_SIZE = 256;
+    static final int DEFAULT_CLUSTER_QUEUE_SIZE = 65536;
+    static final int DEFAULT_CLUSTER_BATCH_SIZE = 1024;
+    static final int DEFAULT_AGGREGATION_MAX_GROUPS = 10000;
+    static final int DEFAULT_PARALLEL_QUERY_THRESHOLD = 65536;
+
+    private EventLog events;
+    private AdminEventLog adminEvents;
+    private EventFilter filter;
+    private EventReplicator replicator;
 
     @Override
     public EventStoreProvider create(KeycloakSession session) {
-        return new MemEventStoreProvider(events, excludedEvents, adminEvents, excludedOperations, session);
+        return new MemEventStoreProvider(events, adminEvents, filter, replicator, session);
     }
 
     @Override
     public void init(Config.Scope config) {
-        events = Collections.synchronizedList(new LinkedList<Event>());
-        adminEvents = Collections.synchronizedList(new LinkedList<AdminEvent>());
-
-        String[] excludes = config.getArray("exclude-events");
-        if (excludes != null) {
-            excludedEvents = new HashSet<>();
-            for (String e : excludes) {
-                excludedEvents.add(EventType.valueOf(e));
+        int maxEvents = config.getInt("max-events", DEFAULT_MAX_EVENTS);
+        int maxAdminEvents = config.getInt("max-admin-events", DEFAULT_MAX_EVENTS);
+        String storage = config.get("storage", "objects");
+        switch (storage) {
+            case "objects":
+                events = new EventLog(maxEvents, ObjectSlots::new);
+                adminEvents = new AdminEventLog(maxAdminEvents, ObjectSlots::new);
+                break;
+            case "compact":
+                int bytesPerEvent = config.getInt("arena-bytes-per-event", DEFAULT_ARENA_BYTES_PER_EVENT);
+                int dictionarySize = config.getInt("max-dictionary-size", DEFAULT_MAX_DICTIONARY_SIZE);
+                events = new EventLog(maxEvents, size -> new CompactEventSlots(size, new StringDictionary(dictionarySize),
+                        new StringDictionary(dictionarySize), new ByteArena((long) size * bytesPerEvent, false)));
+                adminEvents = new AdminEventLog(maxAdminEvents, ObjectSlots::new);
+                break;
+            case "off-heap":
+                ByteArena arena = new ByteArena(config.getLong("off-heap-bytes", DEFAULT_OFF_HEAP_BYTES), true);
+                ByteArena adminArena = new ByteArena(config.getLong("admin-off-heap-bytes", DEFAULT_ADMIN_OFF_HEAP_BYTES), true);
+                events = new EventLog(maxEvents, size -> new SerializedSlots<>(size, UserEventCodec.INSTANCE, arena));
+                adminEvents = new AdminEventLog(maxAdminEvents, size -> new SerializedSlots<>(size, AdminEventCodec.INSTANCE, adminArena));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage: " + storage);
+        }
+
+        Map<String, Long> realmQuotas = quotas(config.getArray("realm-quotas"), Function.identity());
+        long realmQuota = config.getLong("realm-quota", 0L);
+        if (realmQuota > 0 || !realmQuotas.isEmpty()) {
+            events.quota("realm", Event::getRealmId, realmQuotas, realmQuota);
+            adminEvents.quota("realm", AdminEvent::getRealmId, realmQuotas, realmQuota);
+        }
+        Map<String, Long> typeQuotas = quotas(config.getArray("type-quotas"), type -> EventType.valueOf(type).name());
+        long typeQuota = config.getLong("type-quota", 0L);
+        if (typeQuota > 0 || !typeQuotas.isEmpty()) {
+            events.quota("event type", e -> e.getType() != null ? e.getType().name() : null, typeQuotas, typeQuota);
+        }
+        events.quotaCapacity(config.getLong("quota-max-events", (long) maxEvents));
+        adminEvents.quotaCapacity(config.getLong("quota-max-admin-events", (long) maxAdminEvents));
+
+        String[] indexedDetails = config.getArray("indexed-details");
+        if (indexedDetails != null) {
+            for (String key : indexedDetails) {
+                events.indexDetail(key.trim());
             }
         }
-        
-        String excludesOperations = config.get("excludesOperations");
-        if (excludesOperations != null) {
-            excludedOperations = new HashSet<>();
-            for (String e : excludesOperations.split(",")) {
-                excludedOperations.add(OperationType.valueOf(e));
+
+        int aggregationMinutes = config.getInt("aggregation-minutes", 0);
+        if (aggregationMinutes > 0) {
+            events.aggregate(aggregationMinutes, config.getInt("aggregation-max-groups", DEFAULT_AGGREGATION_MAX_GROUPS));
+        }
+
+        int parallelThreshold = config.getInt("parallel-query-threshold", DEFAULT_PARALLEL_QUERY_THRESHOLD);
+        if (parallelThreshold > 0) {
+            events.parallel(parallelThreshold);
+            adminEvents.parallel(parallelThreshold);
+        }
+
+        String journalDir = config.get("journal-dir");
+        if (journalDir != null) {
+            Path dir = Paths.get(journalDir);
+            int segmentBytes = config.getInt("journal-segment-bytes", DEFAULT_JOURNAL_SEGMENT_BYTES);
+            long forceInterval = config.getLong("journal-force-interval", DEFAULT_JOURNAL_FORCE_INTERVAL);
+            events.journal(new EventJournal<>(dir.resolve("events"), UserEventCodec.INSTANCE, segmentBytes, forceInterval));
+            adminEvents.journal(new EventJournal<>(dir.resolve("admin-events"), AdminEventCodec.INSTANCE, segmentBytes,
+                    forceInterval));
+        }
+
+        if (config.getBoolean("async", false)) {
+            int queueSize = config.getInt("async-queue-size", DEFAULT_ASYNC_QUEUE_SIZE);
+            int batchSize = config.getInt("async-batch-size", DEFAULT_ASYNC_BATCH_SIZE);
+            AsyncEventWriter.Backpressure backpressure = AsyncEventWriter.Backpressure.of(config.get("async-backpressure", "block"));
+            events.async("in-mem-event-writer", queueSize, batchSize, backpressure);
+            adminEvents.async("in-mem-admin-event-writer", queueSize, batchSize, backpressure);
+        }
+
+        Integer clusterPort = config.getInt("cluster-port");
+        if (clusterPort != null) {
+            InetSocketAddress bind = new InetSocketAddress(config.get("cluster-host", "127.0.0.1"), clusterPort);
+            String secret = config.get("cluster-secret");
+            if (secret == null || secret.isEmpty()) {
+                throw new IllegalArgumentException("cluster-secret must be set when cluster-port is set");
             }
+            List<InetSocketAddress> members = new ArrayList<>();
+            String[] addresses = config.getArray("cluster-members");
+            if (addresses != null) {
+                for (String address : addresses) {
+                    int colon = address.lastIndexOf(':');
+                    if (colon == -1) {
+                        throw new IllegalArgumentException("Cluster member must have the form host:port: " + address);
+                    }
+                    members.add(new InetSocketAddress(address.substring(0, colon).trim(),
+                            Integer.parseInt(address.substring(colon + 1).trim())));
+                }
+            }
+            replicator = new EventReplicator(events, adminEvents, bind, members, secret,
+                    config.getInt("cluster-queue-size", DEFAULT_CLUSTER_QUEUE_SIZE),
+                    config.getInt("cluster-batch-size", DEFAULT_CLUSTER_BATCH_SIZE));
         }
+
+        filter = new EventFilter(config);
+    }
+
+    /**
+     * Parses quotas of the form {@code key:limit}.
+     */
+    private static Map<String, Long> quotas(String[] values, Function<String, String> key) {
+        Map<String, Long> quotas = new HashMap<>();
+        if (values != null) {
+            for (String value : values) {
+                int colon = value.lastIndexOf(':');
+                if (colon == -1) {
+                    throw new IllegalArgumentException("Quota must have the form key:limit: " + value);
+                }
+                quotas.put(key.apply(value.substring(0, colon).trim()), Long.parseLong(value.substring(colon + 1).trim()));
+            }
+        }
+        return quotas;
     }
 
     @Override
@@ -76,10 +191,17 @@ public class MemEventStoreProviderFactory implements EventStoreProviderFactory {
     }
     @Override
     public void close() {
+        if (replicator != null) {
+            replicator.close();
+        }
+        if (events != null) {
+            events.close();
+            adminEvents.close();
+        }
         events = null;
-        excludedEvents = null;
         adminEvents = null;
-        excludedOperations = null;
+        filter = null;
+        replicator = null;
     }
 
     @Override
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+/**
+ * Keeps the events in the slots as they are.
+ */
+class ObjectSlots<T> implements EventRingBuffer.Slots<T> {
+
+    private final Object[] events;
+
+    ObjectSlots(int size) {
+        this.events = new Object[size];
+    }
+
+    @Override
+    public void write(int index, T event) {
+        events[index] = event;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T read(int index, long sequence, EventRingBuffer<T> buffer) {
+        T event = (T) events[index];
+        return buffer.isUnchanged(sequence) ? event : null;
+    }
+}
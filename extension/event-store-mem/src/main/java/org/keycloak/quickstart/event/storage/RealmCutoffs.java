@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hides the cleared and expired events of a realm without touching them. Clearing a realm or expiring its events only
+ * moves the cutoff of the realm, and clearing all events moves a cutoff shared by all realms; the hidden events stay in
+ * the ring buffer until they are overwritten.
+ * <p>
+ * The cutoffs are kept in an immutable {@link Version} that is replaced on every change. Queries take the current
+ * version when they are created and keep seeing the events as of that moment, however the cutoffs change while they
+ * are consumed. Changes are rare compared to queries, so copying the cutoffs of all realms on every change is cheap.
+ */
+class RealmCutoffs<T> {
+
+    private final Function<T, String> realm;
+    private final ToLongFunction<T> time;
+    private final AtomicReference<Version> version = new AtomicReference<>(new Version(0, Collections.emptyMap()));
+
+    RealmCutoffs(Function<T, String> realm, ToLongFunction<T> time) {
+        this.realm = realm;
+        this.time = time;
+    }
+
+    /**
+     * @return the cutoffs as of now, unaffected by later changes
+     */
+    Version version() {
+        return version.get();
+    }
+
+    /**
+     * Hides the events of the realm, or of all realms if it is {@code null}, stored before the given sequence.
+     */
+    void clear(String realmId, long sequence) {
+        version.updateAndGet(v -> {
+            if (realmId == null) {
+                return sequence > v.all ? new Version(sequence, v.cutoffs) : v;
+            }
+            Cutoff cutoff = v.cutoffs.getOrDefault(realmId, Cutoff.NONE);
+            return sequence > cutoff.sequence ? v.with(realmId, new Cutoff(sequence, cutoff.time)) : v;
+        });
+    }
+
+    /**
+     * Hides the events of the realm that are older than the given time.
+     */
+    void expire(String realmId, long olderThan) {
+        version.updateAndGet(v -> {
+            Cutoff cutoff = v.cutoffs.getOrDefault(realmId, Cutoff.NONE);
+            return olderThan > cutoff.time ? v.with(realmId, new Cutoff(cutoff.sequence, olderThan)) : v;
+        });
+    }
+
+    /**
+     * Hides the events that are older than the expirations of the given cutoffs, of the same or another log.
+     */
+    void expire(Version expirations) {
+        expirations.cutoffs.forEach((realmId, cutoff) -> expire(realmId, cutoff.time));
+    }
+
+    /**
+     * Immutable state of the cutoffs.
+     */
+    final class Version implements EventRingBuffer.Visibility<T> {
+
+        private final long all;
+        private final Map<String, Cutoff> cutoffs;
+
+        private Version(long all, Map<String, Cutoff> cutoffs) {
+            this.all = all;
+            this.cutoffs = cutoffs;
+        }
+
+        private Version with(String realmId, Cutoff cutoff) {
+            Map<String, Cutoff> copy = new HashMap<>(cutoffs);
+            copy.put(realmId, cutoff);
+            return new Version(all, copy);
+        }
+
+        /**
+         * @return the first sequence that may hold a visible event of one of the realms, or of any realm if none are
+         * given
+         */
+        long first(Collection<?> realmIds) {
+            long first = all;
+            if (realmIds != null && !realmIds.isEmpty()) {
+                long lowest = Long.MAX_VALUE;
+                for (Object realmId : realmIds) {
+                    Cutoff cutoff = cutoffs.get(realmId);
+                    lowest = Math.min(lowest, cutoff == null ? 0 : cutoff.sequence);
+                }
+                first = Math.max(first, lowest);
+            }
+            return first;
+        }
+
+        @Override
+        public boolean isVisible(long sequence, T event) {
+            if (sequence < all) {
+                return false;
+            }
+            if (cutoffs.isEmpty()) {
+                return true;
+            }
+            String realmId = realm.apply(event);
+            Cutoff cutoff = realmId == null ? null : cutoffs.get(realmId);
+            return cutoff == null || (sequence >= cutoff.sequence && time.applyAsLong(event) >= cutoff.time);
+        }
+    }
+
+    private static final class Cutoff {
+
+        private static final Cutoff NONE = new Cutoff(0, Long.MIN_VALUE);
+
+        private final long sequence;
+        private final long time;
+
+        private Cutoff(long sequence, long time) {
+            this.sequence = sequence;
+            this.time = time;
+        }
+    }
+}
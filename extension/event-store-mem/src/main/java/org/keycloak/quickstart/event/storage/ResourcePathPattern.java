@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled form of the resource path given to {@link MemAdminEventQuery#resourcePath(String)}. Patterns made of plain
+ * path characters and at least one {@code *} are globs that have to match the whole resource path, like in the JPA
+ * event store, where {@code *} matches any characters. Any other pattern is a regular expression that has to match a
+ * part of the resource path. Compiled patterns are cached and shared by all queries. Globs and expressions anchored
+ * with {@code ^} that start with whole path segments narrow down the events to check through the resource path indexes
+ * of the {@link AdminEventLog}; the pattern still decides about every event found there.
+ */
+final class ResourcePathPattern implements Predicate<String> {
+
+    /**
+     * Number of leading path segments covered by the resource path indexes.
+     */
+    static final int INDEXED_SEGMENTS = 2;
+
+    private static final int MAX_CACHED_PATTERNS = 1024;
+    private static final Pattern GLOB = Pattern.compile("[\\w\\-/]*\\*[\\w\\-/*]*");
+    private static final ConcurrentMap<String, ResourcePathPattern> cache = new ConcurrentHashMap<>();
+
+    private final Pattern regex;
+    /**
+     * Characters every matching path starts with, or {@code null} if the expression is not anchored.
+     */
+    private final String prefix;
+    /**
+     * Whether the prefix is the whole matching path.
+     */
+    private final boolean exact;
+
+    private ResourcePathPattern(String pattern) {
+        if (GLOB.matcher(pattern).matches()) {
+            this.regex = Pattern.compile(globToRegex(pattern));
+            this.prefix = pattern.substring(0, pattern.indexOf('*'));
+            this.exact = false;
+        } else {
+            this.regex = Pattern.compile(pattern);
+            this.prefix = anchoredPrefix(pattern);
+            this.exact = prefix != null && pattern.equals("^" + prefix + "$");
+        }
+    }
+
+    /**
+     * @return an expression matching the whole path, where {@code *} matches any characters
+     */
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder("^");
+        int start = 0;
+        for (int star = glob.indexOf('*'); star != -1; star = glob.indexOf('*', start)) {
+            if (star > start) {
+                regex.append(Pattern.quote(glob.substring(start, star)));
+            }
+            regex.append(".*");
+            start = star + 1;
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return regex.append('$').toString();
+    }
+
+    private static String anchoredPrefix(String pattern) {
+        if (!pattern.startsWith("^") || pattern.indexOf('|') != -1) {
+            return null;
+        }
+        int end = 1;
+        while (end < pattern.length() && isLiteral(pattern.charAt(end))) {
+            end++;
+        }
+        // A quantifier makes the character before it optional
+        if (end < pattern.length() && "?*+{".indexOf(pattern.charAt(end)) != -1) {
+            end--;
+        }
+        return pattern.substring(1, end);
+    }
+
+    private static boolean isLiteral(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '/';
+    }
+
+    static ResourcePathPattern compile(String pattern) {
+        ResourcePathPattern compiled = cache.get(pattern);
+        if (compiled == null) {
+            if (cache.size() >= MAX_CACHED_PATTERNS) {
+                cache.clear();
+            }
+            compiled = new ResourcePathPattern(pattern);
+            cache.putIfAbsent(pattern, compiled);
+        }
+        return compiled;
+    }
+
+    @Override
+    public boolean test(String path) {
+        return path != null && regex.matcher(path).find();
+    }
+
+    /**
+     * @return the leading segments every matching path has in common, or {@code null} if matching paths may differ
+     * in them
+     */
+    String indexKey(int count) {
+        if (prefix == null) {
+            return null;
+        }
+        if (exact) {
+            return segments(prefix, count);
+        }
+        int end = -1;
+        for (int i = 0; i < count; i++) {
+            end = prefix.indexOf('/', end + 1);
+            if (end == -1) {
+                return null;
+            }
+        }
+        return prefix.substring(0, end);
+    }
+
+    /**
+     * @return the first segments of the path, or {@code null} if the path has fewer segments
+     */
+    static String segments(String path, int count) {
+        if (path == null) {
+            return null;
+        }
+        int end = -1;
+        for (int i = 0; i < count; i++) {
+            end = path.indexOf('/', end + 1);
+            if (end == -1) {
+                return i == count - 1 ? path : null;
+            }
+        }
+        return path.substring(0, end);
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Caps the number of events retained per key, for example per realm or per event type, so that a single busy key
+ * cannot take over the results of the whole log. The events of a key with a quota are kept in a partition of their
+ * own, a log created when the first event of the key arrives. Once the key exceeds its quota, its newest events
+ * overwrite its oldest ones in constant time, and the events of other keys are not touched. Events of keys without a
+ * quota stay in the shared log.
+ * <p>
+ * With quotas on several keys, for example per realm and per event type, every combination of keys with a quota gets a
+ * partition whose quota is the smallest of their quotas.
+ * <p>
+ * A partition starts with a capacity of at most {@value #INITIAL_CAPACITY} events and is replaced by one of twice the
+ * capacity, up to its quota, whenever it is full. The capacity of all partitions together is bounded; once the bound
+ * is reached, partitions stop growing and the events of further keys stay in the shared log. Partitions whose events
+ * were all cleared or expired are dropped, which frees their capacity for other keys.
+ */
+class RetentionQuota<T> {
+
+    private static final Logger logger = Logger.getLogger(RetentionQuota.class);
+
+    static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Returned by {@link #add(Object, EventJournal)} if the event is not kept in a partition.
+     */
+    static final long NONE = -1;
+
+    private final IntFunction<IndexedEventLog<T>> factory;
+    private final List<Key<T>> keys = new ArrayList<>();
+    private final ConcurrentMap<List<String>, Partition<T>> partitions = new ConcurrentHashMap<>();
+    private final AtomicLong capacity = new AtomicLong();
+    private final AtomicLong unpartitioned = new AtomicLong();
+    private final AtomicLong reportedUnpartitioned = new AtomicLong();
+    private long maxCapacity = Long.MAX_VALUE;
+
+    /**
+     * @param factory creates an empty partition of the given capacity
+     */
+    RetentionQuota(IntFunction<IndexedEventLog<T>> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Adds a quota on a key. Must be called before the first event is partitioned.
+     *
+     * @param quotas quota of specific values of the key
+     * @param defaultQuota quota of the other values, zero for none
+     */
+    void add(String name, Function<T, String> key, Map<String, Long> quotas, long defaultQuota) {
+        keys.add(new Key<>(name, key, quotas, defaultQuota));
+    }
+
+    /**
+     * Bounds the capacity of all partitions together. Must be called before the first event is partitioned.
+     */
+    void maxCapacity(long maxCapacity) {
+        this.maxCapacity = maxCapacity;
+    }
+
+    /**
+     * Adds the event to the partition of its keys, through the journal if there is one.
+     *
+     * @return the sequence assigned to the event in the partition, or {@link #NONE} if none of its keys has a quota or
+     * there is no capacity left for a partition of its keys
+     */
+    long add(T event, EventJournal<T> journal) {
+        if (keys.isEmpty()) {
+            return NONE;
+        }
+        while (true) {
+            Partition<T> partition = partition(event);
+            if (partition == null) {
+                return NONE;
+            }
+            IndexedEventLog<T> log = partition.log;
+            if (log.head() >= log.events.capacity() && log.events.capacity() < partition.quota) {
+                grow(partition);
+            }
+            Lock lock = partition.lock.readLock();
+            lock.lock();
+            try {
+                if (partition.removed) {
+                    continue;
+                }
+                log = partition.log;
+                long sequence = journal != null ? journal.append(event, log.events) : log.events.add(event);
+                if (sequence >= log.events.capacity()) {
+                    partition.evicted.incrementAndGet();
+                }
+                return sequence;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Partition<T> partition(T event) {
+        String[] values = null;
+        long quota = Integer.MAX_VALUE;
+        for (int i = 0; i < keys.size(); i++) {
+            Key<T> key = keys.get(i);
+            String value = key.key.apply(event);
+            long limit = value == null ? 0 : key.quotas.getOrDefault(value, key.defaultQuota);
+            if (limit > 0) {
+                if (values == null) {
+                    values = new String[keys.size()];
+                }
+                values[i] = value;
+                quota = Math.min(quota, limit);
+            }
+        }
+        if (values == null) {
+            return null;
+        }
+        int limit = (int) quota;
+        Partition<T> partition = partitions.computeIfAbsent(Arrays.asList(values), key -> {
+            int initial = Math.min(limit, INITIAL_CAPACITY);
+            return reserve(initial) ? new Partition<>(key, factory.apply(initial), describe(key), limit) : null;
+        });
+        if (partition == null) {
+            unpartitioned.incrementAndGet();
+        }
+        return partition;
+    }
+
+    private boolean reserve(int events) {
+        long reserved = capacity.addAndGet(events);
+        if (reserved > maxCapacity) {
+            capacity.addAndGet(-events);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a full partition by one of twice its capacity, up to its quota, holding the events visible in it.
+     */
+    private void grow(Partition<T> partition) {
+        Lock lock = partition.lock.writeLock();
+        lock.lock();
+        try {
+            IndexedEventLog<T> log = partition.log;
+            int current = log.events.capacity();
+            if (partition.removed || log.head() < current || current >= partition.quota) {
+                return;
+            }
+            int grown = (int) Math.min(partition.quota, 2L * current);
+            if (!reserve(grown - current)) {
+                return;
+            }
+            IndexedEventLog<T> larger = factory.apply(grown);
+            log.copyTo(larger);
+            partition.log = larger;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String describe(List<String> values) {
+        List<String> described = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) != null) {
+                described.add(keys.get(i).name + " " + values.get(i));
+            }
+        }
+        return String.join(", ", described);
+    }
+
+    /**
+     * @return the partitions created so far
+     */
+    List<IndexedEventLog<T>> partitions() {
+        List<IndexedEventLog<T>> logs = new ArrayList<>(partitions.size());
+        for (Partition<T> partition : partitions.values()) {
+            logs.add(partition.log);
+        }
+        return logs;
+    }
+
+    /**
+     * Applies a clear or expiration to every partition. Waits for partitions that are being replaced by larger ones,
+     * but not for events being added, as those may wait for the journal held by a clear.
+     */
+    void forEach(Consumer<IndexedEventLog<T>> action) {
+        for (Partition<T> partition : partitions.values()) {
+            Lock lock = partition.lock.readLock();
+            while (!lock.tryLock()) {
+                Thread.yield();
+            }
+            try {
+                action.accept(partition.log);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drops the partitions that have no visible events left.
+     */
+    void dropEmpty() {
+        for (Partition<T> partition : partitions.values()) {
+            Lock lock = partition.lock.writeLock();
+            if (!lock.tryLock()) {
+                // Events are being added to it
+                continue;
+            }
+            try {
+                if (partition.log.isEmpty()) {
+                    partition.removed = true;
+                    partitions.remove(partition.key, partition);
+                    capacity.addAndGet(-partition.log.events.capacity());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the number of events evicted so far by the quota of every partition, by the keys of the partition
+     */
+    Map<String, Long> evictions() {
+        Map<String, Long> evictions = new LinkedHashMap<>();
+        for (Partition<T> partition : partitions.values()) {
+            evictions.put(partition.description, partition.evicted.get());
+        }
+        return evictions;
+    }
+
+    /**
+     * Logs the partitions that evicted events since the last report.
+     */
+    void report() {
+        for (Partition<T> partition : partitions.values()) {
+            long evicted = partition.evicted.get();
+            long reported = partition.reported.getAndSet(evicted);
+            if (evicted > reported) {
+                logger.infof("Evicted %d events of %s over its quota of %d", evicted - reported, partition.description,
+                        partition.quota);
+            }
+        }
+        long kept = unpartitioned.get();
+        long reported = reportedUnpartitioned.getAndSet(kept);
+        if (kept > reported) {
+            logger.warnf("Kept %d events of keys with a quota with the other events, as the partitions reached their "
+                    + "capacity of %d events", kept - reported, maxCapacity);
+        }
+    }
+    private static class Key<T> {
+
+        private final String name;
+        private final Function<T, String> key;
+        private final Map<String, Long> quotas;
+        private final long defaultQuota;
+
+        private Key(String name, Function<T, String> key, Map<String, Long> quotas, long defaultQuota) {
+            this.name = name;
+            this.key = key;
+            this.quotas = quotas;
+            this.defaultQuota = defaultQuota;
+        }
+    }
+
+    private static class Partition<T> {
+
+        private final List<String> key;
+        private final String description;
+        private final int quota;
+        /**
+         * Held for reading while events are added or cleared, for writing while the log is replaced or dropped.
+         */
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final AtomicLong evicted = new AtomicLong();
+        private final AtomicLong reported = new AtomicLong();
+        private volatile IndexedEventLog<T> log;
+        private boolean removed;
+
+        private Partition(List<String> key, IndexedEventLog<T> log, String description, int quota) {
+            this.key = key;
+            this.log = log;
+            this.description = description;
+            this.quota = quota;
+        }
+    }
+}
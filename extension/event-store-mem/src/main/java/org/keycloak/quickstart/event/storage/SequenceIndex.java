@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Secondary index over an {@link EventRingBuffer}. For every key the index remembers the sequence of the newest event
+ * with that key, and every slot of the ring buffer remembers the sequence of the previous event with the same key.
+ * Walking that chain visits only the events of one key, and the chain is overwritten together with the events, so the
+ * index needs no separate cleanup of its entries.
+ * <p>
+ * Chains are ordered by descending sequence. Writers link their events in whatever order they get to it, so a writer
+ * that finds a newer sequence already linked inserts its event further down the chain instead of in front of it.
+ */
+class SequenceIndex<T> implements EventRingBuffer.Indexer<T> {
+
+    private final EventRingBuffer<T> events;
+    private final Function<T, ?> key;
+    private final ConcurrentMap<Object, Chain> chains = new ConcurrentHashMap<>();
+    private final AtomicLongArray previous;
+
+    SequenceIndex(EventRingBuffer<T> events, Function<T, ?> key) {
+        this.events = events;
+        this.key = key;
+        this.previous = new AtomicLongArray(events.capacity());
+    }
+
+    @Override
+    public void link(long sequence, T event) {
+        Object k = key.apply(event);
+        int index = events.index(sequence);
+        if (k == null) {
+            previous.set(index, SequenceCursor.NONE);
+            return;
+        }
+        Chain chain = chains.computeIfAbsent(k, x -> new Chain());
+        chain.size.increment();
+        while (true) {
+            long latest = chain.latest.get();
+            if (latest < sequence) {
+                previous.set(index, latest);
+                if (chain.latest.compareAndSet(latest, sequence)) {
+                    return;
+                }
+                continue;
+            }
+            // A concurrent writer with a newer sequence linked first, insert behind the last newer link
+            long newer = latest;
+            long older = previous.get(events.index(newer));
+            while (older > sequence && older < newer) {
+                newer = older;
+                older = previous.get(events.index(newer));
+            }
+            previous.set(index, older < newer ? older : SequenceCursor.NONE);
+            if (previous.compareAndSet(events.index(newer), older, sequence)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return upper bound of the number of stored events with the key
+     */
+    long estimate(Object k) {
+        Chain chain = chains.get(k);
+        return chain == null ? 0 : Math.min(chain.size.sum(), events.capacity());
+    }
+
+    long estimate(Collection<?> keys) {
+        long estimate = 0;
+        for (Object k : keys) {
+            estimate += estimate(k);
+        }
+        return estimate;
+    }
+
+    SequenceCursor cursor(Object k, long head) {
+        Chain chain = chains.get(k);
+        if (chain == null) {
+            return () -> SequenceCursor.NONE;
+        }
+        return new ChainCursor(chain.latest.get(), head);
+    }
+
+    SequenceCursor cursor(Collection<?> keys, long head) {
+        if (keys.size() == 1) {
+            return cursor(keys.iterator().next(), head);
+        }
+        List<SequenceCursor> cursors = new ArrayList<>(keys.size());
+        for (Object k : keys) {
+            cursors.add(cursor(k, head));
+        }
+        return new MergeCursor(cursors);
+    }
+
+    /**
+     * Picks the index whose keys are expected to match the fewest events.
+     *
+     * @param constraints the keys the query requires for each index
+     * @return cursor over the candidate sequences, or {@code null} if there are no constraints
+     */
+    static <T> SequenceCursor select(Map<SequenceIndex<T>, Collection<?>> constraints, long head) {
+        SequenceIndex<T> selected = null;
+        long best = Long.MAX_VALUE;
+        for (Map.Entry<SequenceIndex<T>, Collection<?>> constraint : constraints.entrySet()) {
+            long estimate = constraint.getKey().estimate(constraint.getValue());
+            if (estimate < best) {
+                best = estimate;
+                selected = constraint.getKey();
+            }
+        }
+        return selected == null ? null : selected.cursor(constraints.get(selected), head);
+    }
+
+    /**
+     * Forgets the keys whose newest event was already overwritten.
+     */
+    void purge() {
+        long tail = events.tail(events.head());
+        chains.values().removeIf(chain -> chain.latest.get() < tail);
+    }
+
+    private static class Chain {
+        private final AtomicLong latest = new AtomicLong(SequenceCursor.NONE);
+        private final LongAdder size = new LongAdder();
+    }
+
+    private class ChainCursor implements SequenceCursor {
+
+        private final long head;
+        private long next;
+
+        private ChainCursor(long latest, long head) {
+            this.next = latest;
+            this.head = head;
+        }
+
+        @Override
+        public long next() {
+            while (next != NONE) {
+                long sequence = next;
+                if (!events.awaitPublished(sequence)) {
+                    next = NONE;
+                    return NONE;
+                }
+                long older = previous.get(events.index(sequence));
+                next = older < sequence ? older : NONE;
+                if (!events.isStored(sequence)) {
+                    next = NONE;
+                    return NONE;
+                }
+                if (sequence < head) {
+                    return sequence;
+                }
+            }
+            return NONE;
+        }
+    }
+
+    private static class MergeCursor implements SequenceCursor {
+
+        private final List<SequenceCursor> cursors;
+        private final long[] current;
+
+        private MergeCursor(List<SequenceCursor> cursors) {
+            this.cursors = cursors;
+            this.current = new long[cursors.size()];
+            for (int i = 0; i < current.length; i++) {
+                current[i] = cursors.get(i).next();
+            }
+        }
+
+        @Override
+        public long next() {
+            int newest = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] != NONE && (newest == -1 || current[i] > current[newest])) {
+                    newest = i;
+                }
+            }
+            if (newest == -1) {
+                return NONE;
+            }
+            long sequence = current[newest];
+            current[newest] = cursors.get(newest).next();
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+/**
+ * Keeps the events serialized in a {@link ByteArena}; only the position and length of every record stay in the slots.
+ */
+class SerializedSlots<T> implements EventRingBuffer.Slots<T> {
+
+    private final EventCodec<T> codec;
+    private final ByteArena arena;
+    private final ThreadLocal<RecordWriter> writers = ThreadLocal.withInitial(RecordWriter::new);
+    private final long[] positions;
+    private final int[] lengths;
+
+    SerializedSlots(int size, EventCodec<T> codec, ByteArena arena) {
+        this.codec = codec;
+        this.arena = arena;
+        this.positions = new long[size];
+        this.lengths = new int[size];
+    }
+
+    @Override
+    public void write(int index, T event) {
+        RecordWriter record = writers.get().reset();
+        codec.write(event, record);
+        long position = arena.append(record.buffer(), record.length());
+        positions[index] = position;
+        lengths[index] = position < 0 ? -1 : record.length();
+    }
+
+    @Override
+    public T read(int index, long sequence, EventRingBuffer<T> buffer) {
+        long position = positions[index];
+        int length = lengths[index];
+        byte[] copy = length >= 0 && length <= arena.capacity() ? arena.copy(position, length) : null;
+        if (!buffer.isUnchanged(sequence) || copy == null || !arena.isRetained(position)) {
+            return null;
+        }
+        return codec.read(new RecordReader(copy));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps frequently repeated strings such as realm ids or client ids to small integers. The dictionary only grows up to
+ * the given size; strings that do not fit any more are not encoded.
+ */
+class StringDictionary {
+
+    static final int NULL = -1;
+    static final int NOT_ENCODED = -2;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<String> strings;
+    private int size;
+
+    StringDictionary(int maxSize) {
+        this.strings = new AtomicReferenceArray<>(maxSize);
+    }
+
+    /**
+     * @return id of the string, {@link #NULL} or {@link #NOT_ENCODED} if the dictionary is full
+     */
+    int encode(String string) {
+        if (string == null) {
+            return NULL;
+        }
+        Integer id = ids.get(string);
+        if (id != null) {
+            return id;
+        }
+        if (size >= strings.length()) {
+            return NOT_ENCODED;
+        }
+        return add(string);
+    }
+
+    private synchronized int add(String string) {
+        Integer id = ids.get(string);
+        if (id != null) {
+            return id;
+        }
+        if (size >= strings.length()) {
+            return NOT_ENCODED;
+        }
+        strings.set(size, string);
+        ids.put(string, size);
+        return size++;
+    }
+
+    String decode(int id) {
+        return id == NULL ? null : strings.get(id);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Returns the matching events of a scan ordered by event time. Sequences follow event time closely but not
+ * exactly, so the events are collected in a small buffer and an event is only returned once the time bounds of the
+ * segments guarantee that none of the sequences still to come holds an event that goes before it. The buffer never
+ * holds more events than the caller can still take, the worst ones are dropped.
+ */
+class TimeOrderedSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+    private final EventScan<T> scan;
+    private final ToLongFunction<T> time;
+    private final TimeSegments.Bounds bounds;
+    private final boolean newestFirst;
+    private final TreeSet<Entry<T>> buffer;
+    private long remaining;
+    private long position = SequenceCursor.NONE;
+    private boolean exhausted;
+
+    /**
+     * @param scan matching events of the sequences in the requested order
+     * @param limit number of events the caller takes at most
+     */
+    TimeOrderedSpliterator(EventScan<T> scan, ToLongFunction<T> time, TimeSegments.Bounds bounds, boolean newestFirst,
+            long limit) {
+        super(limit, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.scan = scan;
+        this.time = time;
+        this.bounds = bounds;
+        this.newestFirst = newestFirst;
+        this.remaining = limit;
+        Comparator<Entry<T>> order = Comparator.<Entry<T>>comparingLong(e -> e.time).thenComparingLong(e -> e.sequence);
+        this.buffer = new TreeSet<>(newestFirst ? order.reversed() : order);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (remaining > 0) {
+            if (!buffer.isEmpty() && (exhausted || isFinal(buffer.first().time))) {
+                remaining--;
+                action.accept(buffer.pollFirst().event);
+                return true;
+            }
+            if (exhausted) {
+                return false;
+            }
+            long sequence = scan.next();
+            if (sequence == SequenceCursor.NONE) {
+                exhausted = true;
+                continue;
+            }
+            position = sequence;
+            T event = scan.event();
+            if (event == null) {
+                continue;
+            }
+            buffer.add(new Entry<>(time.applyAsLong(event), sequence, event));
+            if (buffer.size() > remaining) {
+                buffer.pollLast();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether no event of the sequences still to come can go before an event of the given time
+     */
+    private boolean isFinal(long t) {
+        return newestFirst ? t >= bounds.newestBefore(position) : t <= bounds.oldestAfter(position);
+    }
+
+    private static class Entry<T> {
+
+        private final long time;
+        private final long sequence;
+        private final T event;
+
+        private Entry(long time, long sequence, T event) {
+            this.time = time;
+            this.sequence = sequence;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Splits the sequences of an {@link EventRingBuffer} into time-ordered segments, a new one per minute of event time.
+ * Every segment tracks the oldest and newest event time of the sequences it covers, so a time range can be translated
+ * to a range of sequences by looking at the segments only. Segments can also keep a {@link BloomFilter} of the values
+ * of a {@link Sketch}, so that a query for a value skips the segments that cannot hold it.
+ */
+class TimeSegments<T> implements EventRingBuffer.Indexer<T> {
+
+    static final long SEGMENT_MILLIS = 60 * 1000;
+
+    private final EventRingBuffer<T> events;
+    private final ToLongFunction<T> time;
+    private final List<Sketch<T>> sketches = new ArrayList<>();
+    private volatile Segment[] segments = new Segment[0];
+
+    TimeSegments(EventRingBuffer<T> events, ToLongFunction<T> time) {
+        this.events = events;
+        this.time = time;
+    }
+
+    /**
+     * Keeps a filter of the values of the key in every segment. Must be called before the first event is added.
+     */
+    Sketch<T> sketch(Function<T, String> key) {
+        Sketch<T> sketch = new Sketch<>(sketches.size(), key);
+        sketches.add(sketch);
+        return sketch;
+    }
+
+    /**
+     * @return the sketch that corresponds to a sketch of other time segments with the same sketches
+     */
+    Sketch<T> sketch(Sketch<T> other) {
+        return sketches.get(other.index);
+    }
+
+    @Override
+    public void link(long sequence, T event) {
+        long t = time.applyAsLong(event);
+        long bucket = t - Math.floorMod(t, SEGMENT_MILLIS);
+        Segment[] current = segments;
+        if (current.length == 0 || bucket > current[current.length - 1].bucket) {
+            open(bucket);
+        }
+        // A segment opened concurrently may have taken over the sequence, so repeat until the segments are stable
+        do {
+            current = segments;
+            Segment segment = find(current, sequence);
+            segment.include(t);
+            for (Sketch<T> sketch : sketches) {
+                String value = sketch.key.apply(event);
+                if (value != null) {
+                    segment.filters[sketch.index].add(value);
+                }
+            }
+        } while (current != segments);
+    }
+
+    private synchronized void open(long bucket) {
+        Segment[] current = segments;
+        if (current.length > 0 && bucket <= current[current.length - 1].bucket) {
+            return;
+        }
+        long head = events.head();
+        long tail = events.tail(head);
+        int retained = 0;
+        while (retained < current.length - 1 && current[retained + 1].first <= tail) {
+            retained++;
+        }
+        Segment[] opened = Arrays.copyOfRange(current, retained, current.length + 1);
+        // The first segment covers everything stored so far, including the event that opened it
+        opened[opened.length - 1] = new Segment(bucket, current.length == 0 ? 0 : head, sketches.size());
+        segments = opened;
+    }
+
+    private static Segment find(Segment[] segments, long sequence) {
+        int low = 0;
+        int high = segments.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments[mid].first <= sequence) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return segments[low];
+    }
+
+    /**
+     * @return the first sequence that may hold an event not older than the given time
+     */
+    long lowerBound(long from, long head) {
+        Segment[] current = segments;
+        for (Segment segment : current) {
+            if (segment.first >= head) {
+                break;
+            }
+            if (segment.maxTime.get() >= from) {
+                return segment.first;
+            }
+        }
+        return head;
+    }
+
+    /**
+     * @return the sequence after the last one that may hold an event not newer than the given time
+     */
+    long upperBound(long to, long head) {
+        Segment[] current = segments;
+        long end = head;
+        for (int i = current.length - 1; i >= 0; i--) {
+            Segment segment = current[i];
+            if (segment.first < head && segment.minTime.get() <= to) {
+                return end;
+            }
+            end = Math.min(end, segment.first);
+        }
+        return end;
+    }
+
+    /**
+     * Iterates over the sequences between the given ones, skipping the segments whose filters rule out one of the
+     * probed values.
+     *
+     * @param from first sequence, inclusive
+     * @param to last sequence, exclusive
+     * @param probes the value every returned sequence may hold for each sketch
+     */
+    SequenceCursor cursor(long from, long to, boolean newestFirst, Map<Sketch<T>, String> probes) {
+        Segment[] current = segments;
+        long low = Math.max(from, events.tail(to));
+        List<long[]> ranges = new ArrayList<>();
+        for (int i = 0; i < current.length; i++) {
+            long start = Math.max(low, current[i].first);
+            long end = Math.min(to, i + 1 < current.length ? current[i + 1].first : to);
+            if (start < end && current[i].mightContain(probes)) {
+                ranges.add(new long[] { start, end });
+            }
+        }
+        if (!newestFirst) {
+            Collections.reverse(ranges);
+        }
+        return new SequenceCursor() {
+            private int range = ranges.size();
+            private SequenceCursor cursor = () -> NONE;
+
+            @Override
+            public long next() {
+                long sequence;
+                while ((sequence = cursor.next()) == NONE && range > 0) {
+                    long[] next = ranges.get(--range);
+                    cursor = events.cursor(next[0], next[1], newestFirst);
+                }
+                return sequence;
+            }
+        };
+    }
+
+    /**
+     * Takes the time bounds of the segments that start before the given head.
+     */
+    Bounds bounds(long head) {
+        Segment[] current = segments;
+        int count = 0;
+        while (count < current.length && current[count].first < head) {
+            count++;
+        }
+        long[] firsts = new long[count];
+        long[] newestBefore = new long[count];
+        long[] oldestAfter = new long[count];
+        long newest = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            firsts[i] = current[i].first;
+            newest = Math.max(newest, current[i].maxTime.get());
+            newestBefore[i] = newest;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (int i = count - 1; i >= 0; i--) {
+            oldest = Math.min(oldest, current[i].minTime.get());
+            oldestAfter[i] = oldest;
+        }
+        return new Bounds(firsts, newestBefore, oldestAfter);
+    }
+
+    /**
+     * Event times of the sequences before and after a given sequence, as they were when the bounds were taken.
+     */
+    static class Bounds {
+
+        private final long[] firsts;
+        private final long[] newestBefore;
+        private final long[] oldestAfter;
+
+        private Bounds(long[] firsts, long[] newestBefore, long[] oldestAfter) {
+            this.firsts = firsts;
+            this.newestBefore = newestBefore;
+            this.oldestAfter = oldestAfter;
+        }
+
+        /**
+         * @return an upper bound of the times of the events stored before the sequence
+         */
+        long newestBefore(long sequence) {
+            int i = segment(sequence);
+            return i < 0 ? Long.MIN_VALUE : newestBefore[i];
+        }
+
+        /**
+         * @return a lower bound of the times of the events stored after the sequence
+         */
+        long oldestAfter(long sequence) {
+            int i = segment(sequence);
+            return i < 0 ? oldestAfter.length == 0 ? Long.MAX_VALUE : oldestAfter[0] : oldestAfter[i];
+        }
+
+        private int segment(long sequence) {
+            int low = 0;
+            int high = firsts.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (firsts[mid] <= sequence) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low - 1;
+        }
+    }
+
+    /**
+     * Key whose values are kept in a filter per segment.
+     */
+    static class Sketch<T> {
+
+        private final int index;
+        private final Function<T, String> key;
+
+        private Sketch(int index, Function<T, String> key) {
+            this.index = index;
+            this.key = key;
+        }
+    }
+
+    private static class Segment {
+
+        private final long bucket;
+        private final long first;
+        private final AtomicLong minTime = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong maxTime = new AtomicLong(Long.MIN_VALUE);
+
+        private final BloomFilter[] filters;
+
+        private Segment(long bucket, long first, int sketches) {
+            this.bucket = bucket;
+            this.first = first;
+            this.filters = new BloomFilter[sketches];
+            for (int i = 0; i < sketches; i++) {
+                filters[i] = new BloomFilter();
+            }
+        }
+
+        private void include(long time) {
+            minTime.accumulateAndGet(time, Math::min);
+            maxTime.accumulateAndGet(time, Math::max);
+        }
+
+        private <T> boolean mightContain(Map<Sketch<T>, String> probes) {
+            for (Map.Entry<Sketch<T>, String> probe : probes.entrySet()) {
+                if (!filters[probe.getKey().index].mightContain(probe.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
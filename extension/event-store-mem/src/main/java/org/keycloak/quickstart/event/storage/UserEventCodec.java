@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes every field of a user event. The event type is written by name rather than by ordinal, as the order of the
+ * types may change between Keycloak versions and journals outlive the version that wrote them.
+ */
+class UserEventCodec implements EventCodec<Event> {
+
+    static final UserEventCodec INSTANCE = new UserEventCodec();
+
+    @Override
+    public void write(Event event, RecordWriter record) {
+        record.writeString(event.getId());
+        record.writeLong(event.getTime());
+        record.writeString(event.getType() == null ? null : event.getType().name());
+        record.writeString(event.getRealmId());
+        record.writeString(event.getClientId());
+        record.writeString(event.getUserId());
+        record.writeString(event.getSessionId());
+        record.writeString(event.getIpAddress());
+        record.writeString(event.getError());
+        writeDetails(event.getDetails(), record);
+    }
+
+    @Override
+    public Event read(RecordReader record) {
+        Event event = new Event();
+        event.setId(record.readString());
+        event.setTime(record.readLong());
+        String type = record.readString();
+        event.setRealmId(record.readString());
+        event.setClientId(record.readString());
+        event.setUserId(record.readString());
+        event.setSessionId(record.readString());
+        event.setIpAddress(record.readString());
+        event.setError(record.readString());
+        event.setDetails(readDetails(record));
+        event.setType(type == null ? null : EventType.valueOf(type));
+        return event;
+    }
+
+    static void writeDetails(Map<String, String> details, RecordWriter record) {
+        if (details == null) {
+            record.writeVarInt(0);
+            return;
+        }
+        record.writeVarInt(details.size() + 1);
+        for (Map.Entry<String, String> detail : details.entrySet()) {
+            record.writeString(detail.getKey());
+            record.writeString(detail.getValue());
+        }
+    }
+
+    static Map<String, String> readDetails(RecordReader record) {
+        int size = record.readVarInt() - 1;
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> details = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            details.put(record.readString(), record.readString());
+        }
+        return details;
+    }
+}
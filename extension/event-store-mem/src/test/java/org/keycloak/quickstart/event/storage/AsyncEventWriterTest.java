@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Checks the hand-over of events to the writer thread and the backpressure policies.
+ */
+public class AsyncEventWriterTest {
+
+    private final BlockingSlots slots = new BlockingSlots(100);
+    private final EventLog log = new EventLog(100, size -> slots);
+
+    @After
+    public void cleanup() {
+        slots.released.countDown();
+        log.close();
+    }
+
+    @Test
+    public void testBackpressureNames() {
+        Assert.assertEquals(AsyncEventWriter.Backpressure.BLOCK, AsyncEventWriter.Backpressure.of("block"));
+        Assert.assertEquals(AsyncEventWriter.Backpressure.DROP_OLDEST, AsyncEventWriter.Backpressure.of("drop-oldest"));
+        Assert.assertEquals(AsyncEventWriter.Backpressure.DROP, AsyncEventWriter.Backpressure.of("DROP"));
+    }
+
+    @Test
+    public void testClearWaitsForQueuedEvents() {
+        slots.released.countDown();
+        log.async("test-writer", 1000, 10, AsyncEventWriter.Backpressure.BLOCK);
+        for (int i = 0; i < 100; i++) {
+            log.submit(event(i));
+        }
+        log.expire("realm", 50);
+
+        Assert.assertEquals(50, ids().size());
+        Assert.assertEquals("event-99", ids().get(0));
+    }
+
+    @Test
+    public void testDropDiscardsNewEvents() throws Exception {
+        log.async("test-writer", 2, 10, AsyncEventWriter.Backpressure.DROP);
+        fillQueue();
+        log.submit(event(3));
+        slots.released.countDown();
+        log.clear("other");
+
+        Assert.assertEquals(List.of("event-2", "event-1", "event-0"), ids());
+    }
+
+    @Test
+    public void testDropOldestDiscardsQueuedEvents() throws Exception {
+        log.async("test-writer", 2, 10, AsyncEventWriter.Backpressure.DROP_OLDEST);
+        fillQueue();
+        log.submit(event(3));
+        slots.released.countDown();
+        log.clear("other");
+
+        Assert.assertEquals(List.of("event-3", "event-2", "event-0"), ids());
+    }
+
+    @Test
+    public void testBlockWaitsForRoom() throws Exception {
+        log.async("test-writer", 2, 10, AsyncEventWriter.Backpressure.BLOCK);
+        fillQueue();
+        Thread reporter = new Thread(() -> log.submit(event(3)));
+        reporter.start();
+        reporter.join(200);
+        Assert.assertTrue(reporter.isAlive());
+
+        slots.released.countDown();
+        reporter.join();
+        log.clear("other");
+        Assert.assertEquals(List.of("event-3", "event-2", "event-1", "event-0"), ids());
+    }
+
+    @Test
+    public void testCloseStoresQueuedEvents() throws Exception {
+        log.async("test-writer", 10, 10, AsyncEventWriter.Backpressure.BLOCK);
+        fillQueue();
+        slots.released.countDown();
+        log.close();
+
+        Assert.assertEquals(3, ids().size());
+    }
+
+    @Test
+    public void testFlushWaitsForTheCallersEvent() throws Exception {
+        EventLog log = new EventLog(10000, ObjectSlots::new);
+        AsyncEventWriter<Event> writer = new AsyncEventWriter<>(log, "test-writer", 16, 4,
+                AsyncEventWriter.Backpressure.BLOCK);
+        AtomicInteger missed = new AtomicInteger();
+        List<Thread> reporters = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String userId = "user-" + t;
+            reporters.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    Event event = event(i);
+                    event.setUserId(userId);
+                    writer.submit(event);
+                    writer.flush();
+                    if (new MemEventQuery(log, log.snapshot()).user(userId).getResultStream().count() != i + 1) {
+                        missed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        reporters.forEach(Thread::start);
+        for (Thread reporter : reporters) {
+            reporter.join();
+        }
+        writer.close();
+
+        Assert.assertEquals(0, missed.get());
+    }
+
+    /**
+     * Blocks the writer thread on the first event and queues two more.
+     */
+    private void fillQueue() throws InterruptedException {
+        log.submit(event(0));
+        Assert.assertTrue(slots.entered.await(10, TimeUnit.SECONDS));
+        log.submit(event(1));
+        log.submit(event(2));
+    }
+
+    private List<String> ids() {
+        return new MemEventQuery(log, log.snapshot()).getResultStream().map(Event::getId).collect(Collectors.toList());
+    }
+
+    private static Event event(int i) {
+        Event event = new Event();
+        event.setId("event-" + i);
+        event.setTime(i);
+        event.setType(EventType.LOGIN);
+        event.setRealmId("realm");
+        return event;
+    }
+
+    private static class BlockingSlots extends ObjectSlots<Event> {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private BlockingSlots(int size) {
+            super(size);
+        }
+
+        @Override
+        public void write(int index, Event event) {
+            entered.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(index, event);
+        }
+    }
+}
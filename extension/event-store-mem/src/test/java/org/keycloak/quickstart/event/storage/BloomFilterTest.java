@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+/**
+ * Checks that the Bloom filter never misses an added value and rarely reports one that was not added.
+ */
+public class BloomFilterTest {
+
+    @Test
+    public void testEmptyFilterContainsNothing() {
+        BloomFilter filter = new BloomFilter();
+
+        Assert.assertFalse(filter.mightContain("10.0.0.1"));
+        Assert.assertFalse(filter.mightContain(""));
+    }
+
+    @Test
+    public void testAddedValuesAreFoundWhileTheFilterGrows() {
+        BloomFilter filter = new BloomFilter();
+        for (int i = 0; i < 10_000; i++) {
+            filter.add(ip(i));
+            Assert.assertTrue(filter.mightContain(ip(i)));
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertTrue(ip(i), filter.mightContain(ip(i)));
+        }
+    }
+
+    @Test
+    public void testFalsePositivesAreRare() {
+        BloomFilter filter = new BloomFilter();
+        for (int i = 0; i < 10_000; i++) {
+            filter.add(ip(i));
+        }
+
+        long falsePositives = IntStream.range(10_000, 110_000).filter(i -> filter.mightContain(ip(i))).count();
+        // Every stage has a false positive rate of about one percent, and a lookup checks all of them
+        Assert.assertTrue("False positives: " + falsePositives, falsePositives < 100_000 * 0.1);
+    }
+
+    @Test
+    public void testConcurrentAddsAreNotLost() throws InterruptedException {
+        BloomFilter filter = new BloomFilter();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = offset; i < 20_000; i += threads.length) {
+                    filter.add(ip(i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < 20_000; i++) {
+            Assert.assertTrue(ip(i), filter.mightContain(ip(i)));
+        }
+    }
+
+    private static String ip(int i) {
+        return "10." + (i >>> 16 & 0xFF) + "." + (i >>> 8 & 0xFF) + "." + (i & 0xFF);
+    }
+}
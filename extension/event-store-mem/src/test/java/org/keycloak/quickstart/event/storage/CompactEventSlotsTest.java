@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Checks that user events survive the columnar encoding.
+ */
+public class CompactEventSlotsTest {
+
+    @Test
+    public void testEventsAreDecodedAsStored() {
+        EventRingBuffer<Event> events = buffer(16, 100, 128);
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("redirect_uri", "https://app.example.com/callback?a=b");
+        details.put("auth_method", "openid-connect");
+        details.put("note", null);
+        Event[] stored = {
+                event(UUID.randomUUID().toString(), "realm", "client", "10.0.0.1", details),
+                event("not-a-uuid", "realm", null, "::1", null),
+                event(UUID.randomUUID().toString().toUpperCase(), null, "client", null, new HashMap<>()),
+                event(null, "realm-é漢", "client", "10.0.0.2", Map.of("küy", "vålue")),
+        };
+        stored[1].setType(null);
+        stored[2].setError("invalid_user_credentials");
+
+        for (Event event : stored) {
+            events.add(event);
+        }
+        for (int i = 0; i < stored.length; i++) {
+            assertEvent(stored[i], events.get(i));
+        }
+    }
+
+    @Test
+    public void testStringsOutsideFullDictionariesAreKeptInRecords() {
+        EventRingBuffer<Event> events = buffer(16, 2, 128);
+        for (int i = 0; i < 10; i++) {
+            events.add(event(UUID.randomUUID().toString(), "realm-" + i, "client-" + i, "10.0.0." + i,
+                    Map.of("key-" + i, "value-" + i)));
+        }
+        for (int i = 0; i < 10; i++) {
+            Event event = events.get(i);
+            Assert.assertEquals("realm-" + i, event.getRealmId());
+            Assert.assertEquals("client-" + i, event.getClientId());
+            Assert.assertEquals("10.0.0." + i, event.getIpAddress());
+            Assert.assertEquals(Map.of("key-" + i, "value-" + i), event.getDetails());
+        }
+    }
+
+    @Test
+    public void testEventsWithOverwrittenRecordsAreNotReturned() {
+        // The arena only holds the records of a few events, so older slots lose their records before they are reused
+        EventRingBuffer<Event> events = buffer(64, 100, 8);
+        for (int i = 0; i < 64; i++) {
+            events.add(event(UUID.randomUUID().toString(), "realm", "client", "10.0.0.1",
+                    Map.of("redirect_uri", "https://app.example.com/callback/" + i)));
+        }
+
+        Assert.assertNull(events.get(0));
+        Assert.assertEquals("https://app.example.com/callback/63", events.get(63).getDetails().get("redirect_uri"));
+    }
+
+    @Test
+    public void testDictionaryStopsGrowingAtMaxSize() {
+        StringDictionary dictionary = new StringDictionary(2);
+        Assert.assertEquals(0, dictionary.encode("a"));
+        Assert.assertEquals(1, dictionary.encode("b"));
+        Assert.assertEquals(StringDictionary.NOT_ENCODED, dictionary.encode("c"));
+        Assert.assertEquals(0, dictionary.encode("a"));
+        Assert.assertEquals(StringDictionary.NULL, dictionary.encode(null));
+        Assert.assertEquals("b", dictionary.decode(1));
+        Assert.assertNull(dictionary.decode(StringDictionary.NULL));
+    }
+
+    private static EventRingBuffer<Event> buffer(int capacity, int dictionarySize, int bytesPerEvent) {
+        return new EventRingBuffer<>(capacity, size -> new CompactEventSlots(size, new StringDictionary(dictionarySize),
+                new StringDictionary(dictionarySize), new ByteArena((long) size * bytesPerEvent, false)));
+    }
+
+    static Event event(String id, String realmId, String clientId, String ipAddress, Map<String, String> details) {
+        Event event = new Event();
+        event.setId(id);
+        event.setTime(System.currentTimeMillis());
+        event.setType(EventType.CODE_TO_TOKEN);
+        event.setRealmId(realmId);
+        event.setClientId(clientId);
+        event.setUserId("user");
+        event.setSessionId("session");
+        event.setIpAddress(ipAddress);
+        event.setDetails(details);
+        return event;
+    }
+
+    static void assertEvent(Event expected, Event actual) {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected.getId(), actual.getId());
+        Assert.assertEquals(expected.getTime(), actual.getTime());
+        Assert.assertEquals(expected.getType(), actual.getType());
+        Assert.assertEquals(expected.getRealmId(), actual.getRealmId());
+        Assert.assertEquals(expected.getClientId(), actual.getClientId());
+        Assert.assertEquals(expected.getUserId(), actual.getUserId());
+        Assert.assertEquals(expected.getSessionId(), actual.getSessionId());
+        Assert.assertEquals(expected.getIpAddress(), actual.getIpAddress());
+        Assert.assertEquals(expected.getError(), actual.getError());
+        Assert.assertEquals(expected.getDetails(), actual.getDetails());
+    }
+}
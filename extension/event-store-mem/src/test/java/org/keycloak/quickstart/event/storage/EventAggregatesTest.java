@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Checks the rolling counters, histograms and top offenders of the user events.
+ */
+public class EventAggregatesTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long START = 26_000_000 * MINUTE;
+
+    private final EventAggregates aggregates = new EventAggregates(10, 100);
+
+    @Test
+    public void testCountsByGroupAndType() {
+        link(START, "realm", EventType.LOGIN, "client-1", "user-1");
+        link(START + 1, "realm", EventType.LOGIN_ERROR, "client-1", "user-2");
+        link(START + MINUTE, "realm", EventType.LOGIN_ERROR, "client-2", "user-2");
+        link(START + MINUTE, "other-realm", EventType.LOGIN_ERROR, "client-2", "user-2");
+
+        Assert.assertEquals(Map.of("client-1", 2L, "client-2", 1L),
+                aggregates.count("realm", EventAggregates.Dimension.CLIENT, null, START, START + 2 * MINUTE));
+        Assert.assertEquals(Map.of("user-2", 2L), aggregates.count("realm", EventAggregates.Dimension.USER,
+                EnumSet.of(EventType.LOGIN_ERROR), START, START + 2 * MINUTE));
+        Assert.assertEquals(Map.of("client-1", 2L),
+                aggregates.count("realm", EventAggregates.Dimension.CLIENT, null, START, START + MINUTE - 1));
+        Assert.assertEquals(Map.of(EventType.LOGIN, 1L, EventType.LOGIN_ERROR, 2L),
+                aggregates.countByType("realm", START, START + 2 * MINUTE));
+        Assert.assertEquals(Collections.emptyMap(), aggregates.countByType("unknown", START, START + 2 * MINUTE));
+    }
+
+    @Test
+    public void testHistogramIncludesEmptyMinutes() {
+        link(START, "realm", EventType.LOGIN, "client", "user");
+        link(START + 3 * MINUTE, "realm", EventType.LOGIN, "client", "user");
+        link(START + 3 * MINUTE + 5, "realm", EventType.LOGIN_ERROR, "client", "user");
+
+        SortedMap<Long, Long> expected = new TreeMap<>(Map.of(START, 1L, START + MINUTE, 0L, START + 2 * MINUTE, 0L,
+                START + 3 * MINUTE, 2L));
+        Assert.assertEquals(expected, aggregates.histogram("realm", null, START, Long.MAX_VALUE));
+        Assert.assertEquals(10, aggregates.histogram("realm", null, Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+        SortedMap<Long, Long> errors = new TreeMap<>(Map.of(START + 2 * MINUTE, 0L, START + 3 * MINUTE, 1L));
+        Assert.assertEquals(errors, aggregates.histogram("realm", EnumSet.of(EventType.LOGIN_ERROR),
+                START + 2 * MINUTE, START + 10 * MINUTE));
+    }
+
+    @Test
+    public void testTopGroups() {
+        for (int user = 1; user <= 5; user++) {
+            for (int i = 0; i < user; i++) {
+                link(START + i, "realm", EventType.LOGIN_ERROR, "client", "user-" + user);
+            }
+        }
+
+        List<Map.Entry<String, Long>> top = aggregates.top("realm", EventAggregates.Dimension.USER, null, START,
+                START + MINUTE, 3);
+        Assert.assertEquals(List.of(Map.entry("user-5", 5L), Map.entry("user-4", 4L), Map.entry("user-3", 3L)), top);
+        Assert.assertEquals(Collections.emptyList(),
+                aggregates.top("realm", EventAggregates.Dimension.USER, null, START, START + MINUTE, 0));
+    }
+
+    @Test
+    public void testOldMinutesLeaveTheWindow() {
+        link(START, "realm", EventType.LOGIN, "client", "user");
+        link(START + MINUTE, "realm", EventType.LOGIN, "client", "user");
+        link(START + 10 * MINUTE, "realm", EventType.LOGIN, "client", "user");
+        // An event of a minute that already left the window is not counted
+        link(START + 5, "realm", EventType.LOGIN, "client", "user");
+
+        Assert.assertEquals(Map.of(EventType.LOGIN, 2L),
+                aggregates.countByType("realm", Long.MIN_VALUE, Long.MAX_VALUE));
+        Assert.assertEquals(Collections.emptyMap(), aggregates.countByType("realm", START, START + MINUTE - 1));
+        SortedMap<Long, Long> histogram = aggregates.histogram("realm", null, Long.MIN_VALUE, Long.MAX_VALUE);
+        Assert.assertEquals(10, histogram.size());
+        Assert.assertEquals(START + MINUTE, (long) histogram.firstKey());
+        Assert.assertEquals(START + 10 * MINUTE, (long) histogram.lastKey());
+    }
+
+    @Test
+    public void testGroupsAreBounded() {
+        EventAggregates bounded = new EventAggregates(10, 2);
+        for (int i = 0; i < 5; i++) {
+            bounded.link(i, event(START, "realm", EventType.LOGIN, "client-" + i, "user"));
+        }
+        bounded.link(5, event(START, "realm", EventType.LOGIN, "client-0", "user"));
+
+        Assert.assertEquals(Map.of("client-0", 2L, "client-1", 1L, EventAggregates.OTHER, 3L),
+                bounded.count("realm", EventAggregates.Dimension.CLIENT, null, START, START));
+    }
+
+    @Test
+    public void testGroupsCountEveryTypeTheyHad() {
+        EventType[] types = EventType.values();
+        EventType last = types[types.length - 1];
+        for (int i = 0; i < types.length - 1; i++) {
+            link(START, "realm", types[i], "client", "user-1");
+            link(START, "realm", types[i], "client", "user-1");
+        }
+        link(START, "realm", last, "client", "user-2");
+
+        Assert.assertEquals(Map.of("user-1", 2L * (types.length - 1), "user-2", 1L),
+                aggregates.count("realm", EventAggregates.Dimension.USER, null, START, START));
+        Assert.assertEquals(Map.of("user-1", 2L, "user-2", 1L), aggregates.count("realm",
+                EventAggregates.Dimension.USER, EnumSet.of(types[0], last), START, START));
+        Assert.assertEquals(Map.of("user-2", 1L), aggregates.count("realm", EventAggregates.Dimension.USER,
+                EnumSet.of(last), START, START));
+    }
+
+    @Test
+    public void testConcurrentEventsOfAGroupAreCounted() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            EventType type = t % 2 == 0 ? EventType.LOGIN : EventType.LOGIN_ERROR;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    link(START, "realm", type, "client", "user");
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(Map.of("user", 20000L), aggregates.count("realm", EventAggregates.Dimension.USER,
+                EnumSet.of(EventType.LOGIN), START, START));
+        Assert.assertEquals(Map.of("client", 40000L),
+                aggregates.count("realm", EventAggregates.Dimension.CLIENT, null, START, START));
+    }
+
+    @Test
+    public void testClearForgetsRealms() {
+        link(START, "realm-1", EventType.LOGIN, "client", "user");
+        link(START, "realm-2", EventType.LOGIN, "client", "user");
+        link(START, null, EventType.LOGIN, "client", "user");
+        link(START, "realm-2", null, "client", "user");
+
+        aggregates.clear("realm-1");
+        Assert.assertEquals(Collections.emptyMap(), aggregates.countByType("realm-1", START, START));
+        Assert.assertEquals(Map.of(EventType.LOGIN, 1L), aggregates.countByType("realm-2", START, START));
+
+        aggregates.clear(null);
+        Assert.assertEquals(Collections.emptyMap(), aggregates.countByType("realm-2", START, START));
+    }
+
+    @Test
+    public void testLogMaintainsCountersOfAllPartitions() {
+        EventLog log = new EventLog(100, ObjectSlots::new);
+        log.aggregate(10, 100);
+        log.quota("realm", Event::getRealmId, Map.of("realm-1", 5L), 0);
+        for (int i = 0; i < 20; i++) {
+            log.add(event(START + i, "realm-" + (i % 2), EventType.LOGIN, "client", "user"));
+        }
+
+        Assert.assertEquals(Map.of(EventType.LOGIN, 10L), log.aggregates().countByType("realm-0", START, START));
+        Assert.assertEquals(Map.of(EventType.LOGIN, 10L), log.aggregates().countByType("realm-1", START, START));
+
+        log.clear("realm-1");
+        Assert.assertEquals(Collections.emptyMap(), log.aggregates().countByType("realm-1", START, START));
+    }
+
+    private void link(long time, String realmId, EventType type, String clientId, String userId) {
+        aggregates.link(0, event(time, realmId, type, clientId, userId));
+    }
+
+    private static Event event(long time, String realmId, EventType type, String clientId, String userId) {
+        Event event = new Event();
+        event.setTime(time);
+        event.setRealmId(realmId);
+        event.setType(type);
+        event.setClientId(clientId);
+        event.setUserId(userId);
+        return event;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Checks filtering and grouping of user events by detail values, with and without a detail index.
+ */
+public class EventDetailQueryTest {
+
+    private static final long TIME = 1_600_000_000_000L;
+
+    @Test
+    public void testIndexedAndUnindexedDetailsGiveTheSameResults() {
+        EventLog indexed = new EventLog(1000, ObjectSlots::new);
+        indexed.indexDetail("redirect_uri");
+        indexed.indexDetail("auth_method");
+        EventLog unindexed = new EventLog(1000, ObjectSlots::new);
+        add(indexed, 200);
+        add(unindexed, 200);
+
+        Assert.assertEquals(times(query(unindexed).detail("redirect_uri", "https://app-3/")),
+                times(query(indexed).detail("redirect_uri", "https://app-3/")));
+        Assert.assertEquals(times(query(unindexed).detail("auth_method", "saml").user("user-1").orderByAscTime()),
+                times(query(indexed).detail("auth_method", "saml").user("user-1").orderByAscTime()));
+        Assert.assertEquals(20, times(query(indexed).detail("redirect_uri", "https://app-3/")).size());
+    }
+
+    @Test
+    public void testDetailFilterCombinesWithOtherConstraints() {
+        EventLog log = new EventLog(1000, ObjectSlots::new);
+        log.indexDetail("redirect_uri");
+        add(log, 20);
+
+        Assert.assertEquals(List.of(TIME + 13, TIME + 3), times(query(log).detail("redirect_uri", "https://app-3/")));
+        Assert.assertEquals(List.of(TIME + 3),
+                times(query(log).detail("redirect_uri", "https://app-3/").user("user-3").toDate(new Date(TIME + 10))));
+        Assert.assertEquals(List.of(), times(query(log).detail("redirect_uri", "https://app-3/").realm("realm-0")));
+        Assert.assertEquals(List.of(), times(query(log).detail("redirect_uri", "https://app-0/")));
+        Assert.assertEquals(List.of(TIME + 3),
+                times(query(log).detail("redirect_uri", "https://app-3/").orderByAscTime().maxResults(1)));
+    }
+
+    @Test
+    public void testMissingDetailsNeverMatch() {
+        EventLog log = new EventLog(1000, ObjectSlots::new);
+        log.indexDetail("username");
+        add(log, 20);
+
+        Assert.assertEquals(List.of(), times(query(log).detail("username", "user-1")));
+        Assert.assertEquals(List.of(), times(query(log).detail("unknown", "value")));
+        Assert.assertEquals(Map.of(), query(log).countByDetail("username"));
+    }
+
+    @Test
+    public void testCountByDetail() {
+        EventLog log = new EventLog(1000, ObjectSlots::new);
+        log.indexDetail("auth_method");
+        add(log, 100);
+
+        Assert.assertEquals(Map.of("openid-connect", 50L, "saml", 50L), query(log).countByDetail("auth_method"));
+        Assert.assertEquals(Map.of("openid-connect", 10L, "saml", 10L),
+                query(log).user("user-2").maxResults(3).countByDetail("auth_method"));
+        Assert.assertEquals(Map.of("https://app-0/", 10L),
+                query(log).detail("auth_method", "openid-connect").user("user-0").countByDetail("redirect_uri"));
+    }
+
+    @Test
+    public void testPartitionsIndexTheDetails() {
+        EventLog log = new EventLog(1000, ObjectSlots::new);
+        log.indexDetail("redirect_uri");
+        log.quota("realm", Event::getRealmId, Map.of("realm-1", 500L), 0);
+        add(log, 20);
+
+        Assert.assertEquals(List.of(TIME + 13, TIME + 3), times(query(log).detail("redirect_uri", "https://app-3/")));
+        Assert.assertEquals(Map.of("https://app-3/", 2L), query(log).detail("redirect_uri", "https://app-3/")
+                .countByDetail("redirect_uri"));
+    }
+
+    private static MemEventQuery query(EventLog log) {
+        return new MemEventQuery(log, log.snapshot());
+    }
+
+    private static void add(EventLog log, int count) {
+        for (int i = 0; i < count; i++) {
+            Event event = new Event();
+            event.setTime(TIME + i);
+            event.setType(EventType.LOGIN);
+            event.setRealmId("realm-" + (i % 2));
+            event.setUserId("user-" + (i % 5));
+            if (count > 20 || i % 10 != 0) {
+                Map<String, String> details = new HashMap<>();
+                details.put("redirect_uri", "https://app-" + (i % 10) + "/");
+                details.put("auth_method", i % 2 == 0 ? "openid-connect" : "saml");
+                event.setDetails(details);
+            }
+            log.add(event);
+        }
+    }
+
+    private static List<Long> times(MemEventQuery query) {
+        return query.getResultStream().map(Event::getTime).collect(Collectors.toList());
+    }
+}
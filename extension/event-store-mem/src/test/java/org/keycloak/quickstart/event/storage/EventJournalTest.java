@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Restarts event logs backed by a journal in a temporary directory.
+ */
+public class EventJournalTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final List<EventLog> logs = new ArrayList<>();
+
+    public EventJournalTest() throws IOException {
+        directory = Files.createTempDirectory("event-journal-test");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        logs.forEach(EventLog::close);
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testEventsClearsAndExpirationsAreReplayed() {
+        EventLog log = open(SEGMENT_BYTES);
+        for (int i = 0; i < 300; i++) {
+            log.add(event("realm-" + (i % 3), 1000 + i));
+        }
+        log.expire("realm-1", 1150);
+        log.clear("realm-2");
+        log.add(event("realm-2", 2000));
+        List<String> before = ids(log);
+        log.close();
+
+        EventLog restored = open(SEGMENT_BYTES);
+        Assert.assertEquals(100 + 50 + 1, before.size());
+        Assert.assertEquals(before, ids(restored));
+    }
+
+    @Test
+    public void testReplayStopsAtCorruptRecord() throws IOException {
+        EventLog log = open(SEGMENT_BYTES);
+        for (int i = 0; i < 10; i++) {
+            log.add(event("realm", 1000 + i));
+        }
+        log.close();
+
+        // Flips a byte in the payload of the sixth record of the first segment
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int position = 4;
+            for (int i = 0; i < 5; i++) {
+                position += 4 + 1 + buffer.getInt(position) + 4;
+            }
+            int payload = position + 4 + 1 + 10;
+            buffer.put(payload, (byte) (buffer.get(payload) ^ 0xFF));
+        }
+
+        EventLog restored = open(SEGMENT_BYTES);
+        Assert.assertEquals(List.of("event-1004", "event-1003", "event-1002", "event-1001", "event-1000"), ids(restored));
+    }
+
+    @Test
+    public void testClearingAllEventsDeletesSegments() throws IOException {
+        EventLog log = open(4096);
+        for (int i = 0; i < 500; i++) {
+            log.add(event("realm", 1000 + i));
+        }
+        Assert.assertTrue(segments().size() > 2);
+
+        log.clear(null);
+        Assert.assertEquals(1, segments().size());
+        log.add(event("realm", 3000));
+        log.close();
+
+        Assert.assertEquals(List.of("event-3000"), ids(open(4096)));
+    }
+
+    @Test
+    public void testClearsRacingWithAppendsAreReplayedAsSeen() throws Exception {
+        EventLog log = open(4096);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            int writer = t;
+            writers.add(new Thread(() -> {
+                for (int i = 0; running.get(); i++) {
+                    log.add(event("realm-" + (i % 2), writer * 1_000_000L + i));
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(5);
+            log.clear(i % 4 == 0 ? null : "realm-" + (i % 2));
+        }
+        running.set(false);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        List<String> before = ids(log);
+        log.close();
+
+        Assert.assertEquals(before.stream().sorted().collect(Collectors.toList()),
+                ids(open(4096)).stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testQuotaPartitionsAreReplayed() {
+        EventLog log = open(SEGMENT_BYTES, Map.of("realm-0", 50L));
+        for (int i = 0; i < 300; i++) {
+            log.add(event("realm-" + (i % 3), 1000 + i));
+        }
+        log.clear("realm-1");
+        List<String> before = ids(log);
+        log.close();
+
+        EventLog restored = open(SEGMENT_BYTES, Map.of("realm-0", 50L));
+        Assert.assertEquals(50 + 100, before.size());
+        Assert.assertEquals(before, ids(restored));
+    }
+
+    @Test
+    public void testRecordsThatCannotBeDecodedAreSkipped() {
+        // Writes the event of time 1005 with a type that a later version no longer knows
+        EventCodec<Event> codec = new EventCodec<>() {
+            @Override
+            public void write(Event event, RecordWriter record) {
+                if (event.getTime() != 1005) {
+                    UserEventCodec.INSTANCE.write(event, record);
+                    return;
+                }
+                record.writeString(event.getId());
+                record.writeLong(event.getTime());
+                record.writeString("REMOVED_EVENT_TYPE");
+                for (int i = 0; i < 6; i++) {
+                    record.writeString(null);
+                }
+                record.writeVarInt(0);
+            }
+
+            @Override
+            public Event read(RecordReader record) {
+                return UserEventCodec.INSTANCE.read(record);
+            }
+        };
+        EventLog log = open(SEGMENT_BYTES, Collections.emptyMap(), codec);
+        for (int i = 0; i < 10; i++) {
+            log.add(event("realm", 1000 + i));
+        }
+        log.close();
+
+        List<String> restored = ids(open(SEGMENT_BYTES));
+        Assert.assertEquals(9, restored.size());
+        Assert.assertFalse(restored.contains("event-1005"));
+        Assert.assertEquals("event-1009", restored.get(0));
+    }
+
+    private EventLog open(int segmentBytes) {
+        return open(segmentBytes, Collections.emptyMap());
+    }
+
+    private EventLog open(int segmentBytes, Map<String, Long> realmQuotas) {
+        return open(segmentBytes, realmQuotas, UserEventCodec.INSTANCE);
+    }
+
+    private EventLog open(int segmentBytes, Map<String, Long> realmQuotas, EventCodec<Event> codec) {
+        EventLog log = new EventLog(1_000_000, ObjectSlots::new);
+        if (!realmQuotas.isEmpty()) {
+            log.quota("realm", Event::getRealmId, realmQuotas, 0);
+        }
+        log.journal(new EventJournal<>(directory, codec, segmentBytes, 0));
+        logs.add(log);
+        return log;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> ids(EventLog log) {
+        return new MemEventQuery(log, log.snapshot()).getResultStream().map(Event::getId).collect(Collectors.toList());
+    }
+
+    private static Event event(String realmId, long time) {
+        Event event = new Event();
+        event.setId("event-" + time);
+        event.setTime(time);
+        event.setType(EventType.LOGIN);
+        event.setRealmId(realmId);
+        event.setUserId("user");
+        return event;
+    }
+}
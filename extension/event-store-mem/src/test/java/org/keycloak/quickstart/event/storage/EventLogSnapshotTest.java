@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that a query keeps seeing the store as of the moment it was created, while events are added, cleared and
+ * expired concurrently.
+ */
+public class EventLogSnapshotTest {
+
+    private static final long TIME = 1_600_000_000_000L;
+
+    @Test
+    public void testEventsAddedLaterAreNotSeen() {
+        EventLog log = new EventLog(1000, ObjectSlots::new);
+        add(log, 0, 10);
+        MemEventQuery query = query(log);
+        add(log, 10, 10);
+
+        Assert.assertEquals(10, query.getResultStream().count());
+        Assert.assertEquals(20, query(log).getResultStream().count());
+    }
+
+    @Test
+    public void testClearedEventsStayVisibleToEarlierSnapshots() {
+        EventLog log = new EventLog(1000, ObjectSlots::new);
+        add(log, 0, 10);
+        MemEventQuery beforeClear = query(log);
+        log.clear("realm-0");
+        MemEventQuery beforeExpire = query(log);
+        log.expire("realm-1", TIME + 5);
+        MemEventQuery beforeClearAll = query(log);
+        log.clear(null);
+
+        Assert.assertEquals(10, beforeClear.getResultStream().count());
+        Assert.assertEquals(5, beforeExpire.getResultStream().count());
+        Assert.assertEquals(3, beforeClearAll.getResultStream().count());
+        Assert.assertEquals(0, query(log).getResultStream().count());
+    }
+
+    @Test
+    public void testOverwrittenEventsAreSkipped() {
+        EventLog log = new EventLog(100, ObjectSlots::new);
+        add(log, 0, 100);
+        MemEventQuery query = query(log);
+        add(log, 100, 30);
+
+        List<Long> times = query.getResultStream().map(Event::getTime).collect(Collectors.toList());
+        Assert.assertEquals(70, times.size());
+        Assert.assertEquals(TIME + 99, (long) times.get(0));
+        Assert.assertEquals(TIME + 30, (long) times.get(69));
+    }
+
+    @Test
+    public void testQueriesNeverFailWhileEventsAreAdded() throws InterruptedException {
+        EventLog log = new EventLog(10_000, ObjectSlots::new);
+        AtomicLong time = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch started = new CountDownLatch(4);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(() -> {
+                started.countDown();
+                while (!stop.get()) {
+                    add(log, time.getAndIncrement(), 1);
+                }
+            });
+            writers[t].start();
+        }
+        started.await();
+
+        try {
+            for (int i = 0; i < 200; i++) {
+                IndexedEventLog.Snapshot<Event> snapshot = log.snapshot();
+                long head = log.head();
+                List<Event> events = new MemEventQuery(log, snapshot).realm("realm-0").getResultStream()
+                        .collect(Collectors.toList());
+                Assert.assertTrue(events.size() <= head);
+                for (int j = 1; j < events.size(); j++) {
+                    Assert.assertTrue(events.get(j - 1).getTime() >= events.get(j).getTime());
+                    Assert.assertEquals("realm-0", events.get(j).getRealmId());
+                }
+            }
+        } finally {
+            stop.set(true);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+    }
+
+    private static MemEventQuery query(EventLog log) {
+        return new MemEventQuery(log, log.snapshot());
+    }
+
+    private static void add(EventLog log, long first, int count) {
+        for (long i = first; i < first + count; i++) {
+            Event event = new Event();
+            event.setTime(TIME + i);
+            event.setType(EventType.LOGIN);
+            event.setRealmId("realm-" + (i % 2));
+            event.setUserId("user-" + (i % 5));
+            log.add(event);
+        }
+    }
+}
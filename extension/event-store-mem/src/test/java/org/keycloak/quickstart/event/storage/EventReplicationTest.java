@@ -0,0 +1,315 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.events.EventType;
+import org.keycloak.models.RealmModel;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import java.util.zip.Deflater;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Runs several replicating nodes of the in-memory event store in one JVM.
+ */
+public class EventReplicationTest {
+
+    private static final int NODES = 3;
+    private static final int EVENTS_PER_NODE = 500;
+    private static final String SECRET = "replication-test-secret";
+
+    private final List<MemEventStoreProviderFactory> factories = new ArrayList<>();
+    private final List<EventStoreProvider> providers = new ArrayList<>();
+    private final List<String> properties = new ArrayList<>();
+    private final int[] ports = new int[NODES];
+
+    @After
+    public void cleanup() {
+        factories.forEach(MemEventStoreProviderFactory::close);
+        properties.forEach(System::clearProperty);
+    }
+
+    @Test
+    public void testEventsAreReplicatedToAllNodes() throws Exception {
+        startNodes();
+
+        for (int node = 0; node < NODES; node++) {
+            for (int i = 0; i < EVENTS_PER_NODE; i++) {
+                providers.get(node).onEvent(event("realm-" + (i % 2), "node-" + node));
+            }
+        }
+        for (EventStoreProvider provider : providers) {
+            await(() -> provider.createQuery().getResultStream().count() == NODES * EVENTS_PER_NODE);
+            Assert.assertEquals(EVENTS_PER_NODE, provider.createQuery().user("node-1").getResultStream().count());
+        }
+
+        providers.get(2).clear(realm("realm-0"));
+        for (EventStoreProvider provider : providers) {
+            await(() -> provider.createQuery().realm("realm-0").getResultStream().count() == 0);
+            Assert.assertEquals(NODES * EVENTS_PER_NODE / 2, provider.createQuery().realm("realm-1").getResultStream().count());
+        }
+    }
+
+    @Test
+    public void testBatchesWithInvalidSignatureAreRejected() throws Exception {
+        startNodes();
+        for (int i = 0; i < EVENTS_PER_NODE; i++) {
+            providers.get(0).onEvent(event("realm-0", "node-0"));
+        }
+        await(() -> providers.get(1).createQuery().getResultStream().count() == EVENTS_PER_NODE);
+
+        Assert.assertFalse(sendClear(ports[1], "forged-secret"));
+        Assert.assertEquals(EVENTS_PER_NODE, providers.get(1).createQuery().getResultStream().count());
+
+        Assert.assertTrue(sendClear(ports[1], SECRET));
+        await(() -> providers.get(1).createQuery().getResultStream().count() == 0);
+    }
+
+    @Test
+    public void testConnectionsWithoutTheSecretAreClosedBeforeReadingBatches() throws Exception {
+        startNodes();
+        try (Socket socket = new Socket("127.0.0.1", ports[0])) {
+            socket.setSoTimeout(10000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            in.readFully(new byte[16]);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.write(new byte[32]);
+            out.writeInt(EventReplicator.MAX_BATCH_BYTES);
+            out.writeInt(EventReplicator.MAX_BATCH_BYTES);
+            out.flush();
+            try {
+                Assert.assertEquals(-1, in.read());
+            } catch (SocketException e) {
+                // Reset, as the node closed the connection without reading the batch header
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionsAreLimited() throws Exception {
+        startNodes();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                Socket socket = new Socket("127.0.0.1", ports[0]);
+                sockets.add(socket);
+                socket.setSoTimeout(10000);
+                new DataInputStream(socket.getInputStream()).readFully(new byte[16]);
+            }
+            try (Socket refused = new Socket("127.0.0.1", ports[0])) {
+                refused.setSoTimeout(10000);
+                Assert.assertEquals(-1, refused.getInputStream().read());
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        await(() -> sendsChallenge(ports[0]));
+    }
+
+    @Test
+    public void testEventsOfUnknownTypesAreSkipped() throws Exception {
+        startNodes();
+        RecordWriter record = new RecordWriter();
+        record.writeVarInt(2);
+        writeEvent(record, "event-1", "LOGIN_WITH_A_FUTURE_FACTOR");
+        writeEvent(record, "event-2", EventType.LOGIN.name());
+
+        Assert.assertTrue(sendBatch(ports[0], SECRET, record));
+        await(() -> providers.get(0).createQuery().getResultStream().count() == 1);
+        Assert.assertEquals("event-2", providers.get(0).createQuery().getResultStream().findFirst().get().getId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSecretIsRequired() {
+        init("replication-test.no-secret.", "cluster-port", "0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMemberWithoutPortIsRejected() {
+        init("replication-test.no-port.", "cluster-port", "0", "cluster-secret", SECRET, "cluster-members", "node2");
+    }
+
+    /**
+     * Starts the nodes on free ports, again on other ports if one of them was taken before the node could listen on it.
+     */
+    private void startNodes() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                tryStartNodes();
+                return;
+            } catch (IllegalStateException e) {
+                if (attempt == 3) {
+                    throw e;
+                }
+                factories.forEach(MemEventStoreProviderFactory::close);
+                factories.clear();
+                providers.clear();
+            }
+        }
+    }
+
+    private void tryStartNodes() throws IOException {
+        for (int node = 0; node < NODES; node++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                ports[node] = socket.getLocalPort();
+            }
+        }
+        for (int node = 0; node < NODES; node++) {
+            String prefix = "replication-test.node-" + node + ".";
+            List<String> members = new ArrayList<>();
+            for (int other = 0; other < NODES; other++) {
+                if (other != node) {
+                    members.add("127.0.0.1:" + ports[other]);
+                }
+            }
+            MemEventStoreProviderFactory factory = init(prefix, "cluster-port", String.valueOf(ports[node]),
+                    "cluster-secret", SECRET, "cluster-members", String.join(",", members));
+            providers.add(factory.create(null));
+        }
+    }
+
+    private MemEventStoreProviderFactory init(String prefix, String... options) {
+        for (int i = 0; i < options.length; i += 2) {
+            System.setProperty(prefix + options[i], options[i + 1]);
+            properties.add(prefix + options[i]);
+        }
+        MemEventStoreProviderFactory factory = new MemEventStoreProviderFactory();
+        factory.init(new Config.SystemPropertiesScope(prefix));
+        factories.add(factory);
+        return factory;
+    }
+
+    /**
+     * Sends a batch clearing all events, signed with the given secret.
+     *
+     * @return whether the node kept the connection open after the batch
+     */
+    private static boolean sendClear(int port, String secret) throws Exception {
+        RecordWriter record = new RecordWriter();
+        record.writeVarInt(1);
+        record.writeByte(3);
+        record.writeString(null);
+        record.writeLong(0);
+        return sendBatch(port, secret, record);
+    }
+
+    private static boolean sendsChallenge(int port) {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(10000);
+            return socket.getInputStream().read() != -1;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void writeEvent(RecordWriter record, String id, String type) {
+        record.writeByte(1);
+        record.writeString(id);
+        record.writeLong(System.currentTimeMillis());
+        record.writeString(type);
+        record.writeString("realm-0");
+        for (int i = 0; i < 5; i++) {
+            record.writeString(null);
+        }
+        record.writeVarInt(0);
+    }
+
+    /**
+     * Answers the challenge of the node and sends the records as one batch, both signed with the given secret.
+     *
+     * @return whether the node kept the connection open after the batch
+     */
+    private static boolean sendBatch(int port, String secret, RecordWriter record) throws Exception {
+        Deflater deflater = new Deflater();
+        deflater.setInput(record.buffer(), 0, record.length());
+        deflater.finish();
+        byte[] compressed = new byte[1024];
+        int length = deflater.deflate(compressed);
+        deflater.end();
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(1000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] challenge = new byte[16];
+            in.readFully(challenge);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            try {
+                out.write(EventReplicator.handshake(mac, challenge));
+                out.writeInt(record.length());
+                out.writeInt(length);
+                out.write(compressed, 0, length);
+                out.write(EventReplicator.sign(mac, challenge, 0, record.length(), compressed, length));
+                out.flush();
+                return in.read() != -1;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } catch (IOException e) {
+                // The node closed the connection while the batch was written
+                return false;
+            }
+        }
+    }
+
+    private static Event event(String realmId, String userId) {
+        Event event = new Event();
+        event.setId(UUID.randomUUID().toString());
+        event.setTime(System.currentTimeMillis());
+        event.setType(EventType.LOGIN);
+        event.setRealmId(realmId);
+        event.setUserId(userId);
+        return event;
+    }
+
+    private static RealmModel realm(String id) {
+        return (RealmModel) Proxy.newProxyInstance(RealmModel.class.getClassLoader(), new Class<?>[] { RealmModel.class },
+                (proxy, method, args) -> "getId".equals(method.getName()) ? id : null);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Events were not replicated in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+}
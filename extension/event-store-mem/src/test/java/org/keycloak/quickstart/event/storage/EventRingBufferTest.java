@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the slot bookkeeping of the event ring buffer.
+ */
+public class EventRingBufferTest {
+
+    @Test
+    public void testConfiguredCapacityIsKept() {
+        EventRingBuffer<Long> events = new EventRingBuffer<>(100, ObjectSlots::new);
+        Assert.assertEquals(100, events.capacity());
+
+        for (long i = 0; i < 150; i++) {
+            Assert.assertEquals(i, events.add(i));
+        }
+        Assert.assertEquals(150, events.head());
+        Assert.assertEquals(50, events.tail(events.head()));
+        Assert.assertNull(events.get(49));
+        Assert.assertEquals(Long.valueOf(50), events.get(50));
+        Assert.assertEquals(Long.valueOf(149), events.get(149));
+        Assert.assertNull(events.get(150));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePositive() {
+        new EventRingBuffer<Long>(0, ObjectSlots::new);
+    }
+
+    @Test
+    public void testCursorsCoverStoredSequencesOnly() {
+        EventRingBuffer<Long> events = new EventRingBuffer<>(10, ObjectSlots::new);
+        for (long i = 0; i < 25; i++) {
+            events.add(i);
+        }
+
+        Assert.assertEquals(List.of(24L, 23L, 22L, 21L, 20L, 19L, 18L, 17L, 16L, 15L),
+                drain(events.cursor(0, events.head(), true)));
+        Assert.assertEquals(List.of(15L, 16L, 17L, 18L, 19L, 20L, 21L, 22L, 23L, 24L),
+                drain(events.cursor(0, events.head(), false)));
+        Assert.assertEquals(List.of(20L, 21L), drain(events.cursor(20, 22, false)));
+    }
+
+    @Test
+    public void testBoundedCursorStopsAtLowerBound() {
+        EventRingBuffer<Long> events = new EventRingBuffer<>(10, ObjectSlots::new);
+        for (long i = 0; i < 10; i++) {
+            events.add(i);
+        }
+
+        Assert.assertEquals(List.of(9L, 8L, 7L), drain(events.cursor(events.cursor(0, 10, true), 7, true)));
+        Assert.assertEquals(List.of(7L, 8L, 9L), drain(events.cursor(events.cursor(0, 10, true), 7, false)));
+    }
+
+    @Test
+    public void testOverwrittenSlotIsDetected() {
+        EventRingBuffer<Long> events = new EventRingBuffer<>(4, ObjectSlots::new);
+        for (long i = 0; i < 4; i++) {
+            events.add(i);
+        }
+        Assert.assertTrue(events.isStored(1));
+        Assert.assertTrue(events.awaitPublished(1));
+
+        events.add(4L);
+        events.add(5L);
+        Assert.assertFalse(events.isStored(1));
+        Assert.assertFalse(events.isUnchanged(1));
+        Assert.assertFalse(events.awaitPublished(1));
+        Assert.assertNull(events.get(1));
+        Assert.assertEquals(Long.valueOf(5), events.get(5));
+    }
+
+    @Test
+    public void testIndexersRunBeforeSlotIsPublished() {
+        EventRingBuffer<Long> events = new EventRingBuffer<>(8, ObjectSlots::new);
+        List<Boolean> published = new ArrayList<>();
+        events.register((sequence, event) -> published.add(events.isStored(sequence)));
+
+        events.add(1L);
+        events.add(2L);
+        Assert.assertEquals(List.of(false, false), published);
+        Assert.assertTrue(events.isStored(1));
+    }
+
+    @Test
+    public void testReadersNeverSeeTornSlots() throws Exception {
+        EventRingBuffer<Long> events = new EventRingBuffer<>(16, ObjectSlots::new);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong mismatches = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            threads.add(new Thread(() -> {
+                while (running.get()) {
+                    long head = events.head();
+                    for (long sequence = events.tail(head); sequence < head; sequence++) {
+                        Long event = events.get(sequence);
+                        if (event != null && event != sequence) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+
+        // Events are added with their own sequence so a reader can tell when it got the content of another lap
+        AtomicLong next = new AtomicLong();
+        Thread[] writers = new Thread[2];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 50000; i++) {
+                    synchronized (next) {
+                        events.add(next.getAndIncrement());
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(0, mismatches.get());
+        Assert.assertEquals(100000, events.head());
+    }
+
+    private static List<Long> drain(SequenceCursor cursor) {
+        List<Long> sequences = new ArrayList<>();
+        long sequence;
+        while ((sequence = cursor.next()) != SequenceCursor.NONE) {
+            sequences.add(sequence);
+        }
+        return sequences;
+    }
+}
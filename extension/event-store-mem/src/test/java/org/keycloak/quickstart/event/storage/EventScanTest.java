@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AdminEventQuery;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that scans evaluated in parallel find the same events, in the same order, as sequential scans.
+ */
+public class EventScanTest {
+
+    private static final long TIME = 1_600_000_000_000L;
+    private static final int EVENTS = 50_000;
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testParallelScanFindsTheSameMatches() {
+        EventRingBuffer<Integer> events = numbers(EVENTS);
+
+        for (boolean newestFirst : new boolean[] { true, false }) {
+            List<Integer> sequential = matches(events, newestFirst, i -> i % 7 == 0, Long.MAX_VALUE, pool);
+            Assert.assertEquals(EVENTS / 7 + 1, sequential.size());
+            Assert.assertEquals(sequential, matches(events, newestFirst, i -> i % 7 == 0, 100, pool));
+            Assert.assertEquals(sequential, matches(events, newestFirst, i -> i % 7 == 0, 0, pool));
+        }
+    }
+
+    @Test
+    public void testParallelScanReportsItsProgress() {
+        EventRingBuffer<Integer> events = numbers(EVENTS);
+        EventScan<Integer> scan = new EventScan<>(events, events.cursor(0, EVENTS, true), (s, e) -> true,
+                i -> false, 0, pool);
+
+        long previous = Long.MAX_VALUE;
+        int returned = 0;
+        long sequence;
+        while ((sequence = scan.next()) != SequenceCursor.NONE) {
+            Assert.assertNull(scan.event());
+            Assert.assertTrue(sequence < previous);
+            previous = sequence;
+            returned++;
+        }
+        Assert.assertEquals(0, previous);
+        Assert.assertEquals((EVENTS + EventScan.CHUNK_SIZE - 1) / EventScan.CHUNK_SIZE, returned);
+    }
+
+    @Test
+    public void testSingleThreadedPoolScansSequentially() {
+        EventRingBuffer<Integer> events = numbers(1000);
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            Assert.assertEquals(matches(events, true, i -> i % 3 == 0, Long.MAX_VALUE, pool),
+                    matches(events, true, i -> i % 3 == 0, 0, single));
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelAdminQueriesMatchSequentialOnes() {
+        AdminEventLog sequential = adminEvents(Long.MAX_VALUE);
+        AdminEventLog parallel = adminEvents(1000);
+
+        List<Function<AdminEventQuery, AdminEventQuery>> queries = List.of(
+                q -> q.resourcePath("users/1.*"),
+                q -> q.resourcePath("users/*").authUser("admin-3"),
+                q -> q.authUser("admin-2").operation(OperationType.DELETE).orderByAscTime(),
+                q -> q.resourcePath("users/2.*").firstResult(500).maxResults(100),
+                q -> q.realm("realm-1").orderByAscTime().firstResult(1000).maxResults(50));
+        for (Function<AdminEventQuery, AdminEventQuery> query : queries) {
+            List<String> expected = ids(query.apply(new MemAdminEventQuery(sequential, sequential.snapshot())));
+            Assert.assertFalse(expected.isEmpty());
+            Assert.assertEquals(expected, ids(query.apply(new MemAdminEventQuery(parallel, parallel.snapshot()))));
+        }
+    }
+
+    private static EventRingBuffer<Integer> numbers(int count) {
+        EventRingBuffer<Integer> events = new EventRingBuffer<>(count, ObjectSlots::new);
+        for (int i = 0; i < count; i++) {
+            events.add(i);
+        }
+        return events;
+    }
+
+    private static List<Integer> matches(EventRingBuffer<Integer> events, boolean newestFirst,
+            Predicate<Integer> filter, long threshold, ForkJoinPool pool) {
+        EventScan<Integer> scan = new EventScan<>(events, events.cursor(0, events.head(), newestFirst),
+                (s, e) -> true, filter, threshold, pool);
+        List<Integer> matches = new ArrayList<>();
+        while (scan.next() != SequenceCursor.NONE) {
+            if (scan.event() != null) {
+                matches.add(scan.event());
+            }
+        }
+        return matches;
+    }
+
+    private static AdminEventLog adminEvents(long threshold) {
+        AdminEventLog log = new AdminEventLog(EVENTS, ObjectSlots::new);
+        log.parallel(threshold);
+        for (int i = 0; i < EVENTS; i++) {
+            AdminEvent event = new AdminEvent();
+            event.setId("event-" + i);
+            event.setTime(TIME + i / 3);
+            event.setRealmId("realm-" + (i % 2));
+            event.setOperationType(OperationType.values()[i % OperationType.values().length]);
+            event.setResourcePath("users/" + (i % 1000));
+            AuthDetails authDetails = new AuthDetails();
+            authDetails.setUserId("admin-" + (i % 5));
+            event.setAuthDetails(authDetails);
+            log.add(event);
+        }
+        return log;
+    }
+
+    private static List<String> ids(AdminEventQuery query) {
+        return query.getResultStream().map(AdminEvent::getId).collect(Collectors.toList());
+    }
+}
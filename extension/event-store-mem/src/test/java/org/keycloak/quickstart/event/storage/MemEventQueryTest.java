@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Checks ordering, paging and filtering of user event queries.
+ */
+public class MemEventQueryTest {
+
+    private static final long TIME = 1_600_000_000_000L;
+
+    private final EventLog log = new EventLog(1000, ObjectSlots::new);
+
+    @Test
+    public void testNewestFirstByDefault() {
+        add(10);
+
+        Assert.assertEquals(times(9, 8, 7, 6, 5, 4, 3, 2, 1, 0), times(query()));
+        Assert.assertEquals(times(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), times(query().orderByAscTime()));
+    }
+
+    @Test
+    public void testPaging() {
+        add(10);
+
+        Assert.assertEquals(times(7, 6, 5), times(query().firstResult(2).maxResults(3)));
+        Assert.assertEquals(times(2, 3, 4), times(query().orderByAscTime().firstResult(2).maxResults(3)));
+        Assert.assertEquals(times(1, 0), times(query().firstResult(8).maxResults(5)));
+        Assert.assertEquals(times(), times(query().firstResult(10)));
+        Assert.assertEquals(times(), times(query().maxResults(0)));
+    }
+
+    @Test
+    public void testPagingAppliesAfterFilters() {
+        add(20);
+
+        Assert.assertEquals(times(15, 13, 11), times(query().realm("realm-1").firstResult(2).maxResults(3)));
+        Assert.assertEquals(times(4, 6, 8), times(query().realm("realm-0").orderByAscTime().firstResult(2).maxResults(3)));
+        Assert.assertEquals(times(2), times(query().user("user-2").realm("realm-0").firstResult(1)));
+    }
+
+    @Test
+    public void testFilters() {
+        add(20);
+
+        Assert.assertEquals(times(19, 14, 9, 4), times(query().user("user-4")));
+        Assert.assertEquals(times(15, 5), times(query().type(EventType.LOGIN_ERROR).realm("realm-1")));
+        Assert.assertEquals(times(13, 12, 11, 10),
+                times(query().fromDate(new Date(TIME + 10)).toDate(new Date(TIME + 13))));
+        Assert.assertEquals(times(16, 12, 8, 4), times(query().client("client-0").realm("realm-0").fromDate(new Date(TIME + 3))));
+        Assert.assertEquals(times(), times(query().client("client-1").realm("realm-0")));
+        Assert.assertEquals(times(13, 6), times(query().ipAddress("10.0.0.6")));
+    }
+
+    @Test
+    public void testQuerySeesEventsStoredBeforeItWasCreated() {
+        add(5);
+        MemEventQuery query = query();
+        add(5);
+
+        Assert.assertEquals(times(4, 3, 2, 1, 0), times(query));
+        Assert.assertEquals(10, query().getResultStream().count());
+    }
+
+    @Test
+    public void testIpAddressSpanningManySegments() {
+        for (int i = 0; i < 600; i++) {
+            Event event = new Event();
+            event.setTime(TIME + i * 6_000L);
+            event.setRealmId("realm-0");
+            event.setType(EventType.LOGIN);
+            event.setIpAddress(i % 100 == 42 ? "192.168.0.1" : "10.0.0." + (i % 7));
+            log.add(event);
+        }
+
+        Assert.assertEquals(List.of(TIME + 542 * 6_000L, TIME + 442 * 6_000L),
+                times(query().ipAddress("192.168.0.1").realm("realm-0").maxResults(2)));
+        Assert.assertEquals(6, query().ipAddress("192.168.0.1").getResultStream().count());
+        Assert.assertEquals(0, query().ipAddress("192.168.0.2").getResultStream().count());
+        Assert.assertEquals(85, query().ipAddress("10.0.0.3").getResultStream().count());
+    }
+
+    private MemEventQuery query() {
+        return new MemEventQuery(log, log.snapshot());
+    }
+
+    private void add(int count) {
+        long first = log.head();
+        for (long i = first; i < first + count; i++) {
+            Event event = new Event();
+            event.setId("event-" + i);
+            event.setTime(TIME + i);
+            event.setType(i % 10 == 5 ? EventType.LOGIN_ERROR : EventType.LOGIN);
+            event.setRealmId("realm-" + (i % 2));
+            event.setUserId("user-" + (i % 5));
+            event.setClientId("client-" + (i % 4));
+            event.setIpAddress("10.0.0." + (i % 7));
+            log.add(event);
+        }
+    }
+
+    private static List<Long> times(long... offsets) {
+        return LongStream.of(offsets).map(offset -> TIME + offset).boxed().collect(Collectors.toList());
+    }
+
+    private static List<Long> times(MemEventQuery query) {
+        return query.getResultStream().map(Event::getTime).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventQuery;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+
+import java.lang.reflect.Proxy;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Checks that clearing and expiring events through the provider hides exactly the events stored before.
+ */
+public class MemEventStoreProviderTest {
+
+    private final EventLog events = new EventLog(1000, ObjectSlots::new);
+    private final AdminEventLog adminEvents = new AdminEventLog(1000, ObjectSlots::new);
+    private long time = System.currentTimeMillis() - 100_000;
+
+    @After
+    public void cleanup() {
+        events.close();
+        adminEvents.close();
+    }
+
+    @Test
+    public void testClearDropsAllUserEvents() {
+        MemEventStoreProvider provider = provider(null);
+        add(provider, 10);
+        EventQuery before = provider.createQuery();
+
+        provider.clear();
+        Assert.assertEquals(0, provider.createQuery().getResultStream().count());
+        Assert.assertEquals(10, provider.createAdminQuery().getResultStream().count());
+        Assert.assertEquals(20, before.getResultStream().count());
+
+        add(provider, 2);
+        Assert.assertEquals(4, provider.createQuery().getResultStream().count());
+    }
+
+    @Test
+    public void testClearAdminDropsAllAdminEvents() {
+        MemEventStoreProvider provider = provider(null);
+        add(provider, 10);
+
+        provider.clearAdmin();
+        Assert.assertEquals(0, provider.createAdminQuery().getResultStream().count());
+        Assert.assertEquals(20, provider.createQuery().getResultStream().count());
+
+        add(provider, 3);
+        Assert.assertEquals(3, provider.createAdminQuery().getResultStream().count());
+    }
+
+    @Test
+    public void testClearRealm() {
+        MemEventStoreProvider provider = provider(null);
+        add(provider, 10);
+
+        provider.clear(realm("realm-0", 0));
+        provider.clearAdmin(realm("realm-1", 0));
+        Assert.assertEquals(0, provider.createQuery().realm("realm-0").getResultStream().count());
+        Assert.assertEquals(10, provider.createQuery().realm("realm-1").getResultStream().count());
+        Assert.assertEquals(5, provider.createAdminQuery().realm("realm-0").getResultStream().count());
+        Assert.assertEquals(0, provider.createAdminQuery().realm("realm-1").getResultStream().count());
+    }
+
+    @Test
+    public void testClearOlderThan() {
+        MemEventStoreProvider provider = provider(null);
+        add(provider, 10);
+        long cutoff = time - 5;
+
+        provider.clear(realm("realm-0", 0), cutoff);
+        provider.clearAdmin(realm("realm-0", 0), cutoff);
+        Assert.assertTrue(provider.createQuery().realm("realm-0").getResultStream()
+                .allMatch(e -> e.getTime() >= cutoff));
+        Assert.assertEquals(2, provider.createQuery().realm("realm-0").getResultStream().count());
+        Assert.assertEquals(10, provider.createQuery().realm("realm-1").getResultStream().count());
+        Assert.assertEquals(1, provider.createAdminQuery().realm("realm-0").getResultStream().count());
+    }
+
+    @Test
+    public void testClearExpiredEventsUsesRealmExpiration() {
+        RealmModel expiring = realm("realm-0", 50);
+        RealmModel keeping = realm("realm-1", 0);
+        RealmProvider realms = proxy(RealmProvider.class,
+                method -> "getRealmsStream".equals(method) ? Stream.of(expiring, keeping) : null);
+        KeycloakSession session = proxy(KeycloakSession.class, method -> "realms".equals(method) ? realms : null);
+        MemEventStoreProvider provider = provider(session);
+        add(provider, 5);
+        time = System.currentTimeMillis();
+        add(provider, 5);
+
+        provider.clearExpiredEvents();
+        Assert.assertEquals(5, provider.createQuery().realm("realm-0").getResultStream().count());
+        Assert.assertEquals(10, provider.createQuery().realm("realm-1").getResultStream().count());
+        Assert.assertEquals(6, provider.createAdminQuery().realm("realm-0").getResultStream().count());
+    }
+
+    @Test
+    public void testClearWaitsForSubmittedEvents() {
+        events.async("test-writer", 1000, 10, AsyncEventWriter.Backpressure.BLOCK);
+        MemEventStoreProvider provider = provider(null);
+        add(provider, 100);
+
+        provider.clear();
+        Assert.assertEquals(0, provider.createQuery().getResultStream().count());
+    }
+
+    private MemEventStoreProvider provider(KeycloakSession session) {
+        EventFilter filter = new EventFilter(new Config.SystemPropertiesScope("mem-event-store-provider-test."));
+        return new MemEventStoreProvider(events, adminEvents, filter, null, session);
+    }
+
+    /**
+     * Adds the given number of user events to each of two realms, and half as many admin events.
+     */
+    private void add(MemEventStoreProvider provider, int count) {
+        for (int i = 0; i < 2 * count; i++) {
+            Event event = new Event();
+            event.setTime(time);
+            event.setRealmId("realm-" + (i % 2));
+            event.setType(EventType.LOGIN);
+            provider.onEvent(event);
+            if (i % 2 == 0) {
+                AdminEvent adminEvent = new AdminEvent();
+                adminEvent.setTime(time);
+                adminEvent.setRealmId("realm-" + (i / 2 % 2));
+                adminEvent.setOperationType(OperationType.UPDATE);
+                provider.onEvent(adminEvent, false);
+            }
+            time++;
+        }
+    }
+
+    private static RealmModel realm(String id, long eventsExpiration) {
+        return proxy(RealmModel.class, method -> {
+            switch (method) {
+                case "getId":
+                    return id;
+                case "getEventsExpiration":
+                    return eventsExpiration;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, Function<String, Object> methods) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> methods.apply(method.getName())));
+    }
+}
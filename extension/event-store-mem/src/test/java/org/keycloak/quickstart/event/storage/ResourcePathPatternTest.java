@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that resource path queries match like a regular expression search, or like the JPA event store for globs,
+ * whether or not they use an index.
+ */
+public class ResourcePathPatternTest {
+
+    private static final String[] PATHS = { "users/1", "users/1/role-mappings/realm", "users/12", "users/2/groups/g",
+            "clients/1", "clients/1/roles/users", "groups", "users", "users/1x", "usersx/1", null };
+
+    @Test
+    public void testPatternsMatchAnyPartOfThePath() {
+        Assert.assertTrue(ResourcePathPattern.compile("users").test("users/123"));
+        Assert.assertTrue(ResourcePathPattern.compile("users").test("clients/1/roles/users"));
+        Assert.assertTrue(ResourcePathPattern.compile("role-mappings").test("users/1/role-mappings/realm"));
+        Assert.assertFalse(ResourcePathPattern.compile("^users$").test("users/123"));
+        Assert.assertFalse(ResourcePathPattern.compile("users").test(null));
+    }
+
+    @Test
+    public void testIndexKeysOnlyCoverWholeSegments() {
+        Assert.assertNull(ResourcePathPattern.compile("users/1/").indexKey(1));
+        Assert.assertEquals("users", ResourcePathPattern.compile("^users/1").indexKey(1));
+        Assert.assertNull(ResourcePathPattern.compile("^users/1").indexKey(2));
+        Assert.assertEquals("users/1", ResourcePathPattern.compile("^users/1/").indexKey(2));
+        Assert.assertEquals("users/1", ResourcePathPattern.compile("^users/1$").indexKey(2));
+        Assert.assertNull(ResourcePathPattern.compile("^users/*").indexKey(1));
+        Assert.assertNull(ResourcePathPattern.compile("^users/1?/").indexKey(2));
+        Assert.assertEquals("users", ResourcePathPattern.compile("^users/1?/").indexKey(1));
+        Assert.assertNull(ResourcePathPattern.compile("^users/1/|groups").indexKey(1));
+        Assert.assertNull(ResourcePathPattern.compile("(?i)^users/").indexKey(1));
+    }
+
+    @Test
+    public void testGlobsMatchTheWholePath() {
+        ResourcePathPattern pattern = ResourcePathPattern.compile("users/*");
+        Assert.assertTrue(pattern.test("users/1"));
+        Assert.assertTrue(pattern.test("users/1/role-mappings/realm"));
+        Assert.assertFalse(pattern.test("clients/1/roles/users/1"));
+        Assert.assertFalse(pattern.test("users"));
+        Assert.assertTrue(ResourcePathPattern.compile("users/*/groups/*").test("users/1/groups/g"));
+        Assert.assertFalse(ResourcePathPattern.compile("users/*/groups/*").test("users/1/role-mappings/realm"));
+        Assert.assertTrue(ResourcePathPattern.compile("*/roles/*").test("clients/1/roles/users"));
+    }
+
+    @Test
+    public void testGlobIndexKeys() {
+        Assert.assertEquals("users", ResourcePathPattern.compile("users/*").indexKey(1));
+        Assert.assertNull(ResourcePathPattern.compile("users/*").indexKey(2));
+        Assert.assertEquals("users/1", ResourcePathPattern.compile("users/1/*").indexKey(2));
+        Assert.assertNull(ResourcePathPattern.compile("users*").indexKey(1));
+        Assert.assertNull(ResourcePathPattern.compile("*/roles/*").indexKey(1));
+    }
+
+    @Test
+    public void testGlobQueriesUseTheIndex() {
+        CountingSlots slots = new CountingSlots(1000);
+        AdminEventLog log = new AdminEventLog(1000, size -> slots);
+        for (int i = 0; i < 1000; i++) {
+            AdminEvent event = new AdminEvent();
+            event.setId("event-" + i);
+            event.setTime(i);
+            event.setRealmId("realm");
+            event.setOperationType(OperationType.UPDATE);
+            event.setResourcePath(i % 100 == 0 ? "users/" + i : "clients/" + i);
+            log.add(event);
+        }
+
+        slots.reads = 0;
+        Assert.assertEquals(10, query(log, "users/*").size());
+        Assert.assertEquals(10, slots.reads);
+    }
+
+    @Test
+    public void testQueriesMatchLikeRegularExpressionSearch() {
+        AdminEventLog log = new AdminEventLog(1000, ObjectSlots::new);
+        for (int i = 0; i < 110; i++) {
+            AdminEvent event = new AdminEvent();
+            event.setId("event-" + i);
+            event.setTime(i);
+            event.setRealmId("realm");
+            event.setOperationType(OperationType.UPDATE);
+            event.setResourcePath(PATHS[i % PATHS.length]);
+            log.add(event);
+        }
+
+        String[] globs = { "users/*", "users/1/*", "users*", "*/roles/*", "users/*/groups/*" };
+        for (String glob : globs) {
+            Pattern regex = Pattern.compile(glob.replace("*", ".*"));
+            List<String> expected = query(log, null).stream()
+                    .filter(e -> e.getResourcePath() != null && regex.matcher(e.getResourcePath()).matches())
+                    .map(AdminEvent::getId)
+                    .collect(Collectors.toList());
+            List<String> actual = query(log, glob).stream().map(AdminEvent::getId).collect(Collectors.toList());
+            Assert.assertEquals(glob, expected, actual);
+            Assert.assertFalse(glob, actual.isEmpty());
+        }
+
+        String[] patterns = { "users", "users/1", "^users/1", "^users/1/", "^users/1$", "^users/\\d+$", "^users/1?/",
+                "users/.*/groups", "^users/*", "^users/1/|groups", "role-mappings", "^clients/1/roles/users$", "s/1",
+                "^groups", "^usersx/" };
+        for (String pattern : patterns) {
+            Pattern regex = Pattern.compile(pattern);
+            List<String> expected = query(log, null).stream()
+                    .filter(e -> e.getResourcePath() != null && regex.matcher(e.getResourcePath()).find())
+                    .map(AdminEvent::getId)
+                    .collect(Collectors.toList());
+            List<String> actual = query(log, pattern).stream().map(AdminEvent::getId).collect(Collectors.toList());
+            Assert.assertEquals(pattern, expected, actual);
+            Assert.assertFalse(pattern, actual.isEmpty());
+        }
+    }
+
+    private static List<AdminEvent> query(AdminEventLog log, String pattern) {
+        MemAdminEventQuery query = new MemAdminEventQuery(log, log.snapshot());
+        if (pattern != null) {
+            query.resourcePath(pattern);
+        }
+        return query.getResultStream().collect(Collectors.toList());
+    }
+
+    private static class CountingSlots extends ObjectSlots<AdminEvent> {
+
+        private int reads;
+
+        private CountingSlots(int size) {
+            super(size);
+        }
+
+        @Override
+        public AdminEvent read(int index, long sequence, EventRingBuffer<AdminEvent> buffer) {
+            reads++;
+            return super.read(index, sequence, buffer);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that retention quotas keep the events of every key in a partition of their own and that queries merge the
+ * partitions with the shared log.
+ */
+public class RetentionQuotaTest {
+
+    private static final long TIME = 1_600_000_000_000L;
+
+    private final EventLog log = new EventLog(100, ObjectSlots::new);
+    private long time = TIME;
+
+    @Test
+    public void testBusyKeyDoesNotOverwriteOtherKeys() {
+        log.quota("realm", Event::getRealmId, Map.of("noisy", 10L), 0);
+        List<Event> quiet = add(50, "quiet", EventType.LOGIN);
+        add(1000, "noisy", EventType.LOGIN);
+
+        Collections.reverse(quiet);
+        Assert.assertEquals(times(quiet), times(query().realm("quiet")));
+        Assert.assertEquals(10, query().realm("noisy").getResultStream().count());
+        Assert.assertEquals(TIME + 1049, query().realm("noisy").getResultStream().findFirst().get().getTime());
+        Assert.assertEquals(TIME + 1040,
+                query().realm("noisy").orderByAscTime().getResultStream().findFirst().get().getTime());
+        Assert.assertEquals(Map.of("realm noisy", 990L), log.evictions());
+    }
+
+    @Test
+    public void testDefaultQuotaAppliesPerKey() {
+        log.quota("realm", Event::getRealmId, Map.of("large", 30L), 5);
+        add(20, "realm-a", EventType.LOGIN);
+        add(20, "realm-b", EventType.LOGIN);
+        add(50, "large", EventType.LOGIN);
+        add(3, null, EventType.LOGIN);
+
+        Assert.assertEquals(5, query().realm("realm-a").getResultStream().count());
+        Assert.assertEquals(5, query().realm("realm-b").getResultStream().count());
+        Assert.assertEquals(30, query().realm("large").getResultStream().count());
+        Assert.assertEquals(43, query().getResultStream().count());
+    }
+
+    @Test
+    public void testCombinedQuotasUseSmallestQuota() {
+        log.quota("realm", Event::getRealmId, Collections.emptyMap(), 20);
+        log.quota("event type", e -> e.getType().name(), Map.of(EventType.LOGIN_ERROR.name(), 5L), 0);
+        add(50, "realm-a", EventType.LOGIN_ERROR);
+        add(50, "realm-a", EventType.LOGIN);
+        add(50, "realm-b", EventType.LOGIN_ERROR);
+
+        Assert.assertEquals(5, query().realm("realm-a").type(EventType.LOGIN_ERROR).getResultStream().count());
+        Assert.assertEquals(20, query().realm("realm-a").type(EventType.LOGIN).getResultStream().count());
+        Assert.assertEquals(5, query().realm("realm-b").getResultStream().count());
+    }
+
+    @Test
+    public void testQueriesMergePartitionsInTimeOrder() {
+        log.quota("realm", Event::getRealmId, Map.of("realm-0", 40L, "realm-1", 40L), 0);
+        Random random = new Random(3);
+        List<Event> all = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            all.add(add("realm-" + random.nextInt(3), random.nextBoolean() ? EventType.LOGIN : EventType.LOGIN_ERROR));
+        }
+
+        List<Event> expected = all.stream()
+                .filter(e -> e.getTime() >= oldestRetained(all, e.getRealmId(),
+                        e.getRealmId().equals("realm-2") ? 100 : 40))
+                .sorted(Comparator.comparingLong(Event::getTime).reversed())
+                .collect(Collectors.toList());
+        Assert.assertEquals(times(expected), times(query()));
+        Assert.assertEquals(times(expected.subList(10, 25)), times(query().firstResult(10).maxResults(15)));
+
+        List<Event> errors = expected.stream().filter(e -> e.getType() == EventType.LOGIN_ERROR)
+                .collect(Collectors.toList());
+        Collections.reverse(errors);
+        Assert.assertEquals(times(errors), times(query().type(EventType.LOGIN_ERROR).orderByAscTime()));
+    }
+
+    @Test
+    public void testIndexesOfPartitionsAreUsed() {
+        log.indexDetail("username");
+        log.quota("realm", Event::getRealmId, Collections.emptyMap(), 10);
+        add(5, "realm-a", EventType.LOGIN);
+        Event event = event("realm-a", EventType.LOGIN);
+        event.setUserId("user-1");
+        event.setIpAddress("10.0.0.1");
+        event.setDetails(Map.of("username", "alice"));
+        log.add(event);
+        add(5, "realm-b", EventType.LOGIN);
+
+        Assert.assertEquals(1, query().user("user-1").getResultStream().count());
+        Assert.assertEquals(1, query().ipAddress("10.0.0.1").getResultStream().count());
+        Assert.assertEquals(1, query().detail("username", "alice").getResultStream().count());
+        Assert.assertEquals(Map.of("alice", 1L), query().countByDetail("username"));
+        Assert.assertEquals(0, query().user("user-1").realm("realm-b").getResultStream().count());
+    }
+
+    @Test
+    public void testClearAndExpireApplyToPartitions() {
+        log.quota("realm", Event::getRealmId, Collections.emptyMap(), 20);
+        add(10, "realm-a", EventType.LOGIN);
+        add(10, "realm-b", EventType.LOGIN);
+        MemEventQuery before = query();
+
+        log.clear("realm-a");
+        log.expire("realm-b", TIME + 15);
+
+        Assert.assertEquals(0, query().realm("realm-a").getResultStream().count());
+        Assert.assertEquals(5, query().realm("realm-b").getResultStream().count());
+        Assert.assertEquals(20, before.getResultStream().count());
+
+        add(3, "realm-a", EventType.LOGIN);
+        Assert.assertEquals(3, query().realm("realm-a").getResultStream().count());
+        Assert.assertEquals(20, before.getResultStream().count());
+    }
+
+    @Test
+    public void testSnapshotDoesNotSeeLaterPartitions() {
+        log.quota("realm", Event::getRealmId, Collections.emptyMap(), 10);
+        add(3, "realm-a", EventType.LOGIN);
+        MemEventQuery before = query();
+        add(3, "realm-b", EventType.LOGIN);
+
+        Assert.assertEquals(3, before.getResultStream().count());
+        Assert.assertEquals(6, query().getResultStream().count());
+    }
+
+    @Test
+    public void testPartitionsGrowUpToTheirQuota() {
+        log.quota("realm", Event::getRealmId, Map.of("noisy", 3000L), 0);
+        add(RetentionQuota.INITIAL_CAPACITY, "noisy", EventType.LOGIN);
+        MemEventQuery before = query();
+        add(5000 - RetentionQuota.INITIAL_CAPACITY, "noisy", EventType.LOGIN);
+
+        Assert.assertEquals(RetentionQuota.INITIAL_CAPACITY, before.getResultStream().count());
+        Assert.assertEquals(3000, query().getResultStream().count());
+        Assert.assertEquals(TIME + 4999, query().getResultStream().findFirst().get().getTime());
+        Assert.assertEquals(TIME + 2000, query().orderByAscTime().getResultStream().findFirst().get().getTime());
+        Assert.assertEquals(Map.of("realm noisy", 2000L), log.evictions());
+    }
+
+    @Test
+    public void testGrownPartitionsKeepClearsAndExpirations() {
+        log.quota("realm", Event::getRealmId, Collections.emptyMap(), 3000);
+        add(RetentionQuota.INITIAL_CAPACITY, "realm-a", EventType.LOGIN);
+        add(RetentionQuota.INITIAL_CAPACITY, "realm-b", EventType.LOGIN);
+        log.clear("realm-a");
+        log.expire("realm-b", TIME + 2000);
+
+        add(1, "realm-a", EventType.LOGIN);
+        add(1, "realm-b", EventType.LOGIN);
+        Assert.assertEquals(1, query().realm("realm-a").getResultStream().count());
+        Assert.assertEquals(49, query().realm("realm-b").getResultStream().count());
+
+        Event late = event("realm-b", EventType.LOGIN);
+        late.setTime(TIME);
+        log.add(late);
+        Assert.assertEquals(49, query().realm("realm-b").getResultStream().count());
+    }
+
+    @Test
+    public void testPartitionCapacityIsBounded() {
+        log.quota("realm", Event::getRealmId, Collections.emptyMap(), 10);
+        log.quotaCapacity(25);
+        add(20, "realm-a", EventType.LOGIN);
+        add(20, "realm-b", EventType.LOGIN);
+        add(20, "realm-c", EventType.LOGIN);
+
+        Assert.assertEquals(10, query().realm("realm-a").getResultStream().count());
+        Assert.assertEquals(10, query().realm("realm-b").getResultStream().count());
+        Assert.assertEquals(20, query().realm("realm-c").getResultStream().count());
+        Assert.assertEquals(2, log.evictions().size());
+    }
+
+    @Test
+    public void testEmptyPartitionsAreDropped() {
+        log.quota("realm", Event::getRealmId, Collections.emptyMap(), 10);
+        log.quotaCapacity(20);
+        add(5, "realm-a", EventType.LOGIN);
+        add(5, "realm-b", EventType.LOGIN);
+        log.clear("realm-a");
+        log.dropEmptyPartitions();
+        Assert.assertEquals(Set.of("realm realm-b"), log.evictions().keySet());
+
+        add(20, "realm-c", EventType.LOGIN);
+        Assert.assertEquals(10, query().realm("realm-c").getResultStream().count());
+        Assert.assertEquals(Set.of("realm realm-b", "realm realm-c"), log.evictions().keySet());
+
+        add(3, "realm-a", EventType.LOGIN);
+        Assert.assertEquals(3, query().realm("realm-a").getResultStream().count());
+        Assert.assertEquals(5, query().realm("realm-b").getResultStream().count());
+    }
+
+    @Test
+    public void testConcurrentEventsAreKeptWhilePartitionsGrow() throws Exception {
+        log.quota("realm", Event::getRealmId, Collections.emptyMap(), 5000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            long start = TIME + t * 1000;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    Event event = event("realm", EventType.LOGIN);
+                    event.setTime(start + i);
+                    log.add(event);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(4000, query().getResultStream().count());
+        Assert.assertEquals(Map.of("realm realm", 0L), log.evictions());
+    }
+
+    @Test
+    public void testAdminEventQuotas() {
+        AdminEventLog adminLog = new AdminEventLog(100, ObjectSlots::new);
+        adminLog.quota("realm", AdminEvent::getRealmId, Map.of("noisy", 5L), 0);
+        for (int i = 0; i < 30; i++) {
+            AdminEvent event = new AdminEvent();
+            event.setTime(TIME + i);
+            event.setRealmId(i < 10 ? "quiet" : "noisy");
+            event.setOperationType(OperationType.UPDATE);
+            event.setResourcePath("users/" + i);
+            adminLog.add(event);
+        }
+
+        MemAdminEventQuery query = new MemAdminEventQuery(adminLog, adminLog.snapshot());
+        Assert.assertEquals(15, query.getResultStream().count());
+        Assert.assertEquals(1, new MemAdminEventQuery(adminLog, adminLog.snapshot()).resourcePath("users/27")
+                .getResultStream().count());
+        Assert.assertEquals(0, new MemAdminEventQuery(adminLog, adminLog.snapshot()).resourcePath("users/24")
+                .getResultStream().count());
+    }
+
+    private static long oldestRetained(List<Event> events, String realmId, int count) {
+        List<Event> matching = events.stream().filter(e -> e.getRealmId().equals(realmId)).collect(Collectors.toList());
+        return matching.size() <= count ? Long.MIN_VALUE : matching.get(matching.size() - count).getTime();
+    }
+
+    private MemEventQuery query() {
+        return new MemEventQuery(log, log.snapshot());
+    }
+
+    private List<Event> add(int count, String realmId, EventType type) {
+        List<Event> added = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            added.add(add(realmId, type));
+        }
+        return added;
+    }
+
+    private Event add(String realmId, EventType type) {
+        Event event = event(realmId, type);
+        log.add(event);
+        return event;
+    }
+
+    private Event event(String realmId, EventType type) {
+        Event event = new Event();
+        event.setTime(time++);
+        event.setRealmId(realmId);
+        event.setType(type);
+        return event;
+    }
+
+    private static List<Long> times(List<Event> events) {
+        return events.stream().map(Event::getTime).collect(Collectors.toList());
+    }
+
+    private static List<Long> times(MemEventQuery query) {
+        return times(query.getResultStream().collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Checks the chains of the secondary indexes.
+ */
+public class SequenceIndexTest {
+
+    @Test
+    public void testChainsVisitOneKeyNewestFirst() {
+        EventRingBuffer<String> events = new EventRingBuffer<>(100, ObjectSlots::new);
+        SequenceIndex<String> index = events.index(Function.identity());
+        for (int i = 0; i < 30; i++) {
+            events.add("key-" + (i % 3));
+        }
+
+        Assert.assertEquals(List.of(28L, 25L, 22L, 19L, 16L, 13L, 10L, 7L, 4L, 1L),
+                drain(index.cursor("key-1", events.head())));
+        Assert.assertEquals(List.of(13L, 10L, 7L, 4L, 1L), drain(index.cursor("key-1", 14)));
+        Assert.assertEquals(List.of(), drain(index.cursor("key-3", events.head())));
+        Assert.assertEquals(10, index.estimate("key-1"));
+    }
+
+    @Test
+    public void testMergedChainsStayDescending() {
+        EventRingBuffer<String> events = new EventRingBuffer<>(100, ObjectSlots::new);
+        SequenceIndex<String> index = events.index(Function.identity());
+        for (int i = 0; i < 12; i++) {
+            events.add("key-" + (i % 4));
+        }
+
+        Assert.assertEquals(List.of(10L, 9L, 6L, 5L, 2L, 1L), drain(index.cursor(Set.of("key-1", "key-2"), events.head())));
+        Assert.assertEquals(6, index.estimate(Set.of("key-1", "key-2")));
+    }
+
+    @Test
+    public void testChainsEndAtOverwrittenEvents() {
+        EventRingBuffer<String> events = new EventRingBuffer<>(10, ObjectSlots::new);
+        SequenceIndex<String> index = events.index(Function.identity());
+        for (int i = 0; i < 25; i++) {
+            events.add(i % 2 == 0 ? "even" : "odd");
+        }
+
+        Assert.assertEquals(List.of(24L, 22L, 20L, 18L, 16L), drain(index.cursor("even", events.head())));
+        Assert.assertEquals(10, index.estimate("even"));
+    }
+
+    @Test
+    public void testPurgeForgetsOverwrittenKeys() {
+        EventRingBuffer<String> events = new EventRingBuffer<>(10, ObjectSlots::new);
+        SequenceIndex<String> index = events.index(Function.identity());
+        events.add("old");
+        for (int i = 0; i < 10; i++) {
+            events.add("new");
+        }
+
+        index.purge();
+        Assert.assertEquals(0, index.estimate("old"));
+        Assert.assertEquals(10, index.estimate("new"));
+    }
+
+    @Test
+    public void testLinksInAnyOrderKeepChainDescending() {
+        EventRingBuffer<String> events = new EventRingBuffer<>(100, ObjectSlots::new);
+        for (int i = 0; i < 20; i++) {
+            events.add("key");
+        }
+        // Links the events the way concurrent writers may get to it: sequences 10 and 11 before 5
+        SequenceIndex<String> index = new SequenceIndex<>(events, Function.identity());
+        for (long sequence : new long[] { 3, 10, 11, 5, 4, 12, 0, 7 }) {
+            index.link(sequence, "key");
+        }
+
+        Assert.assertEquals(List.of(12L, 11L, 10L, 7L, 5L, 4L, 3L, 0L), drain(index.cursor("key", events.head())));
+    }
+
+    @Test
+    public void testConcurrentWritersKeepChainDescending() throws Exception {
+        EventRingBuffer<String> events = new EventRingBuffer<>(100000, ObjectSlots::new);
+        SequenceIndex<String> index = events.index(Function.identity());
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    events.add(i % 2 == 0 ? "even" : "odd");
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        List<Long> sequences = drain(index.cursor(Set.of("even", "odd"), events.head()));
+        Assert.assertEquals(80000, sequences.size());
+        for (int i = 0; i < sequences.size(); i++) {
+            Assert.assertEquals(79999 - i, (long) sequences.get(i));
+        }
+    }
+
+    private static List<Long> drain(SequenceCursor cursor) {
+        List<Long> sequences = new ArrayList<>();
+        long sequence;
+        while ((sequence = cursor.next()) != SequenceCursor.NONE) {
+            sequences.add(sequence);
+        }
+        return sequences;
+    }
+}
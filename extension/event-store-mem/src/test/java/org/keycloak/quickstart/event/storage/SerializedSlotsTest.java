@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Checks the event codecs and the off-heap arena the serialized events are kept in.
+ */
+public class SerializedSlotsTest {
+
+    @Test
+    public void testUserEventsAreDecodedAsStored() {
+        EventRingBuffer<Event> events = new EventRingBuffer<>(8,
+                size -> new SerializedSlots<>(size, UserEventCodec.INSTANCE, new ByteArena(64 * 1024, true)));
+        Event full = CompactEventSlotsTest.event(UUID.randomUUID().toString(), "realm", "client", "10.0.0.1",
+                Map.of("redirect_uri", "https://app.example.com/" + "x".repeat(1000)));
+        full.setError("invalid_code");
+        Event empty = new Event();
+
+        events.add(full);
+        events.add(empty);
+        CompactEventSlotsTest.assertEvent(full, events.get(0));
+        CompactEventSlotsTest.assertEvent(empty, events.get(1));
+    }
+
+    @Test
+    public void testAdminEventsAreDecodedAsStored() {
+        EventRingBuffer<AdminEvent> events = new EventRingBuffer<>(8,
+                size -> new SerializedSlots<>(size, AdminEventCodec.INSTANCE, new ByteArena(64 * 1024, true)));
+        AdminEvent full = adminEvent("users/" + UUID.randomUUID(), "{\"username\":\"ünïcode\"}");
+        AdminEvent empty = new AdminEvent();
+
+        events.add(full);
+        events.add(empty);
+        assertAdminEvent(full, events.get(0));
+        assertAdminEvent(empty, events.get(1));
+        Assert.assertNull(events.get(1).getAuthDetails());
+    }
+
+    @Test
+    public void testRecordsWrapAroundTheArena() {
+        // Records of about 100 bytes in an arena of 1024 bytes end up split across its end
+        EventRingBuffer<AdminEvent> events = new EventRingBuffer<>(4,
+                size -> new SerializedSlots<>(size, AdminEventCodec.INSTANCE, new ByteArena(1024, true)));
+        for (int i = 0; i < 100; i++) {
+            AdminEvent event = adminEvent("groups/" + i, null);
+            events.add(event);
+            assertAdminEvent(event, events.get(i));
+        }
+    }
+
+    @Test
+    public void testRecordsLargerThanTheArenaAreNotStored() {
+        EventRingBuffer<AdminEvent> events = new EventRingBuffer<>(4,
+                size -> new SerializedSlots<>(size, AdminEventCodec.INSTANCE, new ByteArena(256, false)));
+        events.add(adminEvent("users", "x".repeat(1000)));
+        events.add(adminEvent("users", null));
+
+        Assert.assertNull(events.get(0));
+        Assert.assertNotNull(events.get(1));
+    }
+
+    @Test
+    public void testPrimitivesRoundTrip() {
+        RecordWriter writer = new RecordWriter();
+        long[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+        for (long value : values) {
+            writer.writeVarLong(value);
+            writer.writeLong(value);
+        }
+        writer.writeString(null);
+        writer.writeString("");
+        writer.writeString("x".repeat(10000));
+
+        RecordReader reader = new RecordReader(Arrays.copyOf(writer.buffer(), writer.length()));
+        for (long value : values) {
+            Assert.assertEquals(value, reader.readVarLong());
+            Assert.assertEquals(value, reader.readLong());
+        }
+        Assert.assertNull(reader.readString());
+        Assert.assertEquals("", reader.readString());
+        Assert.assertEquals("x".repeat(10000), reader.readString());
+    }
+
+    private static AdminEvent adminEvent(String resourcePath, String representation) {
+        AuthDetails authDetails = new AuthDetails();
+        authDetails.setRealmId("master");
+        authDetails.setClientId("admin-cli");
+        authDetails.setUserId(UUID.randomUUID().toString());
+        authDetails.setIpAddress("10.0.0.1");
+        AdminEvent event = new AdminEvent();
+        event.setId(UUID.randomUUID().toString());
+        event.setTime(System.currentTimeMillis());
+        event.setRealmId("realm");
+        event.setAuthDetails(authDetails);
+        event.setOperationType(OperationType.UPDATE);
+        event.setResourceType(ResourceType.USER);
+        event.setResourcePath(resourcePath);
+        event.setRepresentation(representation);
+        return event;
+    }
+
+    private static void assertAdminEvent(AdminEvent expected, AdminEvent actual) {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected.getId(), actual.getId());
+        Assert.assertEquals(expected.getTime(), actual.getTime());
+        Assert.assertEquals(expected.getRealmId(), actual.getRealmId());
+        Assert.assertEquals(expected.getOperationType(), actual.getOperationType());
+        Assert.assertEquals(expected.getResourceTypeAsString(), actual.getResourceTypeAsString());
+        Assert.assertEquals(expected.getResourcePath(), actual.getResourcePath());
+        Assert.assertEquals(expected.getRepresentation(), actual.getRepresentation());
+        Assert.assertEquals(expected.getError(), actual.getError());
+        if (expected.getAuthDetails() != null) {
+            Assert.assertEquals(expected.getAuthDetails().getRealmId(), actual.getAuthDetails().getRealmId());
+            Assert.assertEquals(expected.getAuthDetails().getClientId(), actual.getAuthDetails().getClientId());
+            Assert.assertEquals(expected.getAuthDetails().getUserId(), actual.getAuthDetails().getUserId());
+            Assert.assertEquals(expected.getAuthDetails().getIpAddress(), actual.getAuthDetails().getIpAddress());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that queries return events ordered by event time when events are stored slightly out of order.
+ */
+public class TimeOrderedSpliteratorTest {
+
+    private static final long TIME = 1_600_000_000_000L;
+
+    private final EventLog log = new EventLog(5000, ObjectSlots::new);
+    private final List<Event> stored = new ArrayList<>();
+
+    public TimeOrderedSpliteratorTest() {
+        Random random = new Random(42);
+        for (int i = 0; i < 4000; i++) {
+            Event event = new Event();
+            event.setId(String.valueOf(i));
+            // Roughly increasing times with jitter of up to two seconds across minute boundaries
+            event.setTime(TIME + i * 100L + random.nextInt(2000) - 1000);
+            event.setType(EventType.LOGIN);
+            event.setRealmId("realm");
+            event.setUserId("user-" + random.nextInt(5));
+            log.add(event);
+            stored.add(event);
+        }
+    }
+
+    @Test
+    public void testEventsAreOrderedByTime() {
+        assertOrdered(null, true, 0, Integer.MAX_VALUE);
+        assertOrdered(null, false, 0, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testPagesAreOrderedByTime() {
+        assertOrdered(null, true, 0, 10);
+        assertOrdered(null, true, 1234, 100);
+        assertOrdered(null, false, 3990, 100);
+    }
+
+    @Test
+    public void testIndexedQueriesAreOrderedByTime() {
+        assertOrdered("user-3", true, 0, Integer.MAX_VALUE);
+        assertOrdered("user-3", false, 100, 50);
+        assertOrdered("user-0", true, 700, 500);
+    }
+
+    private void assertOrdered(String userId, boolean newestFirst, int first, int max) {
+        Comparator<Event> order = Comparator.comparingLong(Event::getTime).thenComparingInt(e -> Integer.parseInt(e.getId()));
+        List<String> expected = stored.stream()
+                .filter(e -> userId == null || userId.equals(e.getUserId()))
+                .sorted(newestFirst ? order.reversed() : order)
+                .skip(first)
+                .limit(max)
+                .map(Event::getId)
+                .collect(Collectors.toList());
+
+        MemEventQuery query = new MemEventQuery(log, log.snapshot()).firstResult(first).maxResults(max);
+        if (userId != null) {
+            query.user(userId);
+        }
+        if (!newestFirst) {
+            query.orderByAscTime();
+        }
+        Assert.assertEquals(expected, query.getResultStream().map(Event::getId).collect(Collectors.toList()));
+    }
+}
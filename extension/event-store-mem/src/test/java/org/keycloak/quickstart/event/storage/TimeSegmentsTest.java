@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.keycloak.quickstart.event.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks the translation of time ranges to sequences and the expiry of events.
+ */
+public class TimeSegmentsTest {
+
+    private static final long MINUTE = TimeSegments.SEGMENT_MILLIS;
+    private static final long TIME = 1_600_000_020 * MINUTE;
+
+    @Test
+    public void testTimeRangesNarrowDownSequences() {
+        EventRingBuffer<Long> events = new EventRingBuffer<>(100, ObjectSlots::new);
+        TimeSegments<Long> segments = events.register(new TimeSegments<>(events, Long::longValue));
+        // Ten events per minute over five minutes
+        for (int i = 0; i < 50; i++) {
+            events.add(TIME + (i / 10) * MINUTE + i % 10);
+        }
+        long head = events.head();
+
+        for (long time = TIME - 1; time < TIME + 6 * MINUTE; time += MINUTE / 2) {
+            long lower = segments.lowerBound(time, head);
+            long upper = segments.upperBound(time, head);
+            for (long sequence = 0; sequence < head; sequence++) {
+                long t = events.get(sequence);
+                Assert.assertTrue("Event " + sequence + " missed from " + time, t < time || sequence >= lower);
+                Assert.assertTrue("Event " + sequence + " missed to " + time, t > time || sequence < upper);
+            }
+        }
+        Assert.assertEquals(0, segments.lowerBound(TIME, head));
+        Assert.assertTrue(segments.lowerBound(TIME + 2 * MINUTE, head) >= 10);
+        Assert.assertEquals(head, segments.lowerBound(TIME + 10 * MINUTE, head));
+        Assert.assertTrue(segments.upperBound(TIME + 2 * MINUTE + 5, head) <= 40);
+        Assert.assertEquals(0, segments.upperBound(TIME - 1, head));
+    }
+
+    @Test
+    public void testSketchSkipsSegmentsWithoutTheValue() {
+        EventRingBuffer<Long> events = new EventRingBuffer<>(100, ObjectSlots::new);
+        TimeSegments<Long> segments = events.register(new TimeSegments<>(events, Long::longValue));
+        TimeSegments.Sketch<Long> minutes = segments.sketch(t -> "minute-" + (t - TIME) / MINUTE);
+        for (int i = 0; i < 50; i++) {
+            events.add(TIME + (i / 10) * MINUTE + i % 10);
+        }
+
+        List<Long> sequences = drain(segments.cursor(0, events.head(), true, Map.of(minutes, "minute-3")));
+        for (long sequence = 30; sequence < 40; sequence++) {
+            Assert.assertTrue(sequences.contains(sequence));
+        }
+        Assert.assertTrue(sequences.size() < 25);
+        Assert.assertTrue(sequences.get(0) > sequences.get(sequences.size() - 1));
+        Assert.assertEquals(50, drain(segments.cursor(0, events.head(), false, Collections.emptyMap())).size());
+    }
+
+    @Test
+    public void testBoundsOfOutOfOrderEvents() {
+        EventRingBuffer<Long> events = new EventRingBuffer<>(100, ObjectSlots::new);
+        TimeSegments<Long> segments = events.register(new TimeSegments<>(events, Long::longValue));
+        long[] times = { TIME + 10, TIME + 5, TIME + MINUTE, TIME + 20, TIME + 2 * MINUTE, TIME + MINUTE + 1 };
+        for (long time : times) {
+            events.add(time);
+        }
+
+        TimeSegments.Bounds bounds = segments.bounds(events.head());
+        for (int sequence = 0; sequence < times.length; sequence++) {
+            for (int other = 0; other < times.length; other++) {
+                if (other <= sequence) {
+                    Assert.assertTrue(bounds.newestBefore(sequence) >= times[other]);
+                }
+                if (other >= sequence) {
+                    Assert.assertTrue(bounds.oldestAfter(sequence) <= times[other]);
+                }
+            }
+        }
+        Assert.assertEquals(TIME + 5, bounds.oldestAfter(0));
+    }
+
+    @Test
+    public void testExpiryHidesOldEventsOfOneRealm() {
+        EventLog log = new EventLog(1000, ObjectSlots::new);
+        for (int i = 0; i < 100; i++) {
+            Event event = new Event();
+            event.setTime(TIME + i * MINUTE / 10);
+            event.setType(EventType.LOGIN);
+            event.setRealmId("realm-" + (i % 2));
+            log.add(event);
+        }
+
+        log.expire("realm-0", TIME + 5 * MINUTE);
+        Assert.assertEquals(25, count(log, "realm-0", null));
+        Assert.assertEquals(50, count(log, "realm-1", null));
+        Assert.assertEquals(10, count(log, "realm-0", TIME + 8 * MINUTE));
+
+        log.expire("realm-0", TIME);
+        Assert.assertEquals(25, count(log, "realm-0", null));
+    }
+
+    private static long count(EventLog log, String realmId, Long from) {
+        MemEventQuery query = new MemEventQuery(log, log.snapshot()).realm(realmId);
+        if (from != null) {
+            query.fromDate(new Date(from));
+        }
+        return query.getResultStream().count();
+    }
+
+    private static List<Long> drain(SequenceCursor cursor) {
+        List<Long> sequences = new ArrayList<>();
+        long sequence;
+        while ((sequence = cursor.next()) != SequenceCursor.NONE) {
+            sequences.add(sequence);
+        }
+        return sequences;
+    }
+}